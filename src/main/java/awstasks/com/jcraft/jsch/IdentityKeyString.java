@@ -21,4 +21,8 @@ public class IdentityKeyString {
         IdentityFile identityFile = IdentityFile.newInstance("keyFileContent-" + keyFileContent.hashCode(), keyFileContent.getBytes(), null, jSch);
         return identityFile;
     }
+
+    public static Identity newFileInstance(String keyFile, JSch jSch) throws JSchException {
+        return IdentityFile.newInstance(keyFile, null, jSch);
+    }
 }
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package awstasks.com.jcraft.jsch;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * JVM wide cache of parsed known_hosts files. A file is parsed once and re-parsed only if its
+ * modification time or size changed. The returned {@link KnownHosts} instances synchronize all
+ * their accesses internally and can be shared between sessions.
+ */
+public class KnownHostsCache {
+
+    private static final Logger LOG = Logger.getLogger(KnownHostsCache.class);
+    private static final ConcurrentMap<String, CachedKnownHosts> KNOWN_HOSTS_BY_PATH = new ConcurrentHashMap<String, CachedKnownHosts>();
+
+    public static HostKeyRepository getKnownHosts(String knownHostsFile, JSch jSch) throws JSchException {
+        File file = new File(knownHostsFile).getAbsoluteFile();
+        String path = file.getPath();
+        CachedKnownHosts cachedKnownHosts = KNOWN_HOSTS_BY_PATH.get(path);
+        if (cachedKnownHosts == null || !cachedKnownHosts.isUpToDate(file)) {
+            synchronized (KNOWN_HOSTS_BY_PATH) {
+                cachedKnownHosts = KNOWN_HOSTS_BY_PATH.get(path);
+                if (cachedKnownHosts == null || !cachedKnownHosts.isUpToDate(file)) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Loading known hosts: " + path);
+                    }
+                    long lastModified = file.lastModified();
+                    long length = file.length();
+                    KnownHosts knownHosts = new KnownHosts(jSch);
+                    knownHosts.setKnownHosts(path);
+                    cachedKnownHosts = new CachedKnownHosts(knownHosts, lastModified, length);
+                    KNOWN_HOSTS_BY_PATH.put(path, cachedKnownHosts);
+                }
+            }
+        }
+        return cachedKnownHosts._knownHosts;
+    }
+
+    public static void clear() {
+        KNOWN_HOSTS_BY_PATH.clear();
+    }
+
+    private static class CachedKnownHosts {
+
+        private final KnownHosts _knownHosts;
+        private final long _lastModified;
+        private final long _length;
+
+        public CachedKnownHosts(KnownHosts knownHosts, long lastModified, long length) {
+            _knownHosts = knownHosts;
+            _lastModified = lastModified;
+            _length = length;
+        }
+
+        public boolean isUpToDate(File file) {
+            return _lastModified == file.lastModified() && _length == file.length();
+        }
+    }
+}
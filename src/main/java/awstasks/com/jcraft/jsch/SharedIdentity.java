@@ -0,0 +1,76 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package awstasks.com.jcraft.jsch;
+
+/**
+ * An {@link Identity} which can be used by multiple {@link JSch} instances and sessions
+ * concurrently. Signing is stateless in jsch, only decryption needs to be guarded. Clearing is
+ * ignored since other sessions might still use the identity.
+ */
+public class SharedIdentity implements Identity {
+
+    private final Identity _identity;
+
+    public SharedIdentity(Identity identity) {
+        _identity = identity;
+    }
+
+    @Override
+    public synchronized boolean setPassphrase(byte[] passphrase) throws JSchException {
+        return _identity.setPassphrase(passphrase);
+    }
+
+    @Override
+    public byte[] getPublicKeyBlob() {
+        return _identity.getPublicKeyBlob();
+    }
+
+    @Override
+    public byte[] getSignature(byte[] data) {
+        return _identity.getSignature(data);
+    }
+
+    @Override
+    @Deprecated
+    public synchronized boolean decrypt() {
+        return _identity.decrypt();
+    }
+
+    @Override
+    public String getAlgName() {
+        return _identity.getAlgName();
+    }
+
+    @Override
+    public String getName() {
+        return _identity.getName();
+    }
+
+    @Override
+    public synchronized boolean isEncrypted() {
+        return _identity.isEncrypted();
+    }
+
+    @Override
+    public void clear() {
+        // shared between sessions - don't clear
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + getName() + "]";
+    }
+}
@@ -18,12 +18,16 @@ package datameer.awstasks.ant;
 import org.apache.log4j.Logger;
 import org.apache.tools.ant.Task;
 
+import awstasks.com.amazonaws.AmazonWebServiceClient;
+import datameer.awstasks.aws.concurrent.AwsRateLimiters;
+
 public abstract class AbstractAwsTask extends Task {
 
     protected static final Logger LOG = Logger.getLogger(AbstractAwsTask.class);
 
     protected String _accessKey;
     protected String _accessSecret;
+    protected boolean _rateLimited = true;
 
     public String getAccessKey() {
         return _accessKey;
@@ -41,4 +45,23 @@ public abstract class AbstractAwsTask extends Task {
         _accessSecret = accessSecret;
     }
 
+    public boolean isRateLimited() {
+        return _rateLimited;
+    }
+
+    /**
+     * Limits the rate of the aws requests of this task together with all other rate limited clients
+     * of the JVM (see {@link AwsRateLimiters}). Enabled by default.
+     */
+    public void setRateLimited(boolean rateLimited) {
+        _rateLimited = rateLimited;
+    }
+
+    protected <T extends AmazonWebServiceClient> T configureClient(T client) {
+        if (_rateLimited) {
+            AwsRateLimiters.rateLimited(client);
+        }
+        return client;
+    }
+
 }
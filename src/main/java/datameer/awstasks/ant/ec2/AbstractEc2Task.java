@@ -49,10 +49,9 @@ public abstract class AbstractEc2Task extends AbstractAwsTask {
     }
 
     private AmazonEC2 createEc2() {
-        AmazonEC2Client ec2Client = new AmazonEC2Client(new BasicAWSCredentials(_accessKey, _accessSecret));
-        Region region = getRegioAndSuppressWarnings();
+        AmazonEC2Client ec2Client = configureClient(new AmazonEC2Client(new BasicAWSCredentials(_accessKey, _accessSecret)));
         if (_region != null && !_region.trim().isEmpty()) {
-            ec2Client.setRegion(region);
+            ec2Client.setRegion(getRegioAndSuppressWarnings());
         }
         LOG.info("connect to region " + _region);
         return ec2Client;
@@ -17,7 +17,9 @@ package datameer.awstasks.ant.ec2;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.tools.ant.BuildException;
@@ -25,7 +27,6 @@ import org.apache.tools.ant.BuildException;
 import awstasks.com.amazonaws.services.ec2.AmazonEC2;
 import awstasks.com.amazonaws.services.ec2.model.AuthorizeSecurityGroupIngressRequest;
 import awstasks.com.amazonaws.services.ec2.model.CreateSecurityGroupRequest;
-import awstasks.com.amazonaws.services.ec2.model.CreateTagsRequest;
 import awstasks.com.amazonaws.services.ec2.model.Instance;
 import awstasks.com.amazonaws.services.ec2.model.InstanceStateName;
 import awstasks.com.amazonaws.services.ec2.model.IpPermission;
@@ -34,6 +35,7 @@ import awstasks.com.amazonaws.services.ec2.model.RunInstancesRequest;
 import awstasks.com.amazonaws.services.ec2.model.Tag;
 import awstasks.org.apache.commons.codec.binary.Base64;
 import datameer.awstasks.aws.ec2.GroupPermission;
+import datameer.awstasks.aws.ec2.InstanceDescriptionCache;
 import datameer.awstasks.aws.ec2.InstanceGroup;
 import datameer.awstasks.aws.ec2.InstanceGroupImpl;
 import datameer.awstasks.util.Ec2Util;
@@ -209,14 +211,14 @@ public class Ec2LaunchTask extends AbstractEc2Task {
                 instanceGroup.launch(launchConfiguration, TimeUnit.MINUTES, _maxStartTime);
                 if (_instanceName != null) {
                     LOG.info("tagging instances with name '" + _instanceName + " [<idx>]'");
+                    Map<String, List<Tag>> tagsByInstanceId = new LinkedHashMap<String, List<Tag>>();
                     int idx = 1;
                     for (Instance instance : instanceGroup.getInstances(false)) {
-                        CreateTagsRequest createTagsRequest = new CreateTagsRequest();
-                        createTagsRequest.withResources(instance.getInstanceId()) //
-                                .withTags(new Tag("Name", _instanceName + " [" + idx + "]"));
-                        ec2.createTags(createTagsRequest);
+                        tagsByInstanceId.put(instance.getInstanceId(), Arrays.asList(new Tag("Name", _instanceName + " [" + idx + "]")));
                         idx++;
                     }
+                    Ec2Util.tagResources(ec2, tagsByInstanceId);
+                    InstanceDescriptionCache.getSharedInstance().invalidate(tagsByInstanceId.keySet());
                 }
             }
         } catch (Exception e) {
@@ -25,6 +25,7 @@ import awstasks.com.amazonaws.services.ec2.model.Instance;
 import awstasks.com.amazonaws.services.ec2.model.Reservation;
 import awstasks.com.amazonaws.services.ec2.model.Tag;
 
+import datameer.awstasks.util.Ec2Util;
 import datameer.com.google.common.base.Objects;
 import datameer.com.google.common.collect.ImmutableList;
 import datameer.com.google.common.collect.LinkedHashMultimap;
@@ -33,6 +34,8 @@ import datameer.com.google.common.collect.Multimap;
 
 public class Ec2ListRunningInstances extends AbstractEc2Task {
 
+    private static final int PAGE_SIZE = 500;
+
     private List<FilterEntry> _filterEntries = Lists.newArrayList();
     private String _nameFilter;
 
@@ -56,11 +59,10 @@ public class Ec2ListRunningInstances extends AbstractEc2Task {
         for (Filter filter : filters) {
             System.out.println("\t" + filter);
         }
-        List<Reservation> reservations = ec2.describeInstances(describeRequest).getReservations();
         System.out.println("Retrieved following reservations:");
         int runningInstanceGroups = 0;
         int runningInstances = 0;
-        for (Reservation reservation : reservations) {
+        for (Reservation reservation : Ec2Util.describeAllReservations(ec2, describeRequest)) {
             List<Instance> instances = reservation.getInstances();
             runningInstanceGroups++;
             runningInstances += instances.size();
@@ -73,7 +75,7 @@ public class Ec2ListRunningInstances extends AbstractEc2Task {
     }
 
     private DescribeInstancesRequest createDescribeRequest() {
-        DescribeInstancesRequest describeInstancesRequest = new DescribeInstancesRequest();
+        DescribeInstancesRequest describeInstancesRequest = new DescribeInstancesRequest().withMaxResults(PAGE_SIZE);
         Multimap<String, String> keyToValuesMap = combineFiltersWithSameName();
         Set<String> keySet = keyToValuesMap.keySet();
         for (String key : keySet) {
@@ -20,6 +20,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
@@ -34,6 +42,7 @@ import datameer.awstasks.ant.ec2.model.SshExec;
 import datameer.awstasks.aws.ec2.InstanceGroup;
 import datameer.awstasks.aws.ec2.InstanceGroupImpl;
 import datameer.awstasks.aws.ec2.ssh.SshClient;
+import datameer.com.google.common.base.Throwables;
 
 public class Ec2SshTask extends AbstractEc2Task implements TaskContainer {
 
@@ -41,8 +50,10 @@ public class Ec2SshTask extends AbstractEc2Task implements TaskContainer {
     private String _password;
     private File _keyFile;
     private boolean _connectRetries;
+    private boolean _parallel;
+    private int _threadCount = 4;
     private List<Object> _commands = new ArrayList<Object>();
-    private Map<String, String> _propertyMap = new HashMap<String, String>();
+    private Map<String, String> _propertyMap = new ConcurrentHashMap<String, String>();
     private InstanceGroup _instanceGroup;
 
     public Ec2SshTask() {
@@ -85,6 +96,30 @@ public class Ec2SshTask extends AbstractEc2Task implements TaskContainer {
         return _connectRetries;
     }
 
+    /**
+     * If set, the nested commands are executed as a dependency graph instead of in declaration
+     * order. Ssh/scp commands without a 'dependsOn' attribute are started right away, nested ant
+     * tasks act as a barrier between the commands declared before and after them.
+     */
+    public void setParallel(boolean parallel) {
+        _parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return _parallel;
+    }
+
+    /**
+     * The maximum number of commands executed concurrently in parallel mode.
+     */
+    public void setThreadCount(int threadCount) {
+        _threadCount = threadCount;
+    }
+
+    public int getThreadCount() {
+        return _threadCount;
+    }
+
     @Override
     public void addTask(Task task) {
         _commands.add(task);
@@ -122,14 +157,16 @@ public class Ec2SshTask extends AbstractEc2Task implements TaskContainer {
 
             // execute the commands
             SshClient sshClient = createSshClient();
-            for (Object command : _commands) {
-                if (command instanceof SshCommand) {
-                    ((SshCommand) command).execute(getProject(), _propertyMap, sshClient, instanceCount);
-                } else if (command instanceof Task) {
-                    ((Task) command).perform();
+            try {
+                if (_parallel) {
+                    executeCommandGraph(buildCommandGraph(), sshClient, instanceCount);
                 } else {
-                    throw new IllegalStateException("type '" + command.getClass().getName() + "' not supported here");
+                    for (Object command : _commands) {
+                        executeCommand(command, sshClient, instanceCount);
+                    }
                 }
+            } finally {
+                sshClient.close();
             }
 
             for (String propertyName : _propertyMap.keySet()) {
@@ -140,6 +177,143 @@ public class Ec2SshTask extends AbstractEc2Task implements TaskContainer {
         }
     }
 
+    private void executeCommand(Object command, SshClient sshClient, int instanceCount) throws Exception {
+        if (command instanceof SshCommand) {
+            ((SshCommand) command).execute(getProject(), _propertyMap, sshClient, instanceCount);
+        } else if (command instanceof Task) {
+            ((Task) command).perform();
+        } else {
+            throw new IllegalStateException("type '" + command.getClass().getName() + "' not supported here");
+        }
+    }
+
+    private List<CommandNode> buildCommandGraph() {
+        List<CommandNode> nodes = new ArrayList<CommandNode>(_commands.size());
+        Map<String, CommandNode> nodesById = new HashMap<String, CommandNode>();
+        List<CommandNode> nodesSinceBarrier = new ArrayList<CommandNode>();
+        CommandNode barrier = null;
+        for (Object command : _commands) {
+            CommandNode node = new CommandNode(command);
+            if (barrier != null) {
+                node.dependOn(barrier);
+            }
+            if (command instanceof SshCommand) {
+                String id = ((SshCommand) command).getId();
+                if (id != null && nodesById.put(id, node) != null) {
+                    throw new BuildException("duplicated command id '" + id + "'");
+                }
+                nodesSinceBarrier.add(node);
+            } else {
+                // we don't know what a plain ant task touches, so it runs isolated
+                for (CommandNode previousNode : nodesSinceBarrier) {
+                    node.dependOn(previousNode);
+                }
+                nodesSinceBarrier.clear();
+                barrier = node;
+            }
+            nodes.add(node);
+        }
+        for (CommandNode node : nodes) {
+            if (node._command instanceof SshCommand) {
+                for (String dependsOnId : ((SshCommand) node._command).getDependsOnIds()) {
+                    CommandNode dependency = nodesById.get(dependsOnId);
+                    if (dependency == null) {
+                        throw new BuildException("command '" + node + "' depends on unknown command id '" + dependsOnId + "'");
+                    }
+                    node.dependOn(dependency);
+                }
+            }
+        }
+        checkForCycles(nodes);
+        return nodes;
+    }
+
+    private static void checkForCycles(List<CommandNode> nodes) {
+        Map<CommandNode, Integer> openDependencies = new HashMap<CommandNode, Integer>();
+        List<CommandNode> readyNodes = new ArrayList<CommandNode>();
+        for (CommandNode node : nodes) {
+            openDependencies.put(node, node._dependencyCount);
+            if (node._dependencyCount == 0) {
+                readyNodes.add(node);
+            }
+        }
+        int resolvedCount = 0;
+        while (!readyNodes.isEmpty()) {
+            CommandNode node = readyNodes.remove(readyNodes.size() - 1);
+            resolvedCount++;
+            for (CommandNode dependent : node._dependents) {
+                int count = openDependencies.get(dependent) - 1;
+                openDependencies.put(dependent, count);
+                if (count == 0) {
+                    readyNodes.add(dependent);
+                }
+            }
+        }
+        if (resolvedCount < nodes.size()) {
+            List<CommandNode> unresolvedNodes = new ArrayList<CommandNode>();
+            for (CommandNode node : nodes) {
+                if (openDependencies.get(node) > 0) {
+                    unresolvedNodes.add(node);
+                }
+            }
+            throw new BuildException("cyclic dependencies between commands " + unresolvedNodes);
+        }
+    }
+
+    private void executeCommandGraph(List<CommandNode> nodes, final SshClient sshClient, final int instanceCount) throws Exception {
+        LOG.info("executing " + nodes.size() + " commands with up to " + _threadCount + " threads");
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, _threadCount));
+        CompletionService<CommandNode> completionService = new ExecutorCompletionService<CommandNode>(executorService);
+        try {
+            int runningCount = 0;
+            for (CommandNode node : nodes) {
+                if (node._dependencyCount == 0) {
+                    submit(completionService, node, sshClient, instanceCount);
+                    runningCount++;
+                }
+            }
+            Throwable failure = null;
+            while (runningCount > 0) {
+                Future<CommandNode> future = completionService.take();
+                runningCount--;
+                try {
+                    CommandNode finishedNode = future.get();
+                    if (failure != null) {
+                        continue;
+                    }
+                    for (CommandNode dependent : finishedNode._dependents) {
+                        dependent._dependencyCount--;
+                        if (dependent._dependencyCount == 0) {
+                            submit(completionService, dependent, sshClient, instanceCount);
+                            runningCount++;
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    // let the running commands finish but don't start new ones
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure != null) {
+                Throwables.propagateIfPossible(failure, Exception.class);
+                throw new RuntimeException(failure);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void submit(CompletionService<CommandNode> completionService, final CommandNode node, final SshClient sshClient, final int instanceCount) {
+        completionService.submit(new Callable<CommandNode>() {
+            @Override
+            public CommandNode call() throws Exception {
+                executeCommand(node._command, sshClient, instanceCount);
+                return node;
+            }
+        });
+    }
+
     private SshClient createSshClient() {
         if (_keyFile != null) {
             return _instanceGroup.createSshClient(_username, _keyFile);
@@ -147,4 +321,30 @@ public class Ec2SshTask extends AbstractEc2Task implements TaskContainer {
         return _instanceGroup.createSshClient(_username, _password);
     }
 
+    private static class CommandNode {
+
+        private final Object _command;
+        private final List<CommandNode> _dependents = new ArrayList<CommandNode>();
+        private int _dependencyCount;
+
+        CommandNode(Object command) {
+            _command = command;
+        }
+
+        void dependOn(CommandNode dependency) {
+            if (!dependency._dependents.contains(this)) {
+                dependency._dependents.add(this);
+                _dependencyCount++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (_command instanceof SshCommand && ((SshCommand) _command).getId() != null) {
+                return ((SshCommand) _command).getId();
+            }
+            return String.valueOf(_command);
+        }
+    }
+
 }
@@ -15,11 +15,13 @@
  */
 package datameer.awstasks.ant.ec2;
 
+import java.util.List;
+
 import awstasks.com.amazonaws.services.ec2.AmazonEC2;
 import awstasks.com.amazonaws.services.ec2.model.Tag;
-import awstasks.com.amazonaws.services.ec2.model.Instance;
-import awstasks.com.amazonaws.services.ec2.model.CreateTagsRequest;
+import datameer.awstasks.aws.ec2.InstanceDescriptionCache;
 import datameer.awstasks.aws.ec2.InstanceGroup;
+import datameer.awstasks.util.Ec2Util;
 
 public class Ec2TagTask extends AbstractEc2ConnectTask {
 
@@ -36,11 +38,8 @@ public class Ec2TagTask extends AbstractEc2ConnectTask {
     @Override
     protected void doExecute(AmazonEC2 ec2, InstanceGroup instanceGroup) throws Exception {
         LOG.info("executing " + getClass().getSimpleName() + " with groupName '" + _groupName + "'");
-        for (Instance instance : instanceGroup.getInstances(false)) {
-            CreateTagsRequest createTagsRequest = new CreateTagsRequest();
-            createTagsRequest.withResources(instance.getInstanceId())
-                    .withTags(new Tag(_key, _value));
-            ec2.createTags(createTagsRequest);
-        }
+        List<String> instanceIds = Ec2Util.toIds(instanceGroup.getInstances(false));
+        Ec2Util.tagResources(ec2, instanceIds, new Tag(_key, _value));
+        InstanceDescriptionCache.getSharedInstance().invalidate(instanceIds);
     }
 }
@@ -16,6 +16,8 @@
 package datameer.awstasks.ant.ec2.model;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.tools.ant.Project;
@@ -26,6 +28,8 @@ public abstract class SshCommand {
 
     private String _targetInstances;
     private String _if;
+    private String _id;
+    private String _dependsOn;
 
     public void setTargetInstances(String targetInstances) {
         _targetInstances = targetInstances;
@@ -47,6 +51,38 @@ public abstract class SshCommand {
         _if = if1;
     }
 
+    public String getId() {
+        return _id;
+    }
+
+    public void setId(String id) {
+        _id = id;
+    }
+
+    public String getDependsOn() {
+        return _dependsOn;
+    }
+
+    /**
+     * Comma separated list of command ids which have to be finished before this command starts.
+     * Only evaluated if the enclosing task executes its commands in parallel.
+     */
+    public void setDependsOn(String dependsOn) {
+        _dependsOn = dependsOn;
+    }
+
+    public List<String> getDependsOnIds() {
+        List<String> ids = new ArrayList<String>();
+        if (_dependsOn != null) {
+            for (String id : _dependsOn.split(",")) {
+                if (!id.trim().isEmpty()) {
+                    ids.add(id.trim());
+                }
+            }
+        }
+        return ids;
+    }
+
     public boolean isIfFulfilled(Project project) {
         String property = project.getProperty(_if);
         if (_if == null || _if.isEmpty()) {
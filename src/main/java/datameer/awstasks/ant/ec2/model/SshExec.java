@@ -24,6 +24,7 @@ import java.util.Map;
 import org.apache.log4j.Logger;
 import org.apache.tools.ant.Project;
 
+import datameer.awstasks.aws.ec2.ssh.RollingExecution;
 import datameer.awstasks.aws.ec2.ssh.SshClient;
 import datameer.awstasks.util.IoUtil;
 
@@ -34,6 +35,12 @@ public class SshExec extends SshCommand {
     private String _command;
     private File _commandFile;
     private String _outputProperty;
+    private int _batchSize;
+    private int _maxFailures;
+    private long _batchPause;
+    private String _healthCheckCommand;
+    private long _healthCheckTimeout;
+    private long _healthCheckInterval = 5000;
 
     public String getCommand() {
         return _command;
@@ -59,6 +66,70 @@ public class SshExec extends SshCommand {
         return _outputProperty;
     }
 
+    public int getBatchSize() {
+        return _batchSize;
+    }
+
+    /**
+     * If set the command is executed in batches of the given size one after another instead of on
+     * all instances at once.
+     */
+    public void setBatchSize(int batchSize) {
+        _batchSize = batchSize;
+    }
+
+    public int getMaxFailures() {
+        return _maxFailures;
+    }
+
+    public void setMaxFailures(int maxFailures) {
+        _maxFailures = maxFailures;
+    }
+
+    public long getBatchPause() {
+        return _batchPause;
+    }
+
+    public void setBatchPause(long batchPause) {
+        _batchPause = batchPause;
+    }
+
+    public String getHealthCheckCommand() {
+        return _healthCheckCommand;
+    }
+
+    public void setHealthCheckCommand(String healthCheckCommand) {
+        _healthCheckCommand = healthCheckCommand;
+    }
+
+    public long getHealthCheckTimeout() {
+        return _healthCheckTimeout;
+    }
+
+    public void setHealthCheckTimeout(long healthCheckTimeout) {
+        _healthCheckTimeout = healthCheckTimeout;
+    }
+
+    public long getHealthCheckInterval() {
+        return _healthCheckInterval;
+    }
+
+    public void setHealthCheckInterval(long healthCheckInterval) {
+        _healthCheckInterval = healthCheckInterval;
+    }
+
+    public boolean isRolling() {
+        return _batchSize > 0;
+    }
+
+    private RollingExecution createRollingExecution() {
+        RollingExecution rollingExecution = new RollingExecution(_batchSize).withMaxFailures(_maxFailures).withBatchPause(_batchPause);
+        if (_healthCheckCommand != null) {
+            rollingExecution.withHealthCheck(_healthCheckCommand, _healthCheckTimeout, _healthCheckInterval);
+        }
+        return rollingExecution;
+    }
+
     @Override
     public String toString() {
         return _command;
@@ -76,19 +147,12 @@ public class SshExec extends SshCommand {
         if (pipeResultToProperty) {
             outputStream = new ByteArrayOutputStream();
         }
+        ClientCall clientCall = isRolling() ? new RollingClientCall(createRollingExecution()) : new ClientCall();
         if (getCommandFile() == null) {
             substituteVariables(propertyMap);
-            if (targetInstances == null) {
-                sshClient.executeCommand(getCommand(), outputStream);
-            } else {
-                sshClient.executeCommand(getCommand(), outputStream, targetInstances);
-            }
+            clientCall.executeCommand(sshClient, getCommand(), outputStream, targetInstances);
         } else {
-            if (targetInstances == null) {
-                sshClient.executeCommandFile(getCommandFile(), outputStream);
-            } else {
-                sshClient.executeCommandFile(getCommandFile(), outputStream, targetInstances);
-            }
+            clientCall.executeCommandFile(sshClient, getCommandFile(), outputStream, targetInstances);
         }
         if (pipeResultToProperty) {
             String result = new String(((ByteArrayOutputStream) outputStream).toByteArray());
@@ -116,4 +180,56 @@ public class SshExec extends SshCommand {
         }
     }
 
+    /**
+     * Executes the command or command file on all or only the targeted instances at once.
+     */
+    private static class ClientCall {
+
+        public void executeCommand(SshClient sshClient, String command, OutputStream outputStream, int[] targetInstances) throws IOException {
+            if (targetInstances == null) {
+                sshClient.executeCommand(command, outputStream);
+            } else {
+                sshClient.executeCommand(command, outputStream, targetInstances);
+            }
+        }
+
+        public void executeCommandFile(SshClient sshClient, File commandFile, OutputStream outputStream, int[] targetInstances) throws IOException {
+            if (targetInstances == null) {
+                sshClient.executeCommandFile(commandFile, outputStream);
+            } else {
+                sshClient.executeCommandFile(commandFile, outputStream, targetInstances);
+            }
+        }
+    }
+
+    /**
+     * Executes the command or command file batch by batch.
+     */
+    private static class RollingClientCall extends ClientCall {
+
+        private final RollingExecution _rollingExecution;
+
+        public RollingClientCall(RollingExecution rollingExecution) {
+            _rollingExecution = rollingExecution;
+        }
+
+        @Override
+        public void executeCommand(SshClient sshClient, String command, OutputStream outputStream, int[] targetInstances) throws IOException {
+            if (targetInstances == null) {
+                sshClient.executeCommand(command, outputStream, _rollingExecution);
+            } else {
+                sshClient.executeCommand(command, outputStream, targetInstances, _rollingExecution);
+            }
+        }
+
+        @Override
+        public void executeCommandFile(SshClient sshClient, File commandFile, OutputStream outputStream, int[] targetInstances) throws IOException {
+            if (targetInstances == null) {
+                sshClient.executeCommandFile(commandFile, outputStream, _rollingExecution);
+            } else {
+                sshClient.executeCommandFile(commandFile, outputStream, targetInstances, _rollingExecution);
+            }
+        }
+    }
+
 }
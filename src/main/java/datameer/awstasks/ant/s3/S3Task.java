@@ -27,8 +27,12 @@ import datameer.awstasks.ant.AbstractAwsTask;
 import datameer.awstasks.ant.s3.model.CreateBucketCommand;
 import datameer.awstasks.ant.s3.model.DeleteBucketCommand;
 import datameer.awstasks.ant.s3.model.DeleteObjectsCommand;
+import datameer.awstasks.ant.s3.model.DownloadCommand;
 import datameer.awstasks.ant.s3.model.ListBucketsCommand;
+import datameer.awstasks.ant.s3.model.ListObjectsCommand;
 import datameer.awstasks.ant.s3.model.S3Command;
+import datameer.awstasks.ant.s3.model.SyncCommand;
+import datameer.awstasks.ant.s3.model.UploadCommand;
 
 public class S3Task extends AbstractAwsTask {
 
@@ -69,9 +73,25 @@ public class S3Task extends AbstractAwsTask {
         _s3Commands.add(command);
     }
 
+    public void addListObjects(ListObjectsCommand command) {
+        _s3Commands.add(command);
+    }
+
+    public void addUpload(UploadCommand command) {
+        _s3Commands.add(command);
+    }
+
+    public void addDownload(DownloadCommand command) {
+        _s3Commands.add(command);
+    }
+
+    public void addSync(SyncCommand command) {
+        _s3Commands.add(command);
+    }
+
     public AmazonS3Client createS3Service() {
         BasicAWSCredentials awsCredentials = new BasicAWSCredentials(_accessKey, _accessSecret);
-        return new AmazonS3Client(awsCredentials);
+        return configureClient(new AmazonS3Client(awsCredentials));
     }
 
 }
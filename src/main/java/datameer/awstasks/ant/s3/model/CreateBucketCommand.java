@@ -15,13 +15,11 @@
  */
 package datameer.awstasks.ant.s3.model;
 
-import java.util.List;
-
 import org.apache.tools.ant.Project;
 
 import awstasks.com.amazonaws.services.s3.AmazonS3;
-import awstasks.com.amazonaws.services.s3.model.S3ObjectSummary;
 
+import datameer.awstasks.util.S3BatchDelete;
 import datameer.awstasks.util.S3Util;
 
 public class CreateBucketCommand extends S3Command {
@@ -69,10 +67,7 @@ public class CreateBucketCommand extends S3Command {
         boolean doesBucketExist = s3Service.doesBucketExist(name);
 
         if (isEmptyIfExistent() && doesBucketExist) {
-            List<S3ObjectSummary> s3Objects = s3Service.listObjects(name).getObjectSummaries();
-            for (S3ObjectSummary s3Object : s3Objects) {
-                s3Service.deleteObject(name, s3Object.getKey());
-            }
+            new S3BatchDelete(s3Service, name, null).execute();
             System.out.println("emptied bucket '" + name + "'");
         }
         if (!doesBucketExist) {
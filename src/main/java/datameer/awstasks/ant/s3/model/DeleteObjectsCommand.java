@@ -15,17 +15,17 @@
  */
 package datameer.awstasks.ant.s3.model;
 
-import java.util.List;
-
 import org.apache.tools.ant.Project;
 
 import awstasks.com.amazonaws.services.s3.AmazonS3;
-import awstasks.com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import datameer.awstasks.util.S3BatchDelete;
 
 public class DeleteObjectsCommand extends S3Command {
 
     private String _bucket;
     private String _prefix;
+    private int _concurrency = S3BatchDelete.DEFAULT_CONCURRENCY;
 
     public String getBucket() {
         return _bucket;
@@ -43,18 +43,25 @@ public class DeleteObjectsCommand extends S3Command {
         _prefix = prefix;
     }
 
+    public int getConcurrency() {
+        return _concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        _concurrency = concurrency;
+    }
+
     @Override
     public void execute(Project project, AmazonS3 s3Service) {
         if (_prefix.startsWith("/")) {
             _prefix = _prefix.substring(1);
         }
         System.out.println("deleting all keys with '" + _prefix + "' in bucket '" + _bucket + "'");
-        List<S3ObjectSummary> objectListing = s3Service.listObjects(_bucket, _prefix).getObjectSummaries();
-        long size = 0;
-        for (S3ObjectSummary s3ObjectSummary : objectListing) {
-            size += s3ObjectSummary.getSize();
-            s3Service.deleteObject(_bucket, s3ObjectSummary.getKey());
+        S3BatchDelete batchDelete = new S3BatchDelete(s3Service, _bucket, _prefix).withConcurrency(_concurrency);
+        try {
+            batchDelete.execute();
+        } finally {
+            System.out.println("deleted " + batchDelete.getDeletedCount() + " objects with size of " + batchDelete.getDeletedBytes() + " bytes");
         }
-        System.out.println("deleted " + objectListing.size() + " objects with size of " + size + " bytes");
     }
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.ant.s3.model;
+
+import java.io.File;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+
+import datameer.awstasks.util.S3MultipartDownload;
+import datameer.awstasks.util.S3Util;
+
+/**
+ * Downloads a single file (key and file) or all files with a prefix into a directory (prefix and
+ * toDir).
+ */
+public class DownloadCommand extends S3Command {
+
+    private String _bucket;
+    private String _key;
+    private File _file;
+    private String _prefix;
+    private File _toDir;
+    private long _partSize = S3MultipartDownload.DEFAULT_PART_SIZE;
+    private int _concurrency = S3MultipartDownload.DEFAULT_CONCURRENCY;
+    private boolean _resume;
+
+    public String getBucket() {
+        return _bucket;
+    }
+
+    public void setBucket(String bucket) {
+        _bucket = bucket;
+    }
+
+    public String getKey() {
+        return _key;
+    }
+
+    public void setKey(String key) {
+        _key = key;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    public void setFile(File file) {
+        _file = file;
+    }
+
+    public String getPrefix() {
+        return _prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        _prefix = prefix;
+    }
+
+    public File getToDir() {
+        return _toDir;
+    }
+
+    public void setToDir(File toDir) {
+        _toDir = toDir;
+    }
+
+    public long getPartSize() {
+        return _partSize;
+    }
+
+    public void setPartSize(long partSize) {
+        _partSize = partSize;
+    }
+
+    public int getConcurrency() {
+        return _concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        _concurrency = concurrency;
+    }
+
+    public boolean isResume() {
+        return _resume;
+    }
+
+    public void setResume(boolean resume) {
+        _resume = resume;
+    }
+
+    @Override
+    public void execute(Project project, AmazonS3 s3Service) {
+        if (_key != null && _file != null) {
+            System.out.println("downloading '" + _key + "' from bucket '" + _bucket + "' to '" + _file + "'");
+            new S3MultipartDownload(s3Service, _bucket, _key, _file).withPartSize(_partSize).withConcurrency(_concurrency).withResume(_resume).execute();
+        } else if (_prefix != null && _toDir != null) {
+            System.out.println("downloading all keys with '" + _prefix + "' from bucket '" + _bucket + "' to '" + _toDir + "'");
+            S3Util.downloadFiles(s3Service, _bucket, _prefix, _toDir, _concurrency, _resume);
+        } else {
+            throw new BuildException("either key and file or prefix and toDir must be set");
+        }
+    }
+}
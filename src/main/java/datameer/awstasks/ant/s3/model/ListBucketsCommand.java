@@ -15,20 +15,17 @@
  */
 package datameer.awstasks.ant.s3.model;
 
-import java.util.List;
-
-import org.apache.tools.ant.Project;
+import java.io.IOException;
 
 import awstasks.com.amazonaws.services.s3.AmazonS3;
 import awstasks.com.amazonaws.services.s3.model.Bucket;
 
-public class ListBucketsCommand extends S3Command {
+public class ListBucketsCommand extends ListingCommand {
 
     @Override
-    public void execute(Project project, AmazonS3 s3Service) {
-        List<Bucket> buckets = s3Service.listBuckets();
-        for (Bucket s3Bucket : buckets) {
-            System.out.println(s3Bucket.getName());
+    protected void list(AmazonS3 s3Service, LineCollector lineCollector) throws IOException {
+        for (Bucket s3Bucket : s3Service.listBuckets()) {
+            lineCollector.add(s3Bucket.getName());
         }
     }
 
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.ant.s3.model;
+
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.ListObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.ObjectListing;
+import awstasks.com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import datameer.awstasks.util.ParallelObjectListing;
+import datameer.awstasks.util.S3Util;
+
+/**
+ * Lists the keys with a prefix page by page. With a delimiter the common prefixes are listed as
+ * well. With a concurrency above 1 the common prefixes below the prefix are listed in parallel,
+ * which can't be combined with a delimiter.
+ */
+public class ListObjectsCommand extends ListingCommand {
+
+    private String _bucket;
+    private String _prefix = "";
+    private String _delimiter;
+    private Integer _maxKeys;
+    private int _concurrency = 1;
+    private boolean _showSize;
+
+    public String getBucket() {
+        return _bucket;
+    }
+
+    public void setBucket(String bucket) {
+        _bucket = bucket;
+    }
+
+    public String getPrefix() {
+        return _prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        _prefix = prefix;
+    }
+
+    public String getDelimiter() {
+        return _delimiter;
+    }
+
+    public void setDelimiter(String delimiter) {
+        _delimiter = delimiter;
+    }
+
+    public Integer getMaxKeys() {
+        return _maxKeys;
+    }
+
+    /**
+     * The number of keys per listed page.
+     */
+    public void setMaxKeys(Integer maxKeys) {
+        _maxKeys = maxKeys;
+    }
+
+    public int getConcurrency() {
+        return _concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        _concurrency = concurrency;
+    }
+
+    public boolean isShowSize() {
+        return _showSize;
+    }
+
+    public void setShowSize(boolean showSize) {
+        _showSize = showSize;
+    }
+
+    @Override
+    protected void list(AmazonS3 s3Service, LineCollector lineCollector) throws IOException {
+        if (_concurrency > 1) {
+            if (_delimiter != null) {
+                throw new BuildException("delimiter can't be combined with a concurrency above 1");
+            }
+            ParallelObjectListing objectListing = S3Util.listObjectsParallel(s3Service, _bucket, _prefix, _concurrency);
+            try {
+                while (objectListing.hasNext()) {
+                    lineCollector.add(toLine(objectListing.next()));
+                }
+            } finally {
+                objectListing.close();
+            }
+            return;
+        }
+        ListObjectsRequest request = new ListObjectsRequest().withBucketName(_bucket).withPrefix(_prefix).withDelimiter(_delimiter).withMaxKeys(_maxKeys);
+        for (ObjectListing objectListing : S3Util.listObjectPages(s3Service, request)) {
+            for (String commonPrefix : objectListing.getCommonPrefixes()) {
+                lineCollector.add(commonPrefix);
+            }
+            for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
+                lineCollector.add(toLine(objectSummary));
+            }
+        }
+    }
+
+    private String toLine(S3ObjectSummary objectSummary) {
+        if (_showSize) {
+            return objectSummary.getKey() + "\t" + objectSummary.getSize();
+        }
+        return objectSummary.getKey();
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.ant.s3.model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import datameer.com.google.common.base.Charsets;
+
+import datameer.awstasks.util.IoUtil;
+
+/**
+ * A command which lists one entry per line. The lines are streamed into the file if given and
+ * collected into the property if given (joined by the separator), otherwise they are printed.
+ */
+public abstract class ListingCommand extends S3Command {
+
+    private File _file;
+    private String _property;
+    private String _separator = ",";
+
+    public File getFile() {
+        return _file;
+    }
+
+    public void setFile(File file) {
+        _file = file;
+    }
+
+    public String getProperty() {
+        return _property;
+    }
+
+    public void setProperty(String property) {
+        _property = property;
+    }
+
+    public String getSeparator() {
+        return _separator;
+    }
+
+    public void setSeparator(String separator) {
+        _separator = separator;
+    }
+
+    @Override
+    public void execute(Project project, AmazonS3 s3Service) {
+        Writer fileWriter = null;
+        try {
+            if (_file != null) {
+                fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(_file), Charsets.UTF_8));
+            }
+            LineCollector lineCollector = new LineCollector(fileWriter, _property != null ? new StringBuilder() : null);
+            list(s3Service, lineCollector);
+            if (fileWriter != null) {
+                fileWriter.close();
+            }
+            if (_property != null) {
+                project.setNewProperty(_property, lineCollector._propertyValue.toString());
+            }
+        } catch (IOException e) {
+            throw new BuildException(e);
+        } finally {
+            IoUtil.closeQuietly(fileWriter);
+        }
+    }
+
+    protected abstract void list(AmazonS3 s3Service, LineCollector lineCollector) throws IOException;
+
+    protected class LineCollector {
+
+        private final Writer _fileWriter;
+        private final StringBuilder _propertyValue;
+        private long _lineCount;
+
+        private LineCollector(Writer fileWriter, StringBuilder propertyValue) {
+            _fileWriter = fileWriter;
+            _propertyValue = propertyValue;
+        }
+
+        public void add(String line) throws IOException {
+            if (_fileWriter != null) {
+                _fileWriter.write(line);
+                _fileWriter.write('\n');
+            }
+            if (_propertyValue != null) {
+                if (_lineCount > 0) {
+                    _propertyValue.append(_separator);
+                }
+                _propertyValue.append(line);
+            }
+            if (_fileWriter == null && _propertyValue == null) {
+                System.out.println(line);
+            }
+            _lineCount++;
+        }
+
+        public long getLineCount() {
+            return _lineCount;
+        }
+    }
+}
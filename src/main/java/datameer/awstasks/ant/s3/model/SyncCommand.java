@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.ant.s3.model;
+
+import java.io.File;
+
+import org.apache.tools.ant.Project;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+
+import datameer.awstasks.util.S3DirectorySync;
+
+public class SyncCommand extends S3Command {
+
+    private String _bucket;
+    private File _dir;
+    private String _prefix;
+    private boolean _delete;
+    private int _concurrency = S3DirectorySync.DEFAULT_CONCURRENCY;
+    private File _manifest;
+
+    public String getBucket() {
+        return _bucket;
+    }
+
+    public void setBucket(String bucket) {
+        _bucket = bucket;
+    }
+
+    public File getDir() {
+        return _dir;
+    }
+
+    public void setDir(File dir) {
+        _dir = dir;
+    }
+
+    public String getPrefix() {
+        return _prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        _prefix = prefix;
+    }
+
+    public boolean isDelete() {
+        return _delete;
+    }
+
+    public void setDelete(boolean delete) {
+        _delete = delete;
+    }
+
+    public int getConcurrency() {
+        return _concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        _concurrency = concurrency;
+    }
+
+    public File getManifest() {
+        return _manifest;
+    }
+
+    public void setManifest(File manifest) {
+        _manifest = manifest;
+    }
+
+    @Override
+    public void execute(Project project, AmazonS3 s3Service) {
+        System.out.println("syncing '" + _dir + "' to '" + _prefix + "' in bucket '" + _bucket + "'");
+        S3DirectorySync sync = new S3DirectorySync(s3Service, _dir, _bucket, _prefix).withDelete(_delete).withConcurrency(_concurrency).withManifest(_manifest);
+        sync.execute();
+        System.out.println("uploaded " + sync.getUploadedCount() + ", deleted " + sync.getDeletedCount() + ", kept " + sync.getUnchangedCount() + " files");
+    }
+}
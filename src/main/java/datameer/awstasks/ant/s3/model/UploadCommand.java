@@ -0,0 +1,80 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.ant.s3.model;
+
+import java.io.File;
+
+import org.apache.tools.ant.Project;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+
+import datameer.awstasks.util.S3MultipartUpload;
+
+public class UploadCommand extends S3Command {
+
+    private String _bucket;
+    private File _file;
+    private String _key;
+    private long _partSize = S3MultipartUpload.DEFAULT_PART_SIZE;
+    private int _concurrency = S3MultipartUpload.DEFAULT_CONCURRENCY;
+
+    public String getBucket() {
+        return _bucket;
+    }
+
+    public void setBucket(String bucket) {
+        _bucket = bucket;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    public void setFile(File file) {
+        _file = file;
+    }
+
+    public String getKey() {
+        return _key;
+    }
+
+    public void setKey(String key) {
+        _key = key;
+    }
+
+    public long getPartSize() {
+        return _partSize;
+    }
+
+    public void setPartSize(long partSize) {
+        _partSize = partSize;
+    }
+
+    public int getConcurrency() {
+        return _concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        _concurrency = concurrency;
+    }
+
+    @Override
+    public void execute(Project project, AmazonS3 s3Service) {
+        String key = _key != null ? _key : _file.getName();
+        System.out.println("uploading '" + _file + "' to '" + key + "' in bucket '" + _bucket + "'");
+        new S3MultipartUpload(s3Service, _bucket, _file, key).withPartSize(_partSize).withConcurrency(_concurrency).execute();
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.concurrent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import awstasks.com.amazonaws.AmazonWebServiceClient;
+import awstasks.com.amazonaws.Request;
+import awstasks.com.amazonaws.handlers.RequestHandler2;
+
+/**
+ * Rate limits the requests of aws clients per service endpoint (which is per service and region),
+ * shared by all clients of the JVM. The limiters can be replaced with
+ * {@link #setRateLimiter(String, RateLimiter)}, by default a {@link TokenBucketRateLimiter} with a
+ * rate matching the service is used.
+ */
+public class AwsRateLimiters {
+
+    private static final Logger LOG = Logger.getLogger(AwsRateLimiters.class);
+
+    private static final ConcurrentMap<String, RateLimiter> RATE_LIMITERS = new ConcurrentHashMap<String, RateLimiter>();
+    private static final Pattern S3_BUCKET_HOST_PATTERN = Pattern.compile(".*\\.(s3[.-].*)");
+    private static final RequestHandler2 REQUEST_HANDLER = new RateLimitingRequestHandler();
+
+    /**
+     * Lets all requests of the given client pass the rate limiter of their endpoint.
+     */
+    public static <T extends AmazonWebServiceClient> T rateLimited(T client) {
+        client.addRequestHandler(REQUEST_HANDLER);
+        return client;
+    }
+
+    /**
+     * @param endpointHost
+     *            the host of the service endpoint, f.e. 'ec2.us-east-1.amazonaws.com'
+     */
+    public static void setRateLimiter(String endpointHost, RateLimiter rateLimiter) {
+        RATE_LIMITERS.put(endpointHost, rateLimiter);
+    }
+
+    public static RateLimiter getRateLimiter(String endpointHost) {
+        RateLimiter rateLimiter = RATE_LIMITERS.get(endpointHost);
+        if (rateLimiter == null) {
+            RATE_LIMITERS.putIfAbsent(endpointHost, createDefaultRateLimiter(endpointHost));
+            rateLimiter = RATE_LIMITERS.get(endpointHost);
+        }
+        return rateLimiter;
+    }
+
+    public static Map<String, RateLimiter> getRateLimiters() {
+        return RATE_LIMITERS;
+    }
+
+    public static void clear() {
+        RATE_LIMITERS.clear();
+    }
+
+    /**
+     * Strips the bucket from virtual hosted s3 endpoints, so all buckets share one limiter.
+     */
+    static String toServiceEndpointHost(String endpointHost) {
+        Matcher matcher = S3_BUCKET_HOST_PATTERN.matcher(endpointHost);
+        if (matcher.matches()) {
+            return matcher.group(1);
+        }
+        return endpointHost;
+    }
+
+    protected static RateLimiter createDefaultRateLimiter(String endpointHost) {
+        if (endpointHost.startsWith("ec2.")) {
+            return new TokenBucketRateLimiter(20, 50);
+        }
+        if (endpointHost.startsWith("elasticmapreduce.") || endpointHost.contains(".elasticmapreduce.")) {
+            return new TokenBucketRateLimiter(2, 5);
+        }
+        if (endpointHost.startsWith("s3")) {
+            return new TokenBucketRateLimiter(100, 200);
+        }
+        return new TokenBucketRateLimiter(10, 20);
+    }
+
+    private static class RateLimitingRequestHandler extends RequestHandler2 {
+
+        @Override
+        public void beforeRequest(Request<?> request) {
+            String endpointHost = toServiceEndpointHost(request.getEndpoint().getHost());
+            long waitTime = getRateLimiter(endpointHost).acquire();
+            if (waitTime > 0 && LOG.isDebugEnabled()) {
+                LOG.debug("waited " + waitTime + " ms for rate limit of " + endpointHost + " before " + request.getOriginalRequest().getClass().getSimpleName());
+            }
+        }
+    }
+}
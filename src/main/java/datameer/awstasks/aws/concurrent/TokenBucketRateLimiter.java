@@ -0,0 +1,107 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import datameer.awstasks.util.ExceptionUtil;
+import datameer.com.google.common.base.Objects;
+import datameer.com.google.common.base.Preconditions;
+
+/**
+ * A {@link RateLimiter} which allows bursts up to a capacity and refills at a constant rate. Callers
+ * exceeding the rate reserve a future token and sleep until it is due, so waiting callers are served
+ * in order.
+ */
+public class TokenBucketRateLimiter implements RateLimiter {
+
+    private final double _permitsPerSecond;
+    private final double _capacity;
+    private double _tokens;
+    private long _lastRefillTime = System.nanoTime();
+
+    private final AtomicLong _acquireCount = new AtomicLong();
+    private final AtomicLong _waitCount = new AtomicLong();
+    private final AtomicLong _totalWaitTime = new AtomicLong();
+
+    public TokenBucketRateLimiter(double permitsPerSecond, int capacity) {
+        Preconditions.checkArgument(permitsPerSecond > 0, "permitsPerSecond must be positive");
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        _permitsPerSecond = permitsPerSecond;
+        _capacity = capacity;
+        _tokens = capacity;
+    }
+
+    public double getPermitsPerSecond() {
+        return _permitsPerSecond;
+    }
+
+    public int getCapacity() {
+        return (int) _capacity;
+    }
+
+    @Override
+    public long acquire() {
+        _acquireCount.incrementAndGet();
+        long waitTime = reserve();
+        if (waitTime > 0) {
+            _waitCount.incrementAndGet();
+            _totalWaitTime.addAndGet(waitTime);
+            try {
+                Thread.sleep(waitTime);
+            } catch (InterruptedException e) {
+                throw ExceptionUtil.convertToRuntimeException(e);
+            }
+        }
+        return waitTime;
+    }
+
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        _tokens = Math.min(_capacity, _tokens + (now - _lastRefillTime) * _permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        _lastRefillTime = now;
+        _tokens--;
+        if (_tokens >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-_tokens * 1000 / _permitsPerSecond);
+    }
+
+    public long getAcquireCount() {
+        return _acquireCount.get();
+    }
+
+    /**
+     * @return how many acquires had to wait
+     */
+    public long getWaitCount() {
+        return _waitCount.get();
+    }
+
+    /**
+     * @return the summed up wait time of all acquires in milliseconds
+     */
+    public long getTotalWaitTime() {
+        return _totalWaitTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("permitsPerSecond", _permitsPerSecond).add("capacity", getCapacity()).add("acquires", getAcquireCount()).add("waits", getWaitCount())
+                .add("waitTime", getTotalWaitTime()).toString();
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.ec2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import awstasks.com.amazonaws.services.ec2.AmazonEC2;
+import awstasks.com.amazonaws.services.ec2.model.Instance;
+import datameer.awstasks.util.Ec2Util;
+import datameer.awstasks.util.ExceptionUtil;
+import datameer.com.google.common.base.Throwables;
+import datameer.com.google.common.util.concurrent.ExecutionError;
+import datameer.com.google.common.util.concurrent.Futures;
+import datameer.com.google.common.util.concurrent.SettableFuture;
+import datameer.com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Caches instance descriptions by instance id for a limited time, so multiple tasks working on the
+ * same instances don't describe them again and again. Concurrent requests for the same instances
+ * share one describe call. Changes of the instances (launch, stop, etc.) should be followed by an
+ * {@link #invalidate(Collection)}.
+ */
+public class InstanceDescriptionCache {
+
+    public static final long DEFAULT_TTL = TimeUnit.SECONDS.toMillis(10);
+
+    private static final InstanceDescriptionCache SHARED_INSTANCE = new InstanceDescriptionCache(DEFAULT_TTL);
+
+    private final ConcurrentMap<String, CachedDescription> _descriptionsById = new ConcurrentHashMap<String, CachedDescription>();
+    private volatile long _ttl;
+
+    public InstanceDescriptionCache(long ttl) {
+        _ttl = ttl;
+    }
+
+    public static InstanceDescriptionCache getSharedInstance() {
+        return SHARED_INSTANCE;
+    }
+
+    public void setTtl(long ttl) {
+        _ttl = ttl;
+    }
+
+    public long getTtl() {
+        return _ttl;
+    }
+
+    /**
+     * Returns the descriptions of the given instances, describing only those which aren't cached or
+     * already being described by another thread. Instances which are gone are left out.
+     */
+    public List<Instance> getInstances(AmazonEC2 ec2, List<Instance> instances) {
+        Map<String, CachedDescription> descriptionsById = new LinkedHashMap<String, CachedDescription>();
+        Map<String, CachedDescription> descriptionsToLoad = new LinkedHashMap<String, CachedDescription>();
+        List<Instance> instancesToLoad = new ArrayList<Instance>();
+        for (Instance instance : instances) {
+            String instanceId = instance.getInstanceId();
+            while (!descriptionsById.containsKey(instanceId)) {
+                CachedDescription description = _descriptionsById.get(instanceId);
+                if (description != null && !description.isExpired(_ttl)) {
+                    descriptionsById.put(instanceId, description);
+                    break;
+                }
+                CachedDescription newDescription = new CachedDescription();
+                boolean registered = description == null ? _descriptionsById.putIfAbsent(instanceId, newDescription) == null : _descriptionsById.replace(instanceId, description,
+                        newDescription);
+                if (registered) {
+                    descriptionsById.put(instanceId, newDescription);
+                    descriptionsToLoad.put(instanceId, newDescription);
+                    instancesToLoad.add(instance);
+                }
+            }
+        }
+        if (!instancesToLoad.isEmpty()) {
+            load(ec2, instancesToLoad, descriptionsToLoad);
+        }
+
+        List<Instance> result = new ArrayList<Instance>(descriptionsById.size());
+        for (CachedDescription description : descriptionsById.values()) {
+            Instance instance;
+            try {
+                instance = Futures.getUnchecked(description._instance);
+            } catch (UncheckedExecutionException e) {
+                throw ExceptionUtil.convertToRuntimeException(e.getCause());
+            } catch (ExecutionError e) {
+                throw (Error) e.getCause();
+            }
+            if (instance != null) {
+                result.add(instance);
+            }
+        }
+        return result;
+    }
+
+    private void load(AmazonEC2 ec2, List<Instance> instances, Map<String, CachedDescription> descriptionsToLoad) {
+        try {
+            for (Instance instance : Ec2Util.reloadInstanceDescriptions(ec2, instances)) {
+                CachedDescription description = descriptionsToLoad.remove(instance.getInstanceId());
+                if (description != null) {
+                    description.set(instance);
+                }
+            }
+            // the instances which are gone
+            for (Entry<String, CachedDescription> entry : descriptionsToLoad.entrySet()) {
+                _descriptionsById.remove(entry.getKey(), entry.getValue());
+                entry.getValue().set(null);
+            }
+        } catch (Throwable e) {
+            // errors as well, otherwise the callers waiting for these descriptions would block forever
+            for (Entry<String, CachedDescription> entry : descriptionsToLoad.entrySet()) {
+                _descriptionsById.remove(entry.getKey(), entry.getValue());
+                entry.getValue()._instance.setException(e);
+            }
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Updates the cache with freshly described instances.
+     */
+    public void put(List<Instance> instances) {
+        for (Instance instance : instances) {
+            CachedDescription description = new CachedDescription();
+            description.set(instance);
+            _descriptionsById.put(instance.getInstanceId(), description);
+        }
+    }
+
+    public void invalidate(Collection<String> instanceIds) {
+        for (String instanceId : instanceIds) {
+            _descriptionsById.remove(instanceId);
+        }
+    }
+
+    public void clear() {
+        _descriptionsById.clear();
+    }
+
+    private static class CachedDescription {
+
+        private final SettableFuture<Instance> _instance = SettableFuture.create();
+        private volatile long _loadTime;
+
+        public void set(Instance instance) {
+            _loadTime = System.currentTimeMillis();
+            _instance.set(instance);
+        }
+
+        public boolean isExpired(long ttl) {
+            return _instance.isDone() && System.currentTimeMillis() - _loadTime >= ttl;
+        }
+    }
+}
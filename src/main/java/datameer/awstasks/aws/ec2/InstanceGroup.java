@@ -16,6 +16,7 @@
 package datameer.awstasks.aws.ec2;
 
 import java.io.File;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -24,6 +25,7 @@ import awstasks.com.amazonaws.services.ec2.model.Reservation;
 import awstasks.com.amazonaws.services.ec2.model.RunInstancesRequest;
 
 import datameer.awstasks.aws.ec2.ssh.SshClient;
+import datameer.awstasks.util.InstanceReadyCallback;
 
 /**
  * An amazon ec2 group of instances for a given AMI (Amazon Machine Image).
@@ -55,6 +57,20 @@ public interface InstanceGroup {
      */
     Reservation launch(RunInstancesRequest launchConfiguration, TimeUnit timeUnit, long time);
 
+    /**
+     * Like {@link #launch(RunInstancesRequest, TimeUnit, long)} but notifies the given callback for
+     * each instance as soon as it is running, so work on the early instances can start while others
+     * are still booting.
+     */
+    Reservation launch(RunInstancesRequest launchConfiguration, TimeUnit timeUnit, long time, InstanceReadyCallback readyCallback);
+
+    /**
+     * Launches the configured {@linkplain InstanceGroup} in the background and returns the instances
+     * in the order they are running. The iterator blocks until the next instance is ready and throws
+     * the failure of the launch (f.e. timeout) when it occurs.
+     */
+    Iterator<Instance> launchIncrementally(RunInstancesRequest launchConfiguration, TimeUnit timeUnit, long time);
+
     /**
      * Starts instances in stopped mode and waits until all instances are in 'running' mode. If
      * after the specified waiting time the instances are still not running a
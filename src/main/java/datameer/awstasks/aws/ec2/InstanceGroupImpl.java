@@ -16,15 +16,20 @@
 package datameer.awstasks.aws.ec2;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 import awstasks.com.amazonaws.services.ec2.AmazonEC2;
-import awstasks.com.amazonaws.services.ec2.model.CreateTagsRequest;
 import awstasks.com.amazonaws.services.ec2.model.Instance;
 import awstasks.com.amazonaws.services.ec2.model.InstanceStateName;
 import awstasks.com.amazonaws.services.ec2.model.IpPermission;
@@ -36,12 +41,15 @@ import awstasks.com.amazonaws.services.ec2.model.StopInstancesResult;
 import awstasks.com.amazonaws.services.ec2.model.Tag;
 import awstasks.com.amazonaws.services.ec2.model.TerminateInstancesRequest;
 import awstasks.com.amazonaws.services.ec2.model.TerminateInstancesResult;
+import awstasks.com.jcraft.jsch.Session;
 import datameer.awstasks.aws.ec2.ssh.SshClient;
 import datameer.awstasks.aws.ec2.ssh.SshClientImpl;
 import datameer.awstasks.ssh.JschRunner;
 import datameer.awstasks.util.Ec2Util;
 import datameer.awstasks.util.ExceptionUtil;
 import datameer.awstasks.util.Filters;
+import datameer.awstasks.util.InstanceReadyCallback;
+import datameer.com.google.common.base.Preconditions;
 
 public class InstanceGroupImpl implements InstanceGroup {
 
@@ -49,7 +57,7 @@ public class InstanceGroupImpl implements InstanceGroup {
 
     private final AmazonEC2 _ec2;
     private final boolean _includeMultipleReservations;
-    private List<awstasks.com.amazonaws.services.ec2.model.Instance> _instances;
+    private volatile List<awstasks.com.amazonaws.services.ec2.model.Instance> _instances;
 
     public InstanceGroupImpl(AmazonEC2 ec2) {
         this(ec2, false);
@@ -69,7 +77,7 @@ public class InstanceGroupImpl implements InstanceGroup {
             throw new IllegalArgumentException("no instances of group '" + groupName + "' running");
         }
         if (!InstanceStateName.Running.name().equalsIgnoreCase(_instances.get(0).getState().getName())) {
-            waitUntilServerUp(TimeUnit.MINUTES, 10);
+            waitUntilServerUp(TimeUnit.MINUTES, 10, null);
         }
     }
 
@@ -88,6 +96,33 @@ public class InstanceGroupImpl implements InstanceGroup {
 
     @Override
     public Reservation launch(RunInstancesRequest launchConfiguration, TimeUnit timeUnit, long time) {
+        return launch(launchConfiguration, timeUnit, time, null);
+    }
+
+    @Override
+    public Iterator<Instance> launchIncrementally(final RunInstancesRequest launchConfiguration, final TimeUnit timeUnit, final long time) {
+        checkEc2Association(false);
+        Preconditions.checkNotNull(timeUnit, "need a time unit to wait for the instances");
+        final ReadyInstanceIterator readyInstances = new ReadyInstanceIterator();
+        Thread launchThread = new Thread("launch-" + launchConfiguration.getImageId()) {
+            @Override
+            public void run() {
+                try {
+                    launch(launchConfiguration, timeUnit, time, readyInstances);
+                    readyInstances.finish(null);
+                } catch (Throwable e) {
+                    LOG.error("launch of " + launchConfiguration.getImageId() + " failed", e);
+                    readyInstances.finish(e);
+                }
+            }
+        };
+        launchThread.setDaemon(true);
+        launchThread.start();
+        return readyInstances;
+    }
+
+    @Override
+    public Reservation launch(RunInstancesRequest launchConfiguration, TimeUnit timeUnit, long time, InstanceReadyCallback readyCallback) {
         checkEc2Association(false);
         LOG.info(String.format("launching %d to %d instances with %s in groups %s...", launchConfiguration.getMinCount(), launchConfiguration.getMaxCount(), launchConfiguration.getImageId(),
                 launchConfiguration.getSecurityGroups()));
@@ -96,17 +131,12 @@ public class InstanceGroupImpl implements InstanceGroup {
         List<String> instanceIds = Ec2Util.toIds(_instances);
         LOG.info(String.format("triggered launch of %d instances: %s", instanceIds.size(), instanceIds));
         if (timeUnit != null) {
-            waitUntilServerUp(timeUnit, time);
+            waitUntilServerUp(timeUnit, time, readyCallback);
             LOG.info(String.format("launched %d instances: %s / %s", instanceIds.size(), instanceIds, Ec2Util.toPublicDns(_instances)));
         }
         // Add currentUser to CreatedBy tag.
-        String _currentUser = System.getProperty("user.name");
-        for (Instance instance : _instances) {
-            CreateTagsRequest createTagsRequest = new CreateTagsRequest();
-            createTagsRequest.withResources(instance.getInstanceId()) //
-                    .withTags(new Tag("CreatedBy", _currentUser));
-            _ec2.createTags(createTagsRequest);
-        }
+        Ec2Util.tagResources(_ec2, instanceIds, new Tag("CreatedBy", System.getProperty("user.name")));
+        InstanceDescriptionCache.getSharedInstance().invalidate(instanceIds);
         return Ec2Util.reloadReservation(_ec2, reservation);
     }
 
@@ -115,10 +145,11 @@ public class InstanceGroupImpl implements InstanceGroup {
         checkEc2Association(false);
         LOG.info(String.format("starting %s instances ...", instanceIds));
         _ec2.startInstances(new StartInstancesRequest(instanceIds));
+        InstanceDescriptionCache.getSharedInstance().invalidate(instanceIds);
         Reservation reservation = Ec2Util.getReservation(_ec2, instanceIds);
         _instances = reservation.getInstances();
         if (timeUnit != null) {
-            waitUntilServerUp(timeUnit, time);
+            waitUntilServerUp(timeUnit, time, null);
             LOG.info(String.format("started %d instances: %s / %s", instanceIds.size(), instanceIds, Ec2Util.toPublicDns(_instances)));
         }
         return Ec2Util.reloadReservation(_ec2, reservation);
@@ -147,7 +178,9 @@ public class InstanceGroupImpl implements InstanceGroup {
     @Override
     public void terminate() {
         checkEc2Association(true);
-        TerminateInstancesResult result = _ec2.terminateInstances(new TerminateInstancesRequest(Ec2Util.toIds(_instances)));
+        List<String> instanceIds = Ec2Util.toIds(_instances);
+        TerminateInstancesResult result = _ec2.terminateInstances(new TerminateInstancesRequest(instanceIds));
+        InstanceDescriptionCache.getSharedInstance().invalidate(instanceIds);
         _instances = null;
         LOG.info("terminated " + result.getTerminatingInstances().size() + " instances");
     }
@@ -155,13 +188,16 @@ public class InstanceGroupImpl implements InstanceGroup {
     @Override
     public void stop() {
         checkEc2Association(true);
-        StopInstancesResult result = _ec2.stopInstances(new StopInstancesRequest(Ec2Util.toIds(_instances)));
+        List<String> instanceIds = Ec2Util.toIds(_instances);
+        StopInstancesResult result = _ec2.stopInstances(new StopInstancesRequest(instanceIds));
+        InstanceDescriptionCache.getSharedInstance().invalidate(instanceIds);
         _instances = null;
         LOG.info("stopped " + result.getStoppingInstances().size() + " instances");
     }
 
-    private List<Instance> waitUntilServerUp(TimeUnit timeUnit, long waitTime) {
-        _instances = Ec2Util.waitUntil(_ec2, _instances, EnumSet.of(InstanceStateName.Pending), InstanceStateName.Running, timeUnit, waitTime);
+    private List<Instance> waitUntilServerUp(TimeUnit timeUnit, long waitTime, InstanceReadyCallback readyCallback) {
+        _instances = Ec2Util.waitUntil(_ec2, _instances, EnumSet.of(InstanceStateName.Pending), InstanceStateName.Running, timeUnit, waitTime, readyCallback);
+        InstanceDescriptionCache.getSharedInstance().put(_instances);
         return _instances;
     }
 
@@ -175,7 +211,7 @@ public class InstanceGroupImpl implements InstanceGroup {
     }
 
     private synchronized void updateInstanceDescriptions() {
-        _instances = Ec2Util.reloadInstanceDescriptions(_ec2, _instances);
+        _instances = InstanceDescriptionCache.getSharedInstance().getInstances(_ec2, _instances);
     }
 
     @Override
@@ -186,8 +222,12 @@ public class InstanceGroupImpl implements InstanceGroup {
     @Override
     public SshClient createSshClient(String username, File privateKey, boolean usePublicDNS) {
         List<String> instanceDns = checkSshPreconditions(usePublicDNS);
-        checkSshConnection(username, instanceDns, privateKey, null);
-        return new SshClientImpl(username, privateKey, instanceDns);
+        List<String> alternativeDns = getAlternativeDns(usePublicDNS);
+        Map<String, Session> sessions = checkSshConnection(username, instanceDns, alternativeDns, privateKey, null);
+        SshClientImpl sshClient = new SshClientImpl(username, privateKey, instanceDns);
+        sshClient.setAlternativeHostnames(alternativeDns);
+        sshClient.setConnectedSessions(sessions, SshClientImpl.DEFAULT_CONNECTED_SESSION_MAX_IDLE_TIME);
+        return sshClient;
     }
 
     private List<String> checkSshPreconditions(boolean usePublicDNS) {
@@ -207,25 +247,55 @@ public class InstanceGroupImpl implements InstanceGroup {
     @Override
     public SshClient createSshClient(String username, String password, boolean usePublicDNS) {
         List<String> instanceDns = checkSshPreconditions(usePublicDNS);
-        checkSshConnection(username, instanceDns, null, password);
-        return new SshClientImpl(username, password, instanceDns);
+        List<String> alternativeDns = getAlternativeDns(usePublicDNS);
+        Map<String, Session> sessions = checkSshConnection(username, instanceDns, alternativeDns, null, password);
+        SshClientImpl sshClient = new SshClientImpl(username, password, instanceDns);
+        sshClient.setAlternativeHostnames(alternativeDns);
+        sshClient.setConnectedSessions(sessions, SshClientImpl.DEFAULT_CONNECTED_SESSION_MAX_IDLE_TIME);
+        return sshClient;
     }
 
-    private void checkSshConnection(String username, List<String> instanceDns, File privateKey, String password) {
+    /**
+     * The dns names not used to connect, tried in parallel in case the primary ones are not
+     * reachable.
+     */
+    private List<String> getAlternativeDns(boolean usePublicDNS) {
+        return usePublicDNS ? Ec2Util.toPrivateDns(_instances) : Ec2Util.toPublicDns(_instances);
+    }
+
+    /**
+     * Waits in parallel until all instances accept ssh connections.
+     * 
+     * @return the connected sessions by dns name
+     */
+    private Map<String, Session> checkSshConnection(String username, List<String> instanceDns, List<String> alternativeDns, File privateKey, String password) {
         LOG.info("checking ssh connections of " + username + "@" + instanceDns);
-        for (String dns : instanceDns) {
+        Map<String, CompletableFuture<Session>> futures = new LinkedHashMap<String, CompletableFuture<Session>>();
+        for (int i = 0; i < instanceDns.size(); i++) {
+            String dns = instanceDns.get(i);
             JschRunner runner = new JschRunner(username, dns);
+            runner.addAlternativeHost(alternativeDns.get(i));
             if (privateKey != null) {
                 runner.setKeyfile(new File(privateKey.getAbsolutePath()));
             } else {
                 runner.setPassword(password);
             }
             runner.setTrust(true);
-            try {
-                runner.testConnect(TimeUnit.MINUTES.toMillis(5));
-            } catch (IOException e) {
-                throw ExceptionUtil.convertToRuntimeException(e);
+            futures.put(dns, runner.connectAsync(TimeUnit.MINUTES.toMillis(5)));
+        }
+        Map<String, Session> sessions = new HashMap<String, Session>();
+        try {
+            for (Entry<String, CompletableFuture<Session>> entry : futures.entrySet()) {
+                sessions.put(entry.getKey(), entry.getValue().join());
+            }
+            return sessions;
+        } catch (RuntimeException e) {
+            for (CompletableFuture<Session> future : futures.values()) {
+                if (!future.cancel(true) && !future.isCompletedExceptionally()) {
+                    future.join().disconnect();
+                }
             }
+            throw ExceptionUtil.convertToRuntimeException(e instanceof CompletionException ? e.getCause() : e);
         }
     }
 
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.ec2;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import awstasks.com.amazonaws.services.ec2.model.Instance;
+import datameer.awstasks.util.ExceptionUtil;
+import datameer.awstasks.util.InstanceReadyCallback;
+
+/**
+ * Iterates over instances in the order they become ready. {@link #hasNext()} blocks until the next
+ * instance is ready or the producer {@link #finish(Throwable) finished}. A failure of the producer
+ * is rethrown by {@link #hasNext()} after all instances ready so far have been consumed.
+ */
+public class ReadyInstanceIterator implements Iterator<Instance>, InstanceReadyCallback {
+
+    private static final Instance END = new Instance();
+
+    private final BlockingQueue<Instance> _readyInstances = new LinkedBlockingQueue<Instance>();
+    private volatile Throwable _failure;
+    private Instance _next;
+
+    @Override
+    public void instanceReady(Instance instance) {
+        _readyInstances.add(instance);
+    }
+
+    /**
+     * Signals that no more instances will become ready.
+     * 
+     * @param failure
+     *            the reason why not all instances became ready, or null
+     */
+    public void finish(Throwable failure) {
+        _failure = failure;
+        _readyInstances.add(END);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (_next == null) {
+            try {
+                _next = _readyInstances.take();
+            } catch (InterruptedException e) {
+                throw ExceptionUtil.convertToRuntimeException(e);
+            }
+        }
+        if (_next == END && _failure != null) {
+            throw ExceptionUtil.convertToRuntimeException(_failure);
+        }
+        return _next != END;
+    }
+
+    @Override
+    public Instance next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Instance instance = _next;
+        _next = null;
+        return instance;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
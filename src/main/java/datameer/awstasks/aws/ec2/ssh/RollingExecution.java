@@ -0,0 +1,99 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.ec2.ssh;
+
+import datameer.com.google.common.base.Preconditions;
+
+/**
+ * Settings for executing a command on the instances of a group in consecutive batches (waves)
+ * instead of on all instances at once.
+ */
+public class RollingExecution {
+
+    private final int _batchSize;
+    private int _maxFailures = 0;
+    private long _batchPause = 0;
+    private String _healthCheckCommand;
+    private long _healthCheckTimeout = 0;
+    private long _healthCheckInterval = 5000;
+
+    /**
+     * @param batchSize
+     *            the maximum number of instances the command is executed on concurrently
+     */
+    public RollingExecution(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batch size must be greater than 0 but is %s", batchSize);
+        _batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return _batchSize;
+    }
+
+    /**
+     * The number of instances which may fail (command or health check) before the remaining batches
+     * are skipped. Default is 0.
+     */
+    public RollingExecution withMaxFailures(int maxFailures) {
+        _maxFailures = maxFailures;
+        return this;
+    }
+
+    public int getMaxFailures() {
+        return _maxFailures;
+    }
+
+    /**
+     * Time in milliseconds to wait after a batch (and its health check) before the next batch is
+     * started.
+     */
+    public RollingExecution withBatchPause(long batchPause) {
+        _batchPause = batchPause;
+        return this;
+    }
+
+    public long getBatchPause() {
+        return _batchPause;
+    }
+
+    /**
+     * A command which is executed on every instance of a finished batch. An instance counts as
+     * failed if the command doesn't succeed within the health check timeout.
+     */
+    public RollingExecution withHealthCheck(String healthCheckCommand, long timeout, long interval) {
+        _healthCheckCommand = healthCheckCommand;
+        _healthCheckTimeout = timeout;
+        _healthCheckInterval = interval;
+        return this;
+    }
+
+    public String getHealthCheckCommand() {
+        return _healthCheckCommand;
+    }
+
+    public long getHealthCheckTimeout() {
+        return _healthCheckTimeout;
+    }
+
+    public long getHealthCheckInterval() {
+        return _healthCheckInterval;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[batchSize=" + _batchSize + ", maxFailures=" + _maxFailures + ", healthCheck=" + _healthCheckCommand + "]";
+    }
+}
@@ -15,20 +15,29 @@
  */
 package datameer.awstasks.aws.ec2.ssh;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 
-public interface SshClient {
+public interface SshClient extends Closeable {
 
     void executeCommand(String command, OutputStream outputStream) throws IOException;
 
     void executeCommand(String command, OutputStream outputStream, int[] targetedInstances) throws IOException;
 
+    void executeCommand(String command, OutputStream outputStream, RollingExecution rollingExecution) throws IOException;
+
+    void executeCommand(String command, OutputStream outputStream, int[] targetedInstances, RollingExecution rollingExecution) throws IOException;
+
     void executeCommandFile(File commandFile, OutputStream outputStream) throws IOException;
 
     void executeCommandFile(File commandFile, OutputStream outputStream, int[] targetedInstances) throws IOException;
 
+    void executeCommandFile(File commandFile, OutputStream outputStream, RollingExecution rollingExecution) throws IOException;
+
+    void executeCommandFile(File commandFile, OutputStream outputStream, int[] targetedInstances, RollingExecution rollingExecution) throws IOException;
+
     void uploadFile(File localFile, String targetPath) throws IOException;
 
     void uploadFile(File localFile, String targetPath, int[] targetedInstances) throws IOException;
@@ -38,4 +47,10 @@ public interface SshClient {
     void downloadFile(String remoteFile, File localPath, boolean recursiv, int[] targetedInstances) throws IOException;
 
     void setEnableConnectRetries(boolean enable);
+
+    /**
+     * Releases the resources of the client, like connected sessions which weren't used.
+     */
+    @Override
+    void close();
 }
@@ -21,32 +21,49 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
+import awstasks.com.jcraft.jsch.Session;
+import datameer.awstasks.aws.ec2.support.Ec2SocketFactory;
 import datameer.awstasks.ssh.JschRunner;
 import datameer.awstasks.ssh.ScpDownloadCommand;
 import datameer.awstasks.ssh.ScpUploadCommand;
 import datameer.awstasks.ssh.SshExecCommand;
 import datameer.awstasks.util.ExceptionUtil;
 import datameer.awstasks.util.IoUtil;
+import datameer.com.google.common.base.Preconditions;
 import datameer.com.google.common.base.Throwables;
 import datameer.com.google.common.collect.Lists;
+import datameer.com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class SshClientImpl implements SshClient {
 
     protected static final Logger LOG = Logger.getLogger(SshClientImpl.class);
+    public static final long DEFAULT_CONNECTED_SESSION_MAX_IDLE_TIME = TimeUnit.MINUTES.toMillis(2);
+    private static final ScheduledExecutorService SESSION_EXPIRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat(
+            "ssh-session-expiry-%d").build());
     protected File _privateKey;
     protected String _password;
     protected final String _username;
     protected final List<String> _hostnames;
     private boolean _enableConnectRetries;
+    private List<String> _alternativeHostnames;
+    private final Map<String, ConnectedSession> _connectedSessions = new ConcurrentHashMap<String, ConnectedSession>();
+    private volatile ScheduledFuture<?> _sessionExpiry;
 
     public SshClientImpl(String username, File privateKey, List<String> hostnames) {
         _username = username;
@@ -65,6 +82,80 @@ public class SshClientImpl implements SshClient {
         _enableConnectRetries = enable;
     }
 
+    /**
+     * Sets other names of the hosts (in the same order as the hostnames), f.e. the private dns names
+     * if the client uses the public ones. Connects race all names of a host.
+     */
+    public void setAlternativeHostnames(List<String> alternativeHostnames) {
+        Preconditions.checkArgument(alternativeHostnames == null || alternativeHostnames.size() == _hostnames.size(), "need one alternative hostname per host");
+        _alternativeHostnames = alternativeHostnames;
+    }
+
+    public List<String> getAlternativeHostnames() {
+        return _alternativeHostnames;
+    }
+
+    /**
+     * Hands over already connected sessions by hostname. Each session is used for the next command
+     * on its host instead of connecting again. Sessions which aren't used within the max idle time
+     * get disconnected, as do all unused ones on {@link #close()}.
+     */
+    public void setConnectedSessions(Map<String, Session> connectedSessions, long maxIdleTime) {
+        long expiryTime = System.currentTimeMillis() + maxIdleTime;
+        for (Entry<String, Session> entry : connectedSessions.entrySet()) {
+            ConnectedSession previous = _connectedSessions.put(entry.getKey(), new ConnectedSession(entry.getValue(), expiryTime));
+            if (previous != null) {
+                previous._session.disconnect();
+            }
+        }
+        _sessionExpiry = SESSION_EXPIRY_SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                disconnectExpiredSessions();
+            }
+        }, maxIdleTime, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        ScheduledFuture<?> sessionExpiry = _sessionExpiry;
+        if (sessionExpiry != null) {
+            sessionExpiry.cancel(false);
+        }
+        for (String host : _connectedSessions.keySet()) {
+            ConnectedSession connectedSession = _connectedSessions.remove(host);
+            if (connectedSession != null) {
+                connectedSession._session.disconnect();
+            }
+        }
+    }
+
+    private void disconnectExpiredSessions() {
+        long now = System.currentTimeMillis();
+        for (Entry<String, ConnectedSession> entry : _connectedSessions.entrySet()) {
+            if (entry.getValue()._expiryTime <= now && _connectedSessions.remove(entry.getKey(), entry.getValue())) {
+                LOG.debug("disconnecting unused session to " + entry.getKey());
+                entry.getValue()._session.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return the handed over session of the host if it is still connected and not expired, null
+     *         otherwise
+     */
+    Session takeConnectedSession(String host) {
+        ConnectedSession connectedSession = _connectedSessions.remove(host);
+        if (connectedSession == null) {
+            return null;
+        }
+        if (connectedSession._expiryTime <= System.currentTimeMillis() || !connectedSession._session.isConnected()) {
+            connectedSession._session.disconnect();
+            return null;
+        }
+        return connectedSession._session;
+    }
+
     @Override
     public void executeCommand(String command, OutputStream outputStream) throws IOException {
         executeCommand(_hostnames, command, outputStream);
@@ -89,6 +180,114 @@ public class SshClientImpl implements SshClient {
         executeSshCommand(getHosts(targetedInstances), null, commandFile, outputStream);
     }
 
+    @Override
+    public void executeCommand(String command, OutputStream outputStream, RollingExecution rollingExecution) throws IOException {
+        executeRolling(_hostnames, command, null, outputStream, rollingExecution);
+    }
+
+    @Override
+    public void executeCommand(String command, OutputStream outputStream, int[] targetedInstances, RollingExecution rollingExecution) throws IOException {
+        executeRolling(getHosts(targetedInstances), command, null, outputStream, rollingExecution);
+    }
+
+    @Override
+    public void executeCommandFile(File commandFile, OutputStream outputStream, RollingExecution rollingExecution) throws IOException {
+        executeRolling(_hostnames, null, commandFile, outputStream, rollingExecution);
+    }
+
+    @Override
+    public void executeCommandFile(File commandFile, OutputStream outputStream, int[] targetedInstances, RollingExecution rollingExecution) throws IOException {
+        executeRolling(getHosts(targetedInstances), null, commandFile, outputStream, rollingExecution);
+    }
+
+    private void executeRolling(List<String> hostnames, String command, File commandFile, OutputStream outputStream, RollingExecution rollingExecution) throws IOException {
+        List<List<String>> batches = Lists.partition(hostnames, rollingExecution.getBatchSize());
+        List<String> failedHosts = Lists.newArrayList();
+        for (int i = 0; i < batches.size(); i++) {
+            List<String> batch = batches.get(i);
+            LOG.info(String.format("executing batch %d/%d on %s", i + 1, batches.size(), batch));
+            List<String> failedBatchHosts = executeBatch(batch, command, commandFile, outputStream);
+            if (rollingExecution.getHealthCheckCommand() != null) {
+                List<String> healthCheckHosts = Lists.newArrayList(batch);
+                healthCheckHosts.removeAll(failedBatchHosts);
+                failedBatchHosts.addAll(checkHealth(healthCheckHosts, rollingExecution));
+            }
+            failedHosts.addAll(failedBatchHosts);
+            if (failedHosts.size() > rollingExecution.getMaxFailures()) {
+                throw new IOException(String.format("aborting rolling execution after batch %d/%d: %d hosts failed (%d allowed): %s", i + 1, batches.size(), failedHosts.size(),
+                        rollingExecution.getMaxFailures(), failedHosts));
+            }
+            if (i < batches.size() - 1 && rollingExecution.getBatchPause() > 0) {
+                sleep(rollingExecution.getBatchPause());
+            }
+        }
+        if (!failedHosts.isEmpty()) {
+            LOG.warn(String.format("rolling execution finished with %d failed hosts (%d allowed): %s", failedHosts.size(), rollingExecution.getMaxFailures(), failedHosts));
+        }
+    }
+
+    private List<String> checkHealth(List<String> hostnames, RollingExecution rollingExecution) throws IOException {
+        long end = System.currentTimeMillis() + rollingExecution.getHealthCheckTimeout();
+        List<String> unhealthyHosts = executeBatch(hostnames, rollingExecution.getHealthCheckCommand(), null, new ByteArrayOutputStream());
+        while (!unhealthyHosts.isEmpty() && System.currentTimeMillis() + rollingExecution.getHealthCheckInterval() < end) {
+            LOG.info(String.format("health check failed on %s - retrying in %d ms", unhealthyHosts, rollingExecution.getHealthCheckInterval()));
+            sleep(rollingExecution.getHealthCheckInterval());
+            unhealthyHosts = executeBatch(unhealthyHosts, rollingExecution.getHealthCheckCommand(), null, new ByteArrayOutputStream());
+        }
+        return unhealthyHosts;
+    }
+
+    /**
+     * Executes the command on all given hosts concurrently. Other then
+     * {@link #executeSshCommand(List, String, File, OutputStream)} this doesn't fail on the first
+     * failing host but returns all failed hosts.
+     */
+    private List<String> executeBatch(List<String> hostnames, final String command, final File commandFile, OutputStream outputStream) throws IOException {
+        List<String> failedHosts = Lists.newArrayList();
+        if (hostnames.isEmpty()) {
+            return failedHosts;
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(hostnames.size());
+        Map<String, Future<?>> futuresByHost = new LinkedHashMap<String, Future<?>>();
+        Map<String, ByteArrayOutputStream> outputsByHost = new LinkedHashMap<String, ByteArrayOutputStream>();
+        for (final String host : hostnames) {
+            final ByteArrayOutputStream hostOutputStream = new ByteArrayOutputStream();
+            outputsByHost.put(host, hostOutputStream);
+            futuresByHost.put(host, executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    executeCommandOrCommandFile(host, command, commandFile, hostOutputStream);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Entry<String, Future<?>> entry : futuresByHost.entrySet()) {
+                String host = entry.getKey();
+                try {
+                    entry.getValue().get();
+                } catch (ExecutionException e) {
+                    LOG.warn(String.format("execution on '%s' failed: %s", host, e.getCause().getMessage()));
+                    failedHosts.add(host);
+                }
+                outputStream.write(outputsByHost.get(host).toByteArray());
+            }
+        } catch (InterruptedException e) {
+            throw ExceptionUtil.convertToRuntimeException(e);
+        } finally {
+            executorService.shutdownNow();
+        }
+        return failedHosts;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw ExceptionUtil.convertToRuntimeException(e);
+        }
+    }
+
     private void executeSshCommand(final List<String> hostnames, final String command, final File commandFile, final OutputStream outputStream) throws IOException {
         List<SshCallable> sshCallables = Lists.newArrayList();
         if (hostnames.size() == 1) {
@@ -227,6 +426,15 @@ public class SshClientImpl implements SshClient {
         }
         runner.setTrust(true);
         runner.setEnableConnectionRetries(_enableConnectRetries);
+        int hostIndex = _hostnames.indexOf(host);
+        if (_alternativeHostnames != null && hostIndex >= 0) {
+            runner.addAlternativeHost(_alternativeHostnames.get(hostIndex));
+        }
+        runner.addAlternativeHost(Ec2SocketFactory.getHostMapping(host));
+        Session connectedSession = takeConnectedSession(host);
+        if (connectedSession != null) {
+            runner.setConnectedSession(connectedSession);
+        }
         return runner;
     }
 
@@ -238,6 +446,17 @@ public class SshClientImpl implements SshClient {
         return hostnames;
     }
 
+    private static class ConnectedSession {
+
+        private final Session _session;
+        private final long _expiryTime;
+
+        public ConnectedSession(Session session, long expiryTime) {
+            _session = session;
+            _expiryTime = expiryTime;
+        }
+    }
+
     private static abstract class SshCallable implements Callable<SshCallable>, Closeable {
 
         @Override
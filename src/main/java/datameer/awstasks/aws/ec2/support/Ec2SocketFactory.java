@@ -47,6 +47,13 @@ public class Ec2SocketFactory extends SocketFactory {
         _publicAddressesByPrivateAddresses.put(privateAddress, publicAddress);
     }
 
+    /**
+     * @return the public address mapped to the given private address or null
+     */
+    public static String getHostMapping(String privateAddress) {
+        return _publicAddressesByPrivateAddresses.get(privateAddress);
+    }
+
     public static void removeHostMapping(String privateAddress) {
         _publicAddressesByPrivateAddresses.remove(privateAddress);
     }
@@ -15,10 +15,10 @@
  */
 package datameer.awstasks.aws.emr;
 
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.log4j.Logger;
 
@@ -28,16 +28,27 @@ import awstasks.com.amazonaws.auth.BasicAWSCredentials;
 import awstasks.com.amazonaws.services.elasticmapreduce.AmazonElasticMapReduceClient;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.AddJobFlowStepsRequest;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.AddJobFlowStepsResult;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.CancelStepsRequest;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.CancelStepsResult;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeJobFlowsRequest;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeJobFlowsResult;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeStepRequest;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeStepResult;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.RunJobFlowRequest;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.RunJobFlowResult;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.TerminateJobFlowsRequest;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.TerminateJobFlowsResult;
 import datameer.awstasks.aws.emr.EmrCluster.InterruptedRuntimeException;
+import datameer.awstasks.util.BackoffPolicies;
+import datameer.awstasks.util.BackoffPolicy;
 import datameer.awstasks.util.ExceptionUtil;
-import datameer.com.google.common.collect.Lists;
-import datameer.com.google.common.collect.Maps;
+import datameer.awstasks.util.RetryBudget;
+import datameer.com.google.common.base.Objects;
+import datameer.com.google.common.cache.Cache;
+import datameer.com.google.common.cache.CacheBuilder;
+import datameer.com.google.common.cache.CacheStats;
+import datameer.com.google.common.collect.ImmutableList;
+import datameer.com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * 
@@ -53,6 +64,9 @@ public class AmazonElasticMapReduceCustomClient extends AmazonElasticMapReduceCl
     protected static final Logger LOG = Logger.getLogger(AmazonElasticMapReduceCustomClient.class);
     private long _requestInterval = 10000;
     private int _maxRetriesOnConnectionErrors = 25;
+    private int _maxRetriesOnThrottling = 50;
+    private BackoffPolicy _backoffPolicy;
+    private RetryBudget _retryBudget = RetryBudget.getSharedInstance();
     private JobFlowDescriptionCache _flowDescriptionCache = new JobFlowDescriptionCache(_requestInterval);
 
     public AmazonElasticMapReduceCustomClient(String awsAccessKeyId, String awsSecretAccessKey) {
@@ -76,6 +90,26 @@ public class AmazonElasticMapReduceCustomClient extends AmazonElasticMapReduceCl
         return _maxRetriesOnConnectionErrors;
     }
 
+    public void setMaxRetriesOnThrottling(int maxRetriesOnThrottling) {
+        _maxRetriesOnThrottling = maxRetriesOnThrottling;
+    }
+
+    public int getMaxRetriesOnThrottling() {
+        return _maxRetriesOnThrottling;
+    }
+
+    public void setBackoffPolicy(BackoffPolicy backoffPolicy) {
+        _backoffPolicy = backoffPolicy;
+    }
+
+    public void setRetryBudget(RetryBudget retryBudget) {
+        _retryBudget = retryBudget;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return _retryBudget;
+    }
+
     @Override
     public AddJobFlowStepsResult addJobFlowSteps(final AddJobFlowStepsRequest request) throws AmazonServiceException {
         return doThrottleSafe(new Callable<AddJobFlowStepsResult>() {
@@ -88,26 +122,39 @@ public class AmazonElasticMapReduceCustomClient extends AmazonElasticMapReduceCl
 
     @Override
     public DescribeJobFlowsResult describeJobFlows(final DescribeJobFlowsRequest request) throws AmazonServiceException {
-        synchronized (_flowDescriptionCache) {
-            DescribeJobFlowsResult cachedResponse = _flowDescriptionCache.getResponse(request);
-            if (cachedResponse != null) {
-                return cachedResponse;
+        return _flowDescriptionCache.getResponse(request, new Callable<DescribeJobFlowsResult>() {
+            @Override
+            public DescribeJobFlowsResult call() throws Exception {
+                return doThrottleSafe(new Callable<DescribeJobFlowsResult>() {
+                    @Override
+                    public DescribeJobFlowsResult call() throws Exception {
+                        return AmazonElasticMapReduceCustomClient.super.describeJobFlows(request);
+                    }
+                });
             }
-            return doThrottleSafe(new Callable<DescribeJobFlowsResult>() {
-                @Override
-                public DescribeJobFlowsResult call() throws Exception {
-                    DescribeJobFlowsResult response = AmazonElasticMapReduceCustomClient.super.describeJobFlows(request);
-                    _flowDescriptionCache.addResponse(request, response);
-                    return response;
-                }
-            });
-        }
+        });
     }
 
     public void clearDescribeJobFlowCache() {
-        synchronized (_flowDescriptionCache) {
-            _flowDescriptionCache.clear();
-        }
+        _flowDescriptionCache.clear();
+    }
+
+    public void clearDescribeJobFlowCache(DescribeJobFlowsRequest request) {
+        _flowDescriptionCache.invalidate(request);
+    }
+
+    public CacheStats getDescribeJobFlowCacheStats() {
+        return _flowDescriptionCache.getStats();
+    }
+
+    @Override
+    public DescribeStepResult describeStep(final DescribeStepRequest request) throws AmazonServiceException {
+        return doThrottleSafe(new Callable<DescribeStepResult>() {
+            @Override
+            public DescribeStepResult call() throws Exception {
+                return AmazonElasticMapReduceCustomClient.super.describeStep(request);
+            }
+        });
     }
 
     @Override
@@ -120,6 +167,16 @@ public class AmazonElasticMapReduceCustomClient extends AmazonElasticMapReduceCl
         });
     }
 
+    @Override
+    public CancelStepsResult cancelSteps(final CancelStepsRequest request) throws AmazonServiceException {
+        return doThrottleSafe(new Callable<CancelStepsResult>() {
+            @Override
+            public CancelStepsResult call() throws Exception {
+                return AmazonElasticMapReduceCustomClient.super.cancelSteps(request);
+            }
+        });
+    }
+
     @Override
     public TerminateJobFlowsResult terminateJobFlows(final TerminateJobFlowsRequest request) throws AmazonServiceException {
         return doThrottleSafe(new Callable<TerminateJobFlowsResult>() {
@@ -131,18 +188,29 @@ public class AmazonElasticMapReduceCustomClient extends AmazonElasticMapReduceCl
     }
 
     protected <T> T doThrottleSafe(Callable<T> callable) throws AmazonServiceException, InterruptedRuntimeException {
+        BackoffPolicy backoffPolicy = getBackoffPolicy();
         int failCount = 0;
+        long waitTime = 0;
         do {
             try {
-                return callable.call();
+                T result = callable.call();
+                if (failCount == 0) {
+                    _retryBudget.depositSuccess();
+                }
+                return result;
             } catch (AmazonClientException e) {
                 failCount++;
                 if (!shouldRetryWebServiceCall(e, failCount)) {
                     throw e;
                 }
-                LOG.warn("retrying after exception: " + e.getMessage());
+                if (!_retryBudget.tryWithdraw()) {
+                    LOG.warn("retry budget exhausted, not retrying after exception: " + e.getMessage());
+                    throw e;
+                }
+                waitTime = backoffPolicy.getWaitTime(failCount, waitTime);
+                LOG.warn("retrying after exception (waiting " + waitTime + " ms): " + e.getMessage());
                 try {
-                    Thread.sleep(getRequestInterval());
+                    Thread.sleep(waitTime);
                 } catch (InterruptedException e2) {
                     throw new InterruptedRuntimeException(e2);
                 }
@@ -155,11 +223,21 @@ public class AmazonElasticMapReduceCustomClient extends AmazonElasticMapReduceCl
         } while (true);
     }
 
+    /**
+     * The default backoff starts with a second and grows up to the request interval.
+     */
+    protected BackoffPolicy getBackoffPolicy() {
+        if (_backoffPolicy != null) {
+            return _backoffPolicy;
+        }
+        return BackoffPolicies.decorrelatedJitter(Math.min(1000, getRequestInterval()), getRequestInterval());
+    }
+
     private boolean shouldRetryWebServiceCall(AmazonClientException e, int failCount) {
         if (e instanceof AmazonServiceException) {
             String errorCode = ((AmazonServiceException) e).getErrorCode();
             if (errorCode != null && errorCode.equals("Throttling")) {
-                return true;
+                return failCount <= getMaxRetriesOnThrottling();
             }
         }
         if (failCount < getMaxRetriesOnConnectionErrors() && e.getMessage() != null) {
@@ -174,14 +252,20 @@ public class AmazonElasticMapReduceCustomClient extends AmazonElasticMapReduceCl
         return false;
     }
 
+    /**
+     * Caches the job flow descriptions per request for a limited time. Concurrent lookups of the
+     * same request share one remote call, lookups of different requests don't block each other.
+     * The max cache time can be changed without losing the cached responses or the statistics.
+     */
     static class JobFlowDescriptionCache {
 
-        private final Map<String, DescribeJobFlowsResult> _cachedJobFlowsDescriptionsByRequestHash = Maps.newHashMap();
-        private final Map<String, Long> _lastRetrievalTimeByRequestHash = Maps.newHashMap();
-        private long _maxCacheTime;
+        protected static final int MAX_CACHED_RESPONSES = 1000;
+
+        private final Cache<RequestKey, CachedResponse> _cache = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_RESPONSES).recordStats().build();
+        private volatile long _maxCacheTime;
 
         public JobFlowDescriptionCache(long maxCacheTime) {
-            _maxCacheTime = maxCacheTime;
+            setMaxCacheTime(maxCacheTime);
         }
 
         public void setMaxCacheTime(long maxCacheTime) {
@@ -189,53 +273,105 @@ public class AmazonElasticMapReduceCustomClient extends AmazonElasticMapReduceCl
         }
 
         public void addResponse(DescribeJobFlowsRequest request, DescribeJobFlowsResult response) {
-            String hashCode = calculateHashString(request);
-            _cachedJobFlowsDescriptionsByRequestHash.put(hashCode, response);
-            _lastRetrievalTimeByRequestHash.put(hashCode, System.currentTimeMillis());
+            _cache.put(new RequestKey(request), new CachedResponse(response));
         }
 
         public DescribeJobFlowsResult getResponse(DescribeJobFlowsRequest request) {
-            String hash = calculateHashString(request);
-            cleanupOutdatedResponses();
-            DescribeJobFlowsResult describeJobFlowsResult = _cachedJobFlowsDescriptionsByRequestHash.get(hash);
+            RequestKey key = new RequestKey(request);
+            removeIfExpired(key);
+            CachedResponse cachedResponse = _cache.getIfPresent(key);
             if (LOG.isDebugEnabled()) {
-                if (describeJobFlowsResult != null) {
-                    LOG.debug("Cache hit for: " + hash);
-                } else {
-                    LOG.debug("Cache miss for: " + hash);
-                }
+                LOG.debug((cachedResponse != null ? "Cache hit for: " : "Cache miss for: ") + key);
             }
-            return describeJobFlowsResult;
+            return cachedResponse != null ? cachedResponse._response : null;
         }
 
-        public void clear() {
-            _cachedJobFlowsDescriptionsByRequestHash.clear();
-            _lastRetrievalTimeByRequestHash.clear();
+        /**
+         * Returns the cached response or loads it with the given loader. Only one loader per
+         * request is executed at a time, concurrent callers wait for its result.
+         */
+        public DescribeJobFlowsResult getResponse(DescribeJobFlowsRequest request, final Callable<DescribeJobFlowsResult> loader) {
+            RequestKey key = new RequestKey(request);
+            removeIfExpired(key);
+            try {
+                return _cache.get(key, new Callable<CachedResponse>() {
+                    @Override
+                    public CachedResponse call() throws Exception {
+                        return new CachedResponse(loader.call());
+                    }
+                })._response;
+            } catch (ExecutionException e) {
+                throw ExceptionUtil.convertToRuntimeException(e.getCause());
+            } catch (UncheckedExecutionException e) {
+                throw ExceptionUtil.convertToRuntimeException(e.getCause());
+            }
         }
 
-        private void cleanupOutdatedResponses() {
-            List<String> hashsToRemove = Lists.newArrayList();
-            for (Entry<String, Long> entry : _lastRetrievalTimeByRequestHash.entrySet()) {
-                Long retrievalTime = entry.getValue();
-                if (_maxCacheTime <= (System.currentTimeMillis() - retrievalTime)) {
-                    hashsToRemove.add(entry.getKey());
-                }
-            }
-            for (String hash : hashsToRemove) {
-                _lastRetrievalTimeByRequestHash.remove(hash);
-                _cachedJobFlowsDescriptionsByRequestHash.remove(hash);
+        private void removeIfExpired(RequestKey key) {
+            // the map view doesn't count as lookup, so an expired entry is recorded as a miss only
+            CachedResponse cachedResponse = _cache.asMap().get(key);
+            if (cachedResponse != null && System.currentTimeMillis() - cachedResponse._creationTime >= _maxCacheTime) {
+                _cache.asMap().remove(key, cachedResponse);
             }
         }
 
-        private String calculateHashString(DescribeJobFlowsRequest request) {
-            StringBuilder hashBuilder = new StringBuilder();
-            hashBuilder.append("createdAfter=").append(request.getCreatedAfter());
-            hashBuilder.append(", createdBefore=").append(request.getCreatedBefore());
-            hashBuilder.append(", jobFlowIds=").append(request.getJobFlowIds());
-            hashBuilder.append(", jobFlowStates=").append(request.getJobFlowStates());
-            return hashBuilder.toString();
+        public CacheStats getStats() {
+            return _cache.stats();
+        }
+
+        public void invalidate(DescribeJobFlowsRequest request) {
+            _cache.invalidate(new RequestKey(request));
+        }
+
+        public void clear() {
+            _cache.invalidateAll();
+        }
+
+    }
+
+    private static class CachedResponse {
+
+        private final DescribeJobFlowsResult _response;
+        private final long _creationTime = System.currentTimeMillis();
+
+        public CachedResponse(DescribeJobFlowsResult response) {
+            _response = response;
         }
+    }
+
+    private static class RequestKey {
+
+        private final Date _createdAfter;
+        private final Date _createdBefore;
+        private final List<String> _jobFlowIds;
+        private final List<String> _jobFlowStates;
 
+        public RequestKey(DescribeJobFlowsRequest request) {
+            _createdAfter = request.getCreatedAfter();
+            _createdBefore = request.getCreatedBefore();
+            _jobFlowIds = ImmutableList.copyOf(request.getJobFlowIds());
+            _jobFlowStates = ImmutableList.copyOf(request.getJobFlowStates());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(_createdAfter, _createdBefore, _jobFlowIds, _jobFlowStates);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RequestKey)) {
+                return false;
+            }
+            RequestKey other = (RequestKey) obj;
+            return Objects.equal(_createdAfter, other._createdAfter) && Objects.equal(_createdBefore, other._createdBefore) && _jobFlowIds.equals(other._jobFlowIds)
+                    && _jobFlowStates.equals(other._jobFlowStates);
+        }
+
+        @Override
+        public String toString() {
+            return "createdAfter=" + _createdAfter + ", createdBefore=" + _createdBefore + ", jobFlowIds=" + _jobFlowIds + ", jobFlowStates=" + _jobFlowStates;
+        }
     }
 
 }
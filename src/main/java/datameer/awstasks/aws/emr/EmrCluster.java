@@ -16,45 +16,76 @@
 package datameer.awstasks.aws.emr;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import org.apache.log4j.Logger;
 
+import awstasks.com.amazonaws.AmazonClientException;
 import awstasks.com.amazonaws.auth.BasicAWSCredentials;
 import awstasks.com.amazonaws.services.elasticmapreduce.AmazonElasticMapReduce;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.AddJobFlowStepsRequest;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.AddJobFlowStepsResult;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.CancelStepsRequest;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeJobFlowsRequest;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeJobFlowsResult;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeStepRequest;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.HadoopJarStepConfig;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.JobFlowDetail;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.JobFlowInstancesConfig;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.KeyValue;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.RunJobFlowRequest;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.RunJobFlowResult;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.Step;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.StepConfig;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.StepDetail;
 import awstasks.com.amazonaws.services.elasticmapreduce.model.TerminateJobFlowsRequest;
 import awstasks.com.amazonaws.services.s3.AmazonS3;
 import awstasks.com.amazonaws.services.s3.AmazonS3Client;
+import awstasks.com.amazonaws.services.s3.model.ObjectMetadata;
 import awstasks.com.amazonaws.services.simpledb.AmazonSimpleDB;
 import awstasks.com.amazonaws.services.simpledb.AmazonSimpleDBClient;
 import awstasks.com.amazonaws.services.simpledb.model.Attribute;
 import awstasks.com.amazonaws.services.simpledb.model.Item;
 import awstasks.com.amazonaws.services.simpledb.model.SelectRequest;
 
+import datameer.awstasks.aws.concurrent.AwsRateLimiters;
 import datameer.awstasks.aws.concurrent.ObjectLock;
+import datameer.awstasks.aws.emr.JobFlowPoller.JobFlowListener;
 import datameer.awstasks.aws.emr.JobFlowState.StateCategory;
+import datameer.awstasks.util.ExceptionUtil;
 import datameer.awstasks.util.S3Util;
+import datameer.com.google.common.base.Charsets;
 import datameer.com.google.common.base.Preconditions;
 import datameer.com.google.common.base.Predicate;
+import datameer.com.google.common.cache.Cache;
+import datameer.com.google.common.cache.CacheBuilder;
 import datameer.com.google.common.collect.Collections2;
+import datameer.com.google.common.collect.Lists;
+import datameer.com.google.common.hash.Hashing;
+import datameer.com.google.common.io.Files;
 
 /**
  * Allows access and management of amazons elastic map-reduce. One emr cluster maps to one job flow.
@@ -62,6 +93,11 @@ import datameer.com.google.common.collect.Collections2;
 public class EmrCluster {
 
     private static final StepConfig DEBUG_STEP = createDebugStep();
+    private static final int MAX_STEPS_PER_REQUEST = 256;
+    private static final int MAX_PARALLEL_JAR_UPLOADS = 4;
+    private static final String CONTENT_HASH_METADATA = "content-sha1";
+    // content hashes by jar path, modification time and length
+    private static final Cache<String, String> JOB_JAR_HASH_CACHE = CacheBuilder.newBuilder().maximumSize(100).build();
 
     private static StepConfig createDebugStep() {
         StepConfig debugStep = new StepConfig();
@@ -76,11 +112,12 @@ public class EmrCluster {
     }
 
     protected static final Logger LOG = Logger.getLogger(EmrCluster.class);
+    private static final ConcurrentMap<String, JobFlowPoller> JOB_FLOW_POLLERS = new ConcurrentHashMap<String, JobFlowPoller>();
 
     private final EmrSettings _settings;
     private final String _accessSecret;
     protected AmazonElasticMapReduceCustomClient _emrWebService;
-    private AmazonS3 _s3Service;
+    protected AmazonS3 _s3Service;
     protected AmazonSimpleDB _simpleDB;
     protected long _startTime;
     protected volatile String _masterHost;
@@ -89,16 +126,20 @@ public class EmrCluster {
     protected String _jobFlowId;
     protected ClusterState _clusterState = ClusterState.UNCONNECTED;
     private ObjectLock<String> _uploadLock = ObjectLock.create();
+    private final StepIndex _stepIndex = new StepIndex();
+    private final Map<String, String> _verifiedJobJars = new ConcurrentHashMap<String, String>();
+    private final Set<String> _existingBuckets = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile JobFlowPoller _jobFlowPoller;
 
     // TODO jz: rethrow interrupted exceptions
 
     public EmrCluster(EmrSettings settings, String accessSecret) {
         _accessSecret = accessSecret;
         _settings = settings;
-        _emrWebService = new AmazonElasticMapReduceCustomClient(settings.getAccessKey(), _accessSecret);
+        _emrWebService = AwsRateLimiters.rateLimited(new AmazonElasticMapReduceCustomClient(settings.getAccessKey(), _accessSecret));
         // FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
         if (settings.isDebugEnabled()) {
-            _simpleDB = new AmazonSimpleDBClient(new BasicAWSCredentials(settings.getAccessKey(), accessSecret));
+            _simpleDB = AwsRateLimiters.rateLimited(new AmazonSimpleDBClient(new BasicAWSCredentials(settings.getAccessKey(), accessSecret)));
         }
     }
 
@@ -114,8 +155,14 @@ public class EmrCluster {
         return _emrWebService;
     }
 
+    /**
+     * Sets the interval between requests of the emr client and requests it as poll interval from the
+     * job flow poller. A poller shared by several clusters polls with the smallest requested
+     * interval.
+     */
     public void setRequestInterval(long requestInterval) {
         _emrWebService.setRequestInterval(requestInterval);
+        getJobFlowPoller().requestPollInterval(this, requestInterval);
     }
 
     public long getRequestInterval() {
@@ -192,6 +239,7 @@ public class EmrCluster {
      */
     public void disconnect() {
         _jobFlowId = null;
+        _stepIndex.clear();
         _startTime = 0;
         _clusterState = ClusterState.UNCONNECTED;
         // shutdownS3Service();
@@ -296,10 +344,9 @@ public class EmrCluster {
     }
 
     private void waitUntilClusterStateChange(final String jobFlowId, final StateCategory targetState) throws InterruptedException {
-        doWhileNot(new Callable<Boolean>() {
+        waitUntil(jobFlowId, new JobFlowListener() {
             @Override
-            public Boolean call() throws Exception {
-                JobFlowDetail jobFlowDetail = getJobFlowDetail(jobFlowId);
+            public boolean jobFlowUpdated(JobFlowDetail jobFlowDetail) {
                 String lastStateChangeReason = jobFlowDetail.getExecutionStatusDetail().getLastStateChangeReason();
                 JobFlowState state = JobFlowState.valueOf(jobFlowDetail.getExecutionStatusDetail().getState());
                 LOG.info("elastic cluster '" + jobFlowDetail.getName() + "/" + jobFlowId + "' in state '" + state + "'");
@@ -319,49 +366,92 @@ public class EmrCluster {
                 }
                 return finished;
             }
-        }, getRequestInterval());
+        });
     }
 
     protected void waitUntilStepFinished(final String jobFlowId, final String stepName, final int stepIndex) throws InterruptedException {
-        doWhileNot(new Callable<Boolean>() {
+        waitUntil(jobFlowId, new JobFlowListener() {
             @Override
-            public Boolean call() throws Exception {
-                StepState stepState = getStepState(jobFlowId, stepName);
+            public boolean jobFlowUpdated(JobFlowDetail jobFlowDetail) {
+                StepState stepState = getStepState(jobFlowDetail, stepName);
                 LOG.info("job step " + stepIndex + "/" + stepName + " in state '" + stepState + "'");
                 boolean finished = stepState.isFinished();
                 if (finished) {
                     if (!stepState.isSuccessful()) {
-                        int stepIndex = getStepIndex(getJobFlowDetail(jobFlowId), stepName);
+                        int stepIndex = getStepIndex(jobFlowDetail, stepName);
                         throw new RuntimeException("job step '" + stepName + "' (" + jobFlowId + "/" + stepIndex + ") failed with state '" + stepState + "'");
                     }
                 }
                 return finished;
             }
 
-        }, getRequestInterval());
+        });
+    }
+
+    /**
+     * Blocks until the listener is done. The job flow is polled together with all other job flows
+     * watched by the job flow poller.
+     */
+    private void waitUntil(String jobFlowId, JobFlowListener listener) throws InterruptedException {
+        CompletableFuture<Void> future = getJobFlowPoller().watch(jobFlowId, listener);
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw ExceptionUtil.convertToRuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * The poller of this cluster's job flows. By default all clusters with the same credentials share
+     * one poller, which uses an emr client of its own.
+     */
+    public synchronized JobFlowPoller getJobFlowPoller() {
+        if (_jobFlowPoller == null) {
+            setJobFlowPoller(getSharedJobFlowPoller(getSettings().getAccessKey(), _accessSecret));
+        }
+        return _jobFlowPoller;
+    }
+
+    /**
+     * Lets this cluster use the given poller instead of the shared one.
+     */
+    public synchronized void setJobFlowPoller(JobFlowPoller jobFlowPoller) {
+        if (_jobFlowPoller != null) {
+            _jobFlowPoller.removePollIntervalRequest(this);
+        }
+        _jobFlowPoller = jobFlowPoller;
+        _jobFlowPoller.requestPollInterval(this, getRequestInterval());
+    }
+
+    private static JobFlowPoller getSharedJobFlowPoller(String accessKey, String accessSecret) {
+        String credentialHash = Hashing.sha1().hashString(accessKey + ":" + accessSecret, Charsets.UTF_8).toString();
+        JobFlowPoller poller = JOB_FLOW_POLLERS.get(credentialHash);
+        if (poller == null) {
+            AmazonElasticMapReduceCustomClient emrService = AwsRateLimiters.rateLimited(new AmazonElasticMapReduceCustomClient(accessKey, accessSecret));
+            JobFlowPoller newPoller = new JobFlowPoller(emrService, emrService.getRequestInterval());
+            poller = JOB_FLOW_POLLERS.putIfAbsent(credentialHash, newPoller);
+            if (poller == null) {
+                poller = newPoller;
+            }
+        }
+        return poller;
     }
 
     protected StepState getStepState(final String jobFlowId, final String stepName) {
-        JobFlowDetail flowDetail = getJobFlowDetail(jobFlowId);
+        return getStepState(getJobFlowDetail(jobFlowId), stepName);
+    }
+
+    protected StepState getStepState(JobFlowDetail flowDetail, String stepName) {
         StepDetail stepDetail = getStepDetail(flowDetail, stepName);
-        StepState stepState = StepState.valueOf(stepDetail.getExecutionStatusDetail().getState());
-        return stepState;
+        return StepState.valueOf(stepDetail.getExecutionStatusDetail().getState());
     }
 
-    protected static void doWhileNot(Callable<Boolean> callable, long requestInterval) throws InterruptedException {
-        boolean finished = false;
-        do {
-            Thread.sleep(requestInterval);
-            try {
-                finished = callable.call();
-            } catch (InterruptedException e) {
-                throw e;
-            } catch (RuntimeException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        } while (!finished);
+    protected StepState getStepState(JobFlowDetail flowDetail, int stepIndex, String stepName) {
+        StepDetail stepDetail = getStepDetail(flowDetail, stepIndex, stepName);
+        return StepState.valueOf(stepDetail.getExecutionStatusDetail().getState());
     }
 
     protected JobFlowDetail getJobFlowDetail(String jobFlowId) {
@@ -369,6 +459,7 @@ public class EmrCluster {
         List<JobFlowDetail> jobFlows = describeJobFlows.getJobFlows();
         Preconditions.checkArgument(jobFlows.size() > 0, "No job flow with id '%s' found", jobFlowId);
         Preconditions.checkState(jobFlows.size() < 2, "More then one job flow with id '%s' found", jobFlowId);
+        _stepIndex.update(jobFlows.get(0));
         return jobFlows.get(0);
     }
 
@@ -401,21 +492,34 @@ public class EmrCluster {
     }
 
     protected StepDetail getStepDetail(JobFlowDetail flowDetail, String stepName) {
-        for (StepDetail stepDetail : flowDetail.getSteps()) {
-            if (stepName.equals(stepDetail.getStepConfig().getName())) {
-                return stepDetail;
-            }
+        return flowDetail.getSteps().get(getStepIndex(flowDetail, stepName) - 1);
+    }
+
+    /**
+     * Looks the step up by its index and falls back to the name if the index doesn't match.
+     */
+    protected StepDetail getStepDetail(JobFlowDetail flowDetail, int stepIndex, String stepName) {
+        List<StepDetail> steps = flowDetail.getSteps();
+        if (stepIndex > 0 && stepIndex <= steps.size() && stepName.equals(steps.get(stepIndex - 1).getStepConfig().getName())) {
+            return steps.get(stepIndex - 1);
         }
-        throw new IllegalStateException("no step detail with name '" + stepName + "' found in " + flowDetail.getJobFlowId());
+        return getStepDetail(flowDetail, stepName);
     }
 
     protected int getStepIndex(JobFlowDetail flowDetail, String stepName) {
-        for (int i = 0; i < flowDetail.getSteps().size(); i++) {
-            if (stepName.equals(flowDetail.getSteps().get(i).getStepConfig().getName())) {
-                return i + 1;// starting from 1
-            }
+        _stepIndex.update(flowDetail);
+        int stepIndex = _stepIndex.getStepIndex(flowDetail.getJobFlowId(), stepName);
+        if (stepIndex == 0) {
+            throw new IllegalStateException("no step detail with name '" + stepName + "' found in " + flowDetail.getJobFlowId());
         }
-        throw new IllegalStateException("no step detail with name '" + stepName + "' found in " + flowDetail.getJobFlowId());
+        return stepIndex;
+    }
+
+    /**
+     * @return the index of a step submitted through this cluster or 0 if the step id is unknown
+     */
+    public int getStepIndexById(String stepId) {
+        return _stepIndex.getStepIndexById(_jobFlowId, stepId);
     }
 
     static class InterruptedRuntimeException extends RuntimeException {
@@ -437,15 +541,62 @@ public class EmrCluster {
 
     }
 
-    public class StepFuture {
+    /**
+     * Completes with the final state of a successful step, or fails if the step fails. The step is
+     * watched by the shared {@link JobFlowPoller}, so no thread is blocked while it runs.
+     */
+    public class StepFuture implements Future<StepState> {
 
         private final String _stepName;
         private final int _stepIndex;
+        private final String _stepId;
+        private final CompletableFuture<StepState> _result = new CompletableFuture<StepState>();
+        private final List<StepStateListener> _listeners = new CopyOnWriteArrayList<StepStateListener>();
+        private volatile StepState _lastStepState;
+        private volatile CompletableFuture<Void> _watch;
         private String _domain;
 
         public StepFuture(String stepName, int stepIndex) {
+            this(stepName, stepIndex, null);
+        }
+
+        public StepFuture(String stepName, int stepIndex, String stepId) {
             _stepName = stepName;
             _stepIndex = stepIndex;
+            _stepId = stepId;
+            if (stepId != null) {
+                EmrCluster.this._stepIndex.putStepId(_jobFlowId, stepId, stepIndex);
+            }
+            _watch = getJobFlowPoller().watch(_jobFlowId, new JobFlowListener() {
+                @Override
+                public boolean jobFlowUpdated(JobFlowDetail jobFlowDetail) {
+                    StepState stepState = EmrCluster.this.getStepState(jobFlowDetail, _stepIndex, _stepName);
+                    fireStateChange(stepState);
+                    if (stepState.isFinished()) {
+                        if (stepState.isSuccessful()) {
+                            _result.complete(stepState);
+                        } else {
+                            _result.completeExceptionally(new RuntimeException("job step '" + _stepName + "' (" + jobFlowDetail.getJobFlowId() + "/" + _stepIndex
+                                    + ") failed with state '" + stepState + "'"));
+                        }
+                    }
+                    return stepState.isFinished();
+                }
+            });
+            _watch.whenComplete(new BiConsumer<Void, Throwable>() {
+                @Override
+                public void accept(Void result, Throwable throwable) {
+                    if (throwable != null) {
+                        _result.completeExceptionally(throwable);
+                    }
+                }
+            });
+            _result.whenComplete(new BiConsumer<StepState, Throwable>() {
+                @Override
+                public void accept(StepState result, Throwable throwable) {
+                    _watch.cancel(false);
+                }
+            });
         }
 
         public int getStepIndex() {
@@ -456,10 +607,59 @@ public class EmrCluster {
             return _stepName;
         }
 
+        public String getStepId() {
+            return _stepId;
+        }
+
+        /**
+         * Retrieves the current state, with a request for this step only if the step id is known.
+         */
         public StepState getStepState() {
+            if (_stepId != null) {
+                Step step = _emrWebService.describeStep(new DescribeStepRequest().withClusterId(_jobFlowId).withStepId(_stepId)).getStep();
+                return StepState.valueOf(step.getStatus().getState());
+            }
             return EmrCluster.this.getStepState(_jobFlowId, _stepName);
         }
 
+        /**
+         * @return the last polled state of the step or null if not polled yet
+         */
+        public StepState getLastStepState() {
+            return _lastStepState;
+        }
+
+        /**
+         * Registers a listener which is notified on every state change of the step. The listener is
+         * called from the polling thread and should return quickly.
+         */
+        public StepFuture onStateChange(StepStateListener listener) {
+            _listeners.add(listener);
+            return this;
+        }
+
+        private void fireStateChange(StepState stepState) {
+            if (stepState == _lastStepState) {
+                return;
+            }
+            _lastStepState = stepState;
+            LOG.info("job step " + _stepIndex + "/" + _stepName + " in state '" + stepState + "'");
+            for (StepStateListener listener : _listeners) {
+                try {
+                    listener.stepStateChanged(this, stepState);
+                } catch (RuntimeException e) {
+                    LOG.warn("listener " + listener + " failed on state change of step " + _stepName, e);
+                }
+            }
+        }
+
+        /**
+         * A view of this future for composing steps with other asynchronous work.
+         */
+        public CompletableFuture<StepState> toCompletableFuture() {
+            return _result;
+        }
+
         public StepMetadata getStepMetaData() {
             if (_simpleDB == null) {
                 throw new IllegalStateException("can retrieve step metadata only when hadoop debugging enabled");
@@ -505,13 +705,101 @@ public class EmrCluster {
 
         public void join() throws InterruptedException {
             try {
-                waitUntilStepFinished(_jobFlowId, _stepName, _stepIndex);
-            } catch (InterruptedRuntimeException e) {
-                throw e.getCause();
+                _result.get();
+            } catch (ExecutionException e) {
+                throw ExceptionUtil.convertToRuntimeException(e.getCause());
+            }
+        }
+
+        /**
+         * @return true if the step finished successfully within the given time, false if it is still
+         *         running
+         */
+        public boolean join(long timeout, TimeUnit timeUnit) throws InterruptedException {
+            try {
+                _result.get(timeout, timeUnit);
+                return true;
+            } catch (TimeoutException e) {
+                return false;
+            } catch (ExecutionException e) {
+                throw ExceptionUtil.convertToRuntimeException(e.getCause());
+            }
+        }
+
+        /**
+         * Cancels the step on the cluster (only possible while it is pending) and stops waiting for
+         * it.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (_result.isDone()) {
+                return false;
             }
+            if (_stepId != null) {
+                try {
+                    _emrWebService.cancelSteps(new CancelStepsRequest().withClusterId(_jobFlowId).withStepIds(_stepId));
+                } catch (AmazonClientException e) {
+                    LOG.warn("failed to cancel job step " + _stepIndex + "/" + _stepName + ": " + e.getMessage());
+                }
+            }
+            return _result.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return _result.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return _result.isDone();
+        }
+
+        @Override
+        public StepState get() throws InterruptedException, ExecutionException {
+            return _result.get();
+        }
+
+        @Override
+        public StepState get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return _result.get(timeout, unit);
         }
     }
 
+    public static interface StepStateListener {
+
+        void stepStateChanged(StepFuture stepFuture, StepState stepState);
+    }
+
+    /**
+     * @return a future which completes when all given steps succeeded or fails with the first
+     *         failing step
+     */
+    public static CompletableFuture<Void> allOf(StepFuture... stepFutures) {
+        return allOf(Arrays.asList(stepFutures));
+    }
+
+    public static CompletableFuture<Void> allOf(Collection<StepFuture> stepFutures) {
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        final AtomicInteger pendingCount = new AtomicInteger(stepFutures.size());
+        if (stepFutures.isEmpty()) {
+            result.complete(null);
+        }
+        for (StepFuture stepFuture : stepFutures) {
+            stepFuture.toCompletableFuture().whenComplete(new BiConsumer<StepState, Throwable>() {
+                @Override
+                public void accept(StepState stepState, Throwable throwable) {
+                    if (throwable != null) {
+                        result.completeExceptionally(throwable);
+                    } else if (pendingCount.decrementAndGet() == 0) {
+                        result.complete(null);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
     public class StepMetadata {
 
         public final static String JOB_ID = "jobId";
@@ -557,6 +845,163 @@ public class EmrCluster {
         CONNECTED, UNCONNECTED, STARTING, STOPPING;
     }
 
+    /**
+     * Submits the steps with as few requests as possible. Distinct job jars are uploaded
+     * concurrently.
+     */
+    public List<StepFuture> submitJobSteps(JobStepBuilder... jobSteps) {
+        return submitJobSteps(Arrays.asList(jobSteps));
+    }
+
+    public List<StepFuture> submitJobSteps(List<JobStepBuilder> jobSteps) {
+        checkConnection(true);
+        uploadJobJars(jobSteps);
+        List<List<String>> stepIdsByRequest = new ArrayList<List<String>>();
+        List<List<JobStepBuilder>> jobStepsByRequest = Lists.partition(jobSteps, MAX_STEPS_PER_REQUEST);
+        for (List<JobStepBuilder> requestJobSteps : jobStepsByRequest) {
+            AddJobFlowStepsRequest request = new AddJobFlowStepsRequest().withJobFlowId(_jobFlowId);
+            for (JobStepBuilder jobStep : requestJobSteps) {
+                request.withSteps(jobStep._stepConfig);
+            }
+            stepIdsByRequest.add(_emrWebService.addJobFlowSteps(request).getStepIds());
+        }
+
+        DescribeJobFlowsRequest describeRequest = new DescribeJobFlowsRequest().withJobFlowIds(_jobFlowId);
+        _emrWebService.clearDescribeJobFlowCache(describeRequest);
+        JobFlowDetail jobFlowDetail = getJobFlowDetail(_jobFlowId);
+        List<StepFuture> stepFutures = new ArrayList<StepFuture>(jobSteps.size());
+        for (int i = 0; i < jobStepsByRequest.size(); i++) {
+            List<JobStepBuilder> requestJobSteps = jobStepsByRequest.get(i);
+            List<String> stepIds = stepIdsByRequest.get(i);
+            int firstStepIndex = getFirstStepIndex(jobFlowDetail, requestJobSteps);
+            for (int j = 0; j < requestJobSteps.size(); j++) {
+                String stepName = requestJobSteps.get(j).getName();
+                int stepIndex = firstStepIndex > 0 ? firstStepIndex + j : getStepIndex(jobFlowDetail, stepName);
+                String stepId = j < stepIds.size() ? stepIds.get(j) : null;
+                stepFutures.add(new StepFuture(stepName, stepIndex, stepId));
+            }
+        }
+        return stepFutures;
+    }
+
+    /**
+     * The steps of one request are appended to the job flow in a row. Searches for the latest such
+     * row.
+     * 
+     * @return the index of the first step or 0 if not found
+     */
+    private int getFirstStepIndex(JobFlowDetail jobFlowDetail, List<JobStepBuilder> jobSteps) {
+        List<StepDetail> steps = jobFlowDetail.getSteps();
+        for (int start = steps.size() - jobSteps.size(); start >= 0; start--) {
+            boolean matches = true;
+            for (int i = 0; i < jobSteps.size() && matches; i++) {
+                matches = jobSteps.get(i).getName().equals(steps.get(start + i).getStepConfig().getName());
+            }
+            if (matches) {
+                return start + 1;// starting from 1
+            }
+        }
+        return 0;
+    }
+
+    private void uploadJobJars(List<JobStepBuilder> jobSteps) {
+        Map<String, JobStepBuilder> jobStepsByJar = new LinkedHashMap<String, JobStepBuilder>();
+        for (JobStepBuilder jobStep : jobSteps) {
+            if (!jobStepsByJar.containsKey(jobStep.getJobJarKey())) {
+                jobStepsByJar.put(jobStep.getJobJarKey(), jobStep);
+            }
+        }
+        final Map<String, String> s3JobJarUris = new ConcurrentHashMap<String, String>();
+        if (jobStepsByJar.size() == 1) {
+            JobStepBuilder jobStep = jobSteps.get(0);
+            s3JobJarUris.put(jobStep.getJobJarKey(), uploadingJobJar(jobStep._jobJar, jobStep._s3jobJarName));
+        } else if (jobStepsByJar.size() > 1) {
+            ExecutorService executorService = Executors.newFixedThreadPool(Math.min(jobStepsByJar.size(), MAX_PARALLEL_JAR_UPLOADS));
+            try {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (final JobStepBuilder jobStep : jobStepsByJar.values()) {
+                    futures.add(executorService.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            s3JobJarUris.put(jobStep.getJobJarKey(), uploadingJobJar(jobStep._jobJar, jobStep._s3jobJarName));
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                throw ExceptionUtil.convertToRuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                throw new InterruptedRuntimeException(e);
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+        for (JobStepBuilder jobStep : jobSteps) {
+            jobStep._stepConfig.getHadoopJarStep().setJar(s3JobJarUris.get(jobStep.getJobJarKey()));
+        }
+    }
+
+    private synchronized AmazonS3 getS3Service() {
+        if (_s3Service == null) {
+            _s3Service = AwsRateLimiters.rateLimited(new AmazonS3Client(new BasicAWSCredentials(getSettings().getAccessKey(), _accessSecret)));
+        }
+        return _s3Service;
+    }
+
+    /**
+     * Uploads the job jar unless a jar with the same content hash already exists under the s3 path.
+     * Verified uploads are remembered, so repeated submits of an unchanged jar cost no s3 request.
+     */
+    private String uploadingJobJar(File jobJar, String s3JobJarName) {
+        String s3JobJarPath = new File(getSettings().getS3JobJarBasePath(), s3JobJarName).getPath();
+        String s3Bucket = getSettings().getS3Bucket();
+        String s3JobJarUri = "s3n://" + getSettings().getAccessKey() + "@" + s3Bucket + s3JobJarPath;
+        String contentHash = hashJobJar(jobJar);
+        String verifiedJobJarKey = s3Bucket + s3JobJarPath;
+        if (contentHash.equals(_verifiedJobJars.get(verifiedJobJarKey))) {
+            LOG.info("using cached job-jar: " + s3JobJarPath);
+            return s3JobJarUri;
+        }
+
+        AmazonS3 s3Service = getS3Service();
+        _uploadLock.lock(verifiedJobJarKey);
+        try {
+            if (!_existingBuckets.contains(s3Bucket)) {
+                if (!s3Service.doesBucketExist(s3Bucket)) {
+                    throw new IllegalStateException("s3 bucket '" + s3Bucket + "' does not exists");
+                }
+                _existingBuckets.add(s3Bucket);
+            }
+            ObjectMetadata metadata = S3Util.getObjectMetadata(s3Service, s3Bucket, s3JobJarPath);
+            if (metadata != null && contentHash.equals(metadata.getUserMetaDataOf(CONTENT_HASH_METADATA))) {
+                LOG.info("using cached job-jar: " + s3JobJarPath);
+            } else {
+                LOG.info("uploading " + jobJar + " to " + s3JobJarPath + (metadata != null ? " (replacing changed jar)" : ""));
+                S3Util.uploadFile(s3Service, s3Bucket, jobJar, s3JobJarPath, Collections.singletonMap(CONTENT_HASH_METADATA, contentHash));
+            }
+            _verifiedJobJars.put(verifiedJobJarKey, contentHash);
+            return s3JobJarUri;
+        } finally {
+            _uploadLock.unlock(verifiedJobJarKey);
+        }
+    }
+
+    private static String hashJobJar(final File jobJar) {
+        String key = jobJar.getAbsolutePath() + ":" + jobJar.lastModified() + ":" + jobJar.length();
+        try {
+            return JOB_JAR_HASH_CACHE.get(key, new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return Files.hash(jobJar, Hashing.sha1()).toString();
+                }
+            });
+        } catch (ExecutionException e) {
+            throw ExceptionUtil.convertToRuntimeException(e.getCause());
+        }
+    }
+
     public class JobStepBuilder {
 
         private final StepConfig _stepConfig = new StepConfig().withHadoopJarStep(new HadoopJarStepConfig());
@@ -591,36 +1036,15 @@ public class EmrCluster {
         }
 
         public StepFuture submit() {
-            checkConnection(true);
-            String s3JobJarUri = uploadingJobJar(_jobJar, _s3jobJarName);
-            _stepConfig.getHadoopJarStep().setJar(s3JobJarUri);
-            _emrWebService.addJobFlowSteps(new AddJobFlowStepsRequest().withJobFlowId(_jobFlowId).withSteps(_stepConfig));
-            _emrWebService.clearDescribeJobFlowCache();
-            return new StepFuture(_stepConfig.getName(), getStepIndex(getJobFlowDetail(_jobFlowId), _stepConfig.getName()));
+            return submitJobSteps(Collections.singletonList(this)).get(0);
         }
 
-        private String uploadingJobJar(File jobJar, String s3JobJarName) {
-            if (_s3Service == null) {
-                _s3Service = new AmazonS3Client(new BasicAWSCredentials(getSettings().getAccessKey(), _accessSecret));
-            }
+        String getName() {
+            return _stepConfig.getName();
+        }
 
-            _uploadLock.lock(jobJar.getAbsolutePath());
-            try {
-                String s3JobJarPath = new File(getSettings().getS3JobJarBasePath(), s3JobJarName).getPath();
-                String s3Bucket = getSettings().getS3Bucket();
-                if (!_s3Service.doesBucketExist(s3Bucket)) {
-                    throw new IllegalStateException("s3 bucket '" + s3Bucket + "' does not exists");
-                }
-                if (!S3Util.existsFile(_s3Service, s3Bucket, s3JobJarPath)) {
-                    LOG.info("uploading " + jobJar + " to " + s3JobJarPath);
-                    S3Util.uploadFile(_s3Service, s3Bucket, jobJar, s3JobJarPath);
-                } else {
-                    LOG.info("using cached job-jar: " + s3JobJarPath);
-                }
-                return "s3n://" + getSettings().getAccessKey() + "@" + s3Bucket + s3JobJarPath;
-            } finally {
-                _uploadLock.unlock(jobJar.getAbsolutePath());
-            }
+        private String getJobJarKey() {
+            return _jobJar.getAbsolutePath() + " -> " + _s3jobJarName;
         }
 
     }
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.emr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+
+import awstasks.com.amazonaws.services.elasticmapreduce.AmazonElasticMapReduce;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeJobFlowsRequest;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.JobFlowDetail;
+import datameer.com.google.common.collect.MapMaker;
+import datameer.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Polls the state of all watched job flows with one describe request per tick and notifies the
+ * registered listeners. Polling stops as long as nothing is watched. The poll interval is the
+ * smallest one {@link #requestPollInterval(Object, long) requested} by the users of the poller. A failed describe request is
+ * repeated on the next tick; a watch fails only after {@link #setMaxFailedPolls(int) several}
+ * failed polls in a row.
+ */
+public class JobFlowPoller {
+
+    protected static final Logger LOG = Logger.getLogger(JobFlowPoller.class);
+    public static final int DEFAULT_MAX_FAILED_POLLS = 5;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("emr-poller-%d").build());
+
+    private final AmazonElasticMapReduce _emrService;
+    private final List<Watch> _watches = new CopyOnWriteArrayList<Watch>();
+    private final long _defaultPollInterval;
+    private final Map<Object, Long> _requestedPollIntervals = new MapMaker().weakKeys().makeMap();
+    private volatile long _pollInterval;
+    private volatile int _maxFailedPolls = DEFAULT_MAX_FAILED_POLLS;
+    private ScheduledFuture<?> _scheduledPoll;
+
+    /**
+     * @param defaultPollInterval
+     *            the poll interval as long as no user requested one
+     */
+    public JobFlowPoller(AmazonElasticMapReduce emrService, long defaultPollInterval) {
+        _emrService = emrService;
+        _defaultPollInterval = defaultPollInterval;
+        _pollInterval = defaultPollInterval;
+    }
+
+    public AmazonElasticMapReduce getEmrService() {
+        return _emrService;
+    }
+
+    /**
+     * Requests the given poll interval for the given user (held weakly). The poller polls with the
+     * smallest requested interval.
+     */
+    public synchronized void requestPollInterval(Object requester, long pollInterval) {
+        _requestedPollIntervals.put(requester, pollInterval);
+        updatePollInterval();
+    }
+
+    public synchronized void removePollIntervalRequest(Object requester) {
+        _requestedPollIntervals.remove(requester);
+        updatePollInterval();
+    }
+
+    private void updatePollInterval() {
+        long pollInterval = Long.MAX_VALUE;
+        for (Long requestedPollInterval : _requestedPollIntervals.values()) {
+            pollInterval = Math.min(pollInterval, requestedPollInterval);
+        }
+        _pollInterval = pollInterval == Long.MAX_VALUE ? _defaultPollInterval : pollInterval;
+        if (_emrService instanceof AmazonElasticMapReduceCustomClient) {
+            ((AmazonElasticMapReduceCustomClient) _emrService).setRequestInterval(_pollInterval);
+        }
+    }
+
+    public long getPollInterval() {
+        return _pollInterval;
+    }
+
+    /**
+     * Sets the number of polls in a row a watch tolerates to fail before it fails itself.
+     */
+    public void setMaxFailedPolls(int maxFailedPolls) {
+        _maxFailedPolls = maxFailedPolls;
+    }
+
+    public int getMaxFailedPolls() {
+        return _maxFailedPolls;
+    }
+
+    /**
+     * Notifies the listener about every polled state of the job flow until it reports to be done.
+     * The returned future completes then, or fails with the exception thrown by the listener or the
+     * polling. Cancelling the future stops watching.
+     */
+    public CompletableFuture<Void> watch(String jobFlowId, JobFlowListener listener) {
+        final Watch watch = new Watch(jobFlowId, listener);
+        watch._future.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable throwable) {
+                _watches.remove(watch);
+            }
+        });
+        _watches.add(watch);
+        schedulePoll();
+        return watch._future;
+    }
+
+    public Set<String> getWatchedJobFlowIds() {
+        Set<String> jobFlowIds = new LinkedHashSet<String>();
+        for (Watch watch : _watches) {
+            jobFlowIds.add(watch._jobFlowId);
+        }
+        return jobFlowIds;
+    }
+
+    private synchronized void schedulePoll() {
+        if (_scheduledPoll == null && !_watches.isEmpty()) {
+            _scheduledPoll = SCHEDULER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            }, _pollInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void poll() {
+        try {
+            List<Watch> watches = new ArrayList<Watch>(_watches);
+            if (!watches.isEmpty()) {
+                notifyWatches(watches);
+            }
+        } finally {
+            synchronized (this) {
+                _scheduledPoll = null;
+                schedulePoll();
+            }
+        }
+    }
+
+    private void notifyWatches(List<Watch> watches) {
+        Set<String> jobFlowIds = new LinkedHashSet<String>();
+        for (Watch watch : watches) {
+            jobFlowIds.add(watch._jobFlowId);
+        }
+        Map<String, JobFlowDetail> jobFlowDetails = new HashMap<String, JobFlowDetail>();
+        try {
+            for (JobFlowDetail jobFlowDetail : _emrService.describeJobFlows(new DescribeJobFlowsRequest().withJobFlowIds(jobFlowIds)).getJobFlows()) {
+                jobFlowDetails.put(jobFlowDetail.getJobFlowId(), jobFlowDetail);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("failed to describe job flows " + jobFlowIds + ", retrying with the next poll", e);
+            for (Watch watch : watches) {
+                if (++watch._failedPolls >= _maxFailedPolls) {
+                    watch._future.completeExceptionally(e);
+                }
+            }
+            return;
+        }
+        for (Watch watch : watches) {
+            watch._failedPolls = 0;
+            JobFlowDetail jobFlowDetail = jobFlowDetails.get(watch._jobFlowId);
+            if (jobFlowDetail == null) {
+                watch._future.completeExceptionally(new IllegalArgumentException("No job flow with id '" + watch._jobFlowId + "' found"));
+                continue;
+            }
+            try {
+                if (watch._listener.jobFlowUpdated(jobFlowDetail)) {
+                    watch._future.complete(null);
+                }
+            } catch (Exception e) {
+                watch._future.completeExceptionally(e);
+            }
+        }
+    }
+
+    public static interface JobFlowListener {
+
+        /**
+         * @return true if the listener is done and the job flow doesn't need to be watched any longer
+         */
+        boolean jobFlowUpdated(JobFlowDetail jobFlowDetail) throws Exception;
+    }
+
+    private static class Watch {
+
+        private final String _jobFlowId;
+        private final JobFlowListener _listener;
+        private final CompletableFuture<Void> _future = new CompletableFuture<Void>();
+        private int _failedPolls;
+
+        public Watch(String jobFlowId, JobFlowListener listener) {
+            _jobFlowId = jobFlowId;
+            _listener = listener;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.emr;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import awstasks.com.amazonaws.services.elasticmapreduce.model.JobFlowDetail;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.StepDetail;
+
+/**
+ * Looks up the steps of a job flow by name or id in constant time. Since steps are only appended
+ * to a job flow, each update only indexes the steps added since the last one.
+ */
+class StepIndex {
+
+    private final Map<String, Integer> _indexByName = new HashMap<String, Integer>();
+    private final Map<String, Integer> _indexById = new HashMap<String, Integer>();
+    private String _jobFlowId;
+    private int _indexedStepCount;
+
+    public synchronized void update(JobFlowDetail jobFlowDetail) {
+        List<StepDetail> steps = jobFlowDetail.getSteps();
+        switchJobFlow(jobFlowDetail.getJobFlowId());
+        if (steps.size() < _indexedStepCount) {
+            clear();
+            _jobFlowId = jobFlowDetail.getJobFlowId();
+        }
+        for (int i = _indexedStepCount; i < steps.size(); i++) {
+            String stepName = steps.get(i).getStepConfig().getName();
+            if (!_indexByName.containsKey(stepName)) {
+                _indexByName.put(stepName, i + 1);// starting from 1
+            }
+        }
+        _indexedStepCount = steps.size();
+    }
+
+    public synchronized void putStepId(String jobFlowId, String stepId, int stepIndex) {
+        switchJobFlow(jobFlowId);
+        _indexById.put(stepId, stepIndex);
+    }
+
+    private void switchJobFlow(String jobFlowId) {
+        if (!jobFlowId.equals(_jobFlowId)) {
+            clear();
+            _jobFlowId = jobFlowId;
+        }
+    }
+
+    /**
+     * @return the index of the first step with the given name or 0 if not indexed
+     */
+    public synchronized int getStepIndex(String jobFlowId, String stepName) {
+        Integer stepIndex = jobFlowId.equals(_jobFlowId) ? _indexByName.get(stepName) : null;
+        return stepIndex != null ? stepIndex : 0;
+    }
+
+    /**
+     * @return the index of the step with the given id or 0 if not indexed
+     */
+    public synchronized int getStepIndexById(String jobFlowId, String stepId) {
+        Integer stepIndex = jobFlowId.equals(_jobFlowId) ? _indexById.get(stepId) : null;
+        return stepIndex != null ? stepIndex : 0;
+    }
+
+    public synchronized void clear() {
+        _indexByName.clear();
+        _indexById.clear();
+        _jobFlowId = null;
+        _indexedStepCount = 0;
+    }
+}
@@ -17,7 +17,7 @@ package datameer.awstasks.aws.emr;
 
 public enum StepState {
 
-    PENDING(false), RUNNING(false), COMPLETED(true), CANCELLED(true), FAILED(true), INTERRUPTED(true);
+    PENDING(false), CANCEL_PENDING(false), RUNNING(false), COMPLETED(true), CANCELLED(true), FAILED(true), INTERRUPTED(true);
 
     private final boolean _finished;
 
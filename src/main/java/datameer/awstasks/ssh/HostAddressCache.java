@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.ssh;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import datameer.awstasks.util.ExceptionUtil;
+import datameer.com.google.common.cache.Cache;
+import datameer.com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the resolved addresses of hostnames for a limited time, so repeated connections to the
+ * same host don't resolve the hostname again and again.
+ */
+public class HostAddressCache {
+
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(1);
+    public static final int DEFAULT_MAX_HOSTS = 1000;
+
+    private static final HostAddressCache SHARED_INSTANCE = new HostAddressCache(DEFAULT_TTL);
+
+    private final Cache<String, InetAddress[]> _addressesByHost;
+    private final long _ttl;
+
+    public HostAddressCache(long ttl) {
+        this(ttl, DEFAULT_MAX_HOSTS);
+    }
+
+    public HostAddressCache(long ttl, int maxHosts) {
+        _ttl = ttl;
+        _addressesByHost = CacheBuilder.newBuilder().maximumSize(maxHosts).expireAfterWrite(ttl, TimeUnit.MILLISECONDS).build();
+    }
+
+    public static HostAddressCache getSharedInstance() {
+        return SHARED_INSTANCE;
+    }
+
+    public long getTtl() {
+        return _ttl;
+    }
+
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        try {
+            return _addressesByHost.get(host, new Callable<InetAddress[]>() {
+                @Override
+                public InetAddress[] call() throws Exception {
+                    return lookup(host);
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnknownHostException) {
+                throw (UnknownHostException) e.getCause();
+            }
+            throw ExceptionUtil.convertToRuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Removes the addresses of the given host, f.e. after a failed connect since the host might have
+     * got a new address.
+     */
+    public void invalidate(String host) {
+        _addressesByHost.invalidate(host);
+    }
+
+    public void clear() {
+        _addressesByHost.invalidateAll();
+    }
+
+    protected InetAddress[] lookup(String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+}
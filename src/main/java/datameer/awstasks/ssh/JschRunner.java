@@ -19,15 +19,27 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 import org.apache.log4j.Logger;
 
@@ -37,20 +49,28 @@ import awstasks.com.jcraft.jsch.Identity;
 import awstasks.com.jcraft.jsch.IdentityKeyString;
 import awstasks.com.jcraft.jsch.JSch;
 import awstasks.com.jcraft.jsch.JSchException;
+import awstasks.com.jcraft.jsch.KnownHostsCache;
 import awstasks.com.jcraft.jsch.Proxy;
 import awstasks.com.jcraft.jsch.Session;
+import awstasks.com.jcraft.jsch.SharedIdentity;
 import awstasks.com.jcraft.jsch.SocketFactory;
 import awstasks.com.jcraft.jsch.UIKeyboardInteractive;
 import awstasks.com.jcraft.jsch.UserInfo;
 import datameer.awstasks.exec.ExecOutputHandler;
 import datameer.awstasks.exec.ShellCommand;
 import datameer.awstasks.exec.ShellExecutor;
+import datameer.awstasks.util.BackoffPolicies;
+import datameer.awstasks.util.BackoffPolicy;
 import datameer.awstasks.util.ExceptionUtil;
+import datameer.awstasks.util.IoUtil;
 import datameer.awstasks.util.Retry;
 import datameer.com.google.common.base.Preconditions;
 import datameer.com.google.common.base.Throwables;
+import datameer.com.google.common.cache.Cache;
+import datameer.com.google.common.cache.CacheBuilder;
 import datameer.com.google.common.hash.Hashing;
 import datameer.com.google.common.io.Files;
+import datameer.com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class JschRunner extends ShellExecutor {
 
@@ -59,6 +79,23 @@ public class JschRunner extends ShellExecutor {
     protected static final Logger LOG = Logger.getLogger(JschRunner.class);
 
     private static final boolean DEFAULT_SESSION_CACHING_ENABLED = false;
+    private static final long INITIAL_CONNECT_RETRY_WAIT_TIME = 1000;
+    private static final long MAX_CONNECT_RETRY_WAIT_TIME = TimeUnit.SECONDS.toMillis(16);
+    private static final BackoffPolicy CONNECTION_RETRY_BACKOFF = BackoffPolicies.exponentialWithJitter(2500, 10000);
+    private static final int MAX_PARALLEL_CONNECTS = 20;
+    private static final ExecutorService CONNECT_EXECUTOR = Executors.newFixedThreadPool(MAX_PARALLEL_CONNECTS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ssh-connect-%d")
+            .build());
+    private static final int BANNER_READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Parsed identities by credential hash, shared by all runners.
+     */
+    private static final Cache<String, Identity> IDENTITY_CACHE = CacheBuilder.newBuilder().maximumSize(100).build();
+
+    /**
+     * Key file hashes by path, modification time and size of the key file.
+     */
+    private static final Cache<String, String> KEY_FILE_HASH_CACHE = CacheBuilder.newBuilder().maximumSize(100).build();
 
     private final String _user;
     private final String _host;
@@ -69,6 +106,8 @@ public class JschRunner extends ShellExecutor {
     private String _knownHosts = System.getProperty("user.home") + "/.ssh/known_hosts";
     private boolean _trust;
     protected int _connectTimeout = (int) TimeUnit.SECONDS.toMillis(80);
+    private long _connectDelay = RacingSocketConnector.DEFAULT_CONNECT_DELAY;
+    private final List<String> _alternativeHosts = new ArrayList<String>();
     private int _timeout = 0;
     private boolean _debug;
     private boolean _enableConnectionRetries;
@@ -77,6 +116,7 @@ public class JschRunner extends ShellExecutor {
     private Properties _config = new Properties();
     private Proxy _proxy = null;
     private CachedSession _cachedSession = null;
+    private Session _connectedSession = null;
     private boolean _sessionCachingEnabled;
 
     public JschRunner(String user, String host) {
@@ -99,10 +139,20 @@ public class JschRunner extends ShellExecutor {
             throwAuthenticationAlreadySetException();
         }
         _keyFile = keyfile;
+        _credentialHash = hashKeyFile(keyfile);
+    }
+
+    private static String hashKeyFile(final File keyfile) {
+        String cacheKey = keyfile.getAbsolutePath() + ":" + keyfile.lastModified() + ":" + keyfile.length();
         try {
-            _credentialHash = Files.hash(keyfile, Hashing.md5()).toString();
+            return KEY_FILE_HASH_CACHE.get(cacheKey, new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return Files.hash(keyfile, Hashing.md5()).toString();
+                }
+            });
         } catch (Exception e) {
-            throw Throwables.propagate(e);
+            throw Throwables.propagate(e.getCause() != null ? e.getCause() : e);
         }
     }
 
@@ -161,6 +211,34 @@ public class JschRunner extends ShellExecutor {
         return _connectTimeout;
     }
 
+    /**
+     * Sets the delay after which the next candidate address is tried while the connect to the
+     * previous address is still pending.
+     */
+    public void setConnectDelay(long connectDelay) {
+        _connectDelay = connectDelay;
+    }
+
+    public long getConnectDelay() {
+        return _connectDelay;
+    }
+
+    /**
+     * Adds another name of the host (f.e. the private or public dns name of an ec2 instance). The
+     * connect races all addresses of the host and the alternative hosts and uses the first
+     * reachable.
+     */
+    public void addAlternativeHost(String alternativeHost) {
+        Preconditions.checkState(!isConnected(_cachedSession), CHANGE_ON_ALREADY_RUNNING_SESSION_ERROR_MESSAGE);
+        if (alternativeHost != null && !alternativeHost.isEmpty() && !alternativeHost.equals(_host) && !_alternativeHosts.contains(alternativeHost)) {
+            _alternativeHosts.add(alternativeHost);
+        }
+    }
+
+    public List<String> getAlternativeHosts() {
+        return _alternativeHosts;
+    }
+
     public void setTimeout(int timeout) {
         Preconditions.checkState(!isConnected(_cachedSession), CHANGE_ON_ALREADY_RUNNING_SESSION_ERROR_MESSAGE);
         _timeout = timeout;
@@ -259,31 +337,155 @@ public class JschRunner extends ShellExecutor {
     }
 
     public void testConnect(long maxWaitTime) throws IOException {
-        boolean succeed = false;
+        connect(maxWaitTime).disconnect();
+    }
+
+    /**
+     * Waits until a ssh session can be established and returns it (without disconnecting it).
+     * Before each full connect a cheap check for the ssh banner is done. Failed attempts are
+     * retried with an exponential growing wait time.
+     */
+    public Session connect(long maxWaitTime) throws IOException {
         long startTime = System.currentTimeMillis();
+        BackoffPolicy backoffPolicy = BackoffPolicies.exponential(INITIAL_CONNECT_RETRY_WAIT_TIME, MAX_CONNECT_RETRY_WAIT_TIME);
+        long waitTime = 0;
+        int failedTries = 0;
         do {
             try {
-                testConnect();
-                succeed = true;
+                return tryConnect();
             } catch (IOException e) {
                 LOG.warn("Failed to connect with " + targetUrl() + " :" + e.getMessage());
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e1) {
-                    Thread.interrupted();
+            }
+            long remainingTime = maxWaitTime - (System.currentTimeMillis() - startTime);
+            if (remainingTime <= 0) {
+                break;
+            }
+            waitTime = backoffPolicy.getWaitTime(++failedTries, waitTime);
+            try {
+                Thread.sleep(Math.min(waitTime, remainingTime));
+            } catch (InterruptedException e1) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        } while ((System.currentTimeMillis() - startTime) < maxWaitTime);
+        throw new IOException("Failed to establish ssh connection to " + targetUrl());
+    }
+
+    /**
+     * Like {@link #connect(long)} but without blocking the calling thread. The connect attempts of
+     * all runners share a small pool of threads, waiting between the attempts occupies no thread.
+     * Cancelling the returned future stops further attempts.
+     */
+    public CompletableFuture<Session> connectAsync(long maxWaitTime) {
+        Retry retry = Retry.onExceptions(IOException.class).withMaxRetries(Integer.MAX_VALUE).withRetryBudget(null)
+                .withBackoff(BackoffPolicies.exponential(INITIAL_CONNECT_RETRY_WAIT_TIME, MAX_CONNECT_RETRY_WAIT_TIME)).withTimeout(maxWaitTime, TimeUnit.MILLISECONDS);
+        final CompletableFuture<Session> result = new CompletableFuture<Session>();
+        final CompletableFuture<Session> retryResult = retry.executeAsync(new Supplier<CompletableFuture<Session>>() {
+            @Override
+            public CompletableFuture<Session> get() {
+                CompletableFuture<Session> attempt = CompletableFuture.supplyAsync(new Supplier<Session>() {
+                    @Override
+                    public Session get() {
+                        try {
+                            return tryConnect();
+                        } catch (IOException e) {
+                            LOG.warn("Failed to connect with " + targetUrl() + " :" + e.getMessage());
+                            throw new CompletionException(e);
+                        }
+                    }
+                }, CONNECT_EXECUTOR);
+                attempt.whenComplete(new BiConsumer<Session, Throwable>() {
+                    @Override
+                    public void accept(final Session session, Throwable throwable) {
+                        if (session == null) {
+                            return;
+                        }
+                        result.whenComplete(new BiConsumer<Session, Throwable>() {
+                            @Override
+                            public void accept(Session resultSession, Throwable resultThrowable) {
+                                if (resultSession != session) {
+                                    // timed out or cancelled meanwhile
+                                    session.disconnect();
+                                }
+                            }
+                        });
+                    }
+                });
+                return attempt;
+            }
+        });
+        retryResult.whenComplete(new BiConsumer<Session, Throwable>() {
+            @Override
+            public void accept(Session session, Throwable throwable) {
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(session);
                 }
             }
-        } while (!succeed && (System.currentTimeMillis() - startTime) < maxWaitTime);
-        if (!succeed) {
-            throw new IOException("Failed to establish ssh connection to " + targetUrl());
+        });
+        result.whenComplete(new BiConsumer<Session, Throwable>() {
+            @Override
+            public void accept(Session session, Throwable throwable) {
+                retryResult.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    private Session tryConnect() throws IOException {
+        if (_proxy == null && !isSshBannerAvailable()) {
+            throw new IOException("No ssh banner received from " + targetUrl());
+        }
+        try {
+            return openSession();
+        } catch (JSchException e) {
+            throw new IOException(e);
         }
     }
 
+    /**
+     * Checks if the ssh server sends its identification banner without authenticating.
+     */
+    public boolean isSshBannerAvailable() {
+        Socket socket = null;
+        try {
+            socket = new SocketFactoryWithConnectTimeout().createSocket(_host, _port);
+            socket.setSoTimeout(BANNER_READ_TIMEOUT);
+            InputStream inputStream = socket.getInputStream();
+            StringBuilder line = new StringBuilder();
+            int read;
+            while ((read = inputStream.read()) != -1 && read != '\n' && line.length() < 255) {
+                line.append((char) read);
+            }
+            return line.toString().startsWith("SSH-");
+        } catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed to read ssh banner from " + _host + ":" + _port + " :" + e.getMessage());
+            }
+            return false;
+        } finally {
+            IoUtil.closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Lets the next command use the given already connected session instead of creating a new one.
+     */
+    public void setConnectedSession(Session session) {
+        _connectedSession = session;
+    }
+
     public boolean isSessionCacheEnabled() {
         return _sessionCachingEnabled;
     }
 
     public Session openSession() throws JSchException {
+        Session connectedSession = _connectedSession;
+        _connectedSession = null;
+        if (connectedSession != null && connectedSession.isConnected()) {
+            return connectedSession;
+        }
         if (isSessionCacheEnabled()) {
             if (null == _cachedSession || !isConnected(_cachedSession)) {
                 _cachedSession = (CachedSession) createFreshSession(true);
@@ -320,19 +522,15 @@ public class JschRunner extends ShellExecutor {
         if (isDebug()) {
             JSch.setLogger(DEBUG_LOGGER);
         }
-        if (_keyFile != null) {
-            jsch.addIdentity(_keyFile.getAbsolutePath());
-        }
-        if (_keyFileContent != null) {
-            Identity identity = IdentityKeyString.newInstance(_keyFileContent, jsch);
-            jsch.addIdentity(identity, null);
+        if (_keyFile != null || _keyFileContent != null) {
+            jsch.addIdentity(getIdentity(jsch), null);
         }
 
         if (!_trust && _knownHosts != null && new File(_knownHosts).exists()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Using known hosts: " + _knownHosts);
             }
-            jsch.setKnownHosts(_knownHosts);
+            jsch.setHostKeyRepository(KnownHostsCache.getKnownHosts(_knownHosts, jsch));
         }
 
         final Session session;
@@ -354,7 +552,7 @@ public class JschRunner extends ShellExecutor {
         }
         if (_enableConnectionRetries) {
             // experimental
-            Retry retry = Retry.onExceptions(NoRouteToHostException.class).withMaxRetries(3).withWaitTime(2500);
+            Retry retry = Retry.onExceptions(NoRouteToHostException.class).withMaxRetries(3).withBackoff(CONNECTION_RETRY_BACKOFF);
             retry.execute(new Runnable() {
                 @Override
                 public void run() {
@@ -373,6 +571,23 @@ public class JschRunner extends ShellExecutor {
         return session;
     }
 
+    private Identity getIdentity(final JSch jsch) throws JSchException {
+        try {
+            return IDENTITY_CACHE.get(_credentialHash, new Callable<Identity>() {
+                @Override
+                public Identity call() throws Exception {
+                    if (_keyFile != null) {
+                        return new SharedIdentity(IdentityKeyString.newFileInstance(_keyFile.getAbsolutePath(), jsch));
+                    }
+                    return new SharedIdentity(IdentityKeyString.newInstance(_keyFileContent, jsch));
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), JSchException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
     class SocketFactoryWithConnectTimeout implements SocketFactory {
 
         @Override
@@ -387,10 +602,38 @@ public class JschRunner extends ShellExecutor {
 
         @Override
         public Socket createSocket(String host, int port) throws IOException, UnknownHostException {
-            Socket socket = new Socket();
-            socket.bind(null);
-            socket.connect(new InetSocketAddress(host, port), _connectTimeout);
-            return socket;
+            List<String> hosts = new ArrayList<String>();
+            hosts.add(host);
+            hosts.addAll(_alternativeHosts);
+            List<InetSocketAddress> candidates = new ArrayList<InetSocketAddress>();
+            for (InetAddress address : RacingSocketConnector.interleaveAddressFamilies(resolve(hosts))) {
+                candidates.add(new InetSocketAddress(address, port));
+            }
+            try {
+                return new RacingSocketConnector(_connectTimeout, _connectDelay).connect(candidates);
+            } catch (IOException e) {
+                for (String candidateHost : hosts) {
+                    HostAddressCache.getSharedInstance().invalidate(candidateHost);
+                }
+                throw e;
+            }
+        }
+
+        private List<InetAddress> resolve(List<String> hosts) throws UnknownHostException {
+            Set<InetAddress> addresses = new LinkedHashSet<InetAddress>();
+            UnknownHostException unknownHostException = null;
+            for (String host : hosts) {
+                try {
+                    addresses.addAll(Arrays.asList(HostAddressCache.getSharedInstance().resolve(host)));
+                } catch (UnknownHostException e) {
+                    LOG.debug("could not resolve " + host + ": " + e.getMessage());
+                    unknownHostException = e;
+                }
+            }
+            if (addresses.isEmpty()) {
+                throw unknownHostException;
+            }
+            return new ArrayList<InetAddress>(addresses);
         }
 
     }
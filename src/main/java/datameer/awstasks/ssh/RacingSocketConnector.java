@@ -0,0 +1,212 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.ssh;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import datameer.awstasks.util.IoUtil;
+import datameer.com.google.common.base.Preconditions;
+import datameer.com.google.common.base.Throwables;
+import datameer.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Connects to the first reachable of multiple candidate addresses of a host (happy eyeballs). The
+ * connect attempts are started one after another with a small delay, without waiting for a
+ * previous attempt to time out. The first established connection wins, all other attempts are
+ * aborted.
+ */
+public class RacingSocketConnector {
+
+    private static final Logger LOG = Logger.getLogger(RacingSocketConnector.class);
+
+    public static final long DEFAULT_CONNECT_DELAY = 250;
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("socket-connector-%d").build());
+
+    private final int _connectTimeout;
+    private final long _connectDelay;
+
+    public RacingSocketConnector(int connectTimeout, long connectDelay) {
+        Preconditions.checkArgument(connectDelay >= 0, "connectDelay must not be negative");
+        _connectTimeout = connectTimeout;
+        _connectDelay = connectDelay;
+    }
+
+    public int getConnectTimeout() {
+        return _connectTimeout;
+    }
+
+    public long getConnectDelay() {
+        return _connectDelay;
+    }
+
+    public Socket connect(List<InetSocketAddress> candidates) throws IOException {
+        Preconditions.checkArgument(!candidates.isEmpty(), "no candidate addresses given");
+        if (candidates.size() == 1) {
+            return connect(candidates.get(0), null);
+        }
+
+        ConnectAttempts attempts = new ConnectAttempts();
+        CompletionService<Socket> completionService = new ExecutorCompletionService<Socket>(EXECUTOR);
+        Iterator<InetSocketAddress> candidateIterator = candidates.iterator();
+        submitConnect(completionService, candidateIterator.next(), attempts);
+        int runningAttempts = 1;
+        IOException lastException = null;
+        try {
+            while (runningAttempts > 0) {
+                Future<Socket> future;
+                if (candidateIterator.hasNext()) {
+                    future = completionService.poll(_connectDelay, TimeUnit.MILLISECONDS);
+                    if (future == null) {
+                        submitConnect(completionService, candidateIterator.next(), attempts);
+                        runningAttempts++;
+                        continue;
+                    }
+                } else {
+                    future = completionService.take();
+                }
+                runningAttempts--;
+                try {
+                    Socket socket = future.get();
+                    attempts.finish(socket);
+                    return socket;
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof IOException)) {
+                        throw Throwables.propagate(e.getCause());
+                    }
+                    lastException = (IOException) e.getCause();
+                    if (candidateIterator.hasNext()) {
+                        // don't wait for the delay if an attempt failed fast
+                        submitConnect(completionService, candidateIterator.next(), attempts);
+                        runningAttempts++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while connecting to " + candidates, e);
+        } finally {
+            attempts.finish(null);
+        }
+        throw lastException;
+    }
+
+    private void submitConnect(CompletionService<Socket> completionService, final InetSocketAddress address, final ConnectAttempts attempts) {
+        completionService.submit(new Callable<Socket>() {
+            @Override
+            public Socket call() throws Exception {
+                return connect(address, attempts);
+            }
+        });
+    }
+
+    private Socket connect(InetSocketAddress address, ConnectAttempts attempts) throws IOException {
+        Socket socket = new Socket();
+        if (attempts != null && !attempts.register(socket)) {
+            throw new IOException("connect to " + address + " not needed anymore");
+        }
+        try {
+            socket.bind(null);
+            socket.connect(address, _connectTimeout);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("connected to " + address);
+            }
+        } catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("failed to connect to " + address + ": " + e.getMessage());
+            }
+            IoUtil.closeQuietly(socket);
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Orders the addresses so that ipv6 and ipv4 addresses alternate, keeping the relative order
+     * within each address family.
+     */
+    public static List<InetAddress> interleaveAddressFamilies(List<InetAddress> addresses) {
+        List<InetAddress> ipv6Addresses = new ArrayList<InetAddress>();
+        List<InetAddress> ipv4Addresses = new ArrayList<InetAddress>();
+        for (InetAddress address : addresses) {
+            if (address instanceof Inet6Address) {
+                ipv6Addresses.add(address);
+            } else {
+                ipv4Addresses.add(address);
+            }
+        }
+        if (addresses.isEmpty()) {
+            return addresses;
+        }
+        boolean ipv6First = addresses.get(0) instanceof Inet6Address;
+        List<InetAddress> first = ipv6First ? ipv6Addresses : ipv4Addresses;
+        List<InetAddress> second = ipv6First ? ipv4Addresses : ipv6Addresses;
+        List<InetAddress> interleaved = new ArrayList<InetAddress>(addresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                interleaved.add(first.get(i));
+            }
+            if (i < second.size()) {
+                interleaved.add(second.get(i));
+            }
+        }
+        return interleaved;
+    }
+
+    /**
+     * Keeps track of the sockets of one connect race, so the losing ones can be closed.
+     */
+    private static class ConnectAttempts {
+
+        private final List<Socket> _sockets = new ArrayList<Socket>();
+        private boolean _finished;
+
+        public synchronized boolean register(Socket socket) {
+            if (_finished) {
+                return false;
+            }
+            _sockets.add(socket);
+            return true;
+        }
+
+        public synchronized void finish(Socket winner) {
+            _finished = true;
+            for (Socket socket : _sockets) {
+                if (socket != winner) {
+                    IoUtil.closeQuietly(socket);
+                }
+            }
+            _sockets.clear();
+        }
+    }
+}
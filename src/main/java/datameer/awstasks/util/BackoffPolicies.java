@@ -0,0 +1,143 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import datameer.com.google.common.base.Preconditions;
+
+/**
+ * Factory methods for the standard {@link BackoffPolicy}s.
+ */
+public class BackoffPolicies {
+
+    private BackoffPolicies() {
+    }
+
+    /**
+     * Always waits the same time.
+     */
+    public static BackoffPolicy constant(final long waitTime) {
+        return new BackoffPolicy() {
+            @Override
+            public long getWaitTime(int failedTries, long previousWaitTime) {
+                return waitTime;
+            }
+
+            @Override
+            public String toString() {
+                return "constant(" + waitTime + ")";
+            }
+        };
+    }
+
+    /**
+     * Doubles the wait time with each retry, starting with baseWaitTime, but never waits longer then
+     * maxWaitTime.
+     */
+    public static BackoffPolicy exponential(final long baseWaitTime, final long maxWaitTime) {
+        checkWaitTimes(baseWaitTime, maxWaitTime);
+        return new BackoffPolicy() {
+            @Override
+            public long getWaitTime(int failedTries, long previousWaitTime) {
+                return exponentialWaitTime(baseWaitTime, maxWaitTime, failedTries);
+            }
+
+            @Override
+            public String toString() {
+                return "exponential(" + baseWaitTime + ", " + maxWaitTime + ")";
+            }
+        };
+    }
+
+    /**
+     * Like {@link #exponential(long, long)} but waits a random time between 0 and the exponential
+     * wait time ('full jitter'), so concurrent clients don't retry in lockstep.
+     */
+    public static BackoffPolicy exponentialWithJitter(final long baseWaitTime, final long maxWaitTime) {
+        checkWaitTimes(baseWaitTime, maxWaitTime);
+        return new BackoffPolicy() {
+            @Override
+            public long getWaitTime(int failedTries, long previousWaitTime) {
+                return random(0, exponentialWaitTime(baseWaitTime, maxWaitTime, failedTries));
+            }
+
+            @Override
+            public String toString() {
+                return "exponentialWithJitter(" + baseWaitTime + ", " + maxWaitTime + ")";
+            }
+        };
+    }
+
+    /**
+     * Waits a random time between baseWaitTime and three times the previous wait time ('decorrelated
+     * jitter'), but never longer then maxWaitTime.
+     */
+    public static BackoffPolicy decorrelatedJitter(final long baseWaitTime, final long maxWaitTime) {
+        checkWaitTimes(baseWaitTime, maxWaitTime);
+        return new BackoffPolicy() {
+            @Override
+            public long getWaitTime(int failedTries, long previousWaitTime) {
+                long upperBound = Math.max(baseWaitTime, Math.min(maxWaitTime, previousWaitTime * 3));
+                return random(baseWaitTime, upperBound);
+            }
+
+            @Override
+            public String toString() {
+                return "decorrelatedJitter(" + baseWaitTime + ", " + maxWaitTime + ")";
+            }
+        };
+    }
+
+    /**
+     * Limits the wait times of the given policy to maxWaitTime.
+     */
+    public static BackoffPolicy capped(final BackoffPolicy backoffPolicy, final long maxWaitTime) {
+        return new BackoffPolicy() {
+            @Override
+            public long getWaitTime(int failedTries, long previousWaitTime) {
+                return Math.min(maxWaitTime, backoffPolicy.getWaitTime(failedTries, previousWaitTime));
+            }
+
+            @Override
+            public String toString() {
+                return "capped(" + backoffPolicy + ", " + maxWaitTime + ")";
+            }
+        };
+    }
+
+    private static long exponentialWaitTime(long baseWaitTime, long maxWaitTime, int failedTries) {
+        int shift = Math.min(Math.max(failedTries - 1, 0), 62);
+        long waitTime = baseWaitTime << shift;
+        if (waitTime < 0 || waitTime >> shift != baseWaitTime) {
+            // overflow
+            return maxWaitTime;
+        }
+        return Math.min(waitTime, maxWaitTime);
+    }
+
+    private static long random(long from, long to) {
+        if (to <= from) {
+            return from;
+        }
+        return ThreadLocalRandom.current().nextLong(from, to + 1);
+    }
+
+    private static void checkWaitTimes(long baseWaitTime, long maxWaitTime) {
+        Preconditions.checkArgument(baseWaitTime >= 0, "baseWaitTime must not be negative");
+        Preconditions.checkArgument(maxWaitTime >= baseWaitTime, "maxWaitTime must not be smaller then baseWaitTime");
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+/**
+ * Decides how long to wait before the next retry of a failed operation. See {@link BackoffPolicies}
+ * for the standard policies.
+ */
+public interface BackoffPolicy {
+
+    /**
+     * @param failedTries
+     *            the number of failed tries so far (starting with 1)
+     * @param previousWaitTime
+     *            the wait time returned for the previous retry, 0 for the first retry
+     * @return the time in milliseconds to wait before the next try
+     */
+    long getWaitTime(int failedTries, long previousWaitTime);
+
+}
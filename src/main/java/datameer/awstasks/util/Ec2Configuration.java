@@ -36,6 +36,7 @@ import awstasks.com.amazonaws.services.s3.AmazonS3;
 import awstasks.com.amazonaws.services.s3.AmazonS3Client;
 
 
+import datameer.awstasks.aws.concurrent.AwsRateLimiters;
 import datameer.awstasks.aws.ec2.InstanceGroup;
 import datameer.awstasks.aws.ec2.InstanceGroupImpl;
 import datameer.awstasks.aws.emr.EmrCluster;
@@ -170,7 +171,7 @@ public class Ec2Configuration {
     }
 
     public AmazonEC2 createEc2() {
-        AmazonEC2Client ec2Client = new AmazonEC2Client(new BasicAWSCredentials(_accessKeyId, _accessKeySecret));
+        AmazonEC2Client ec2Client = AwsRateLimiters.rateLimited(new AmazonEC2Client(new BasicAWSCredentials(_accessKeyId, _accessKeySecret)));
         if (_region != null && !_region.trim().isEmpty()) {
             ec2Client.setRegion(Region.getRegion(Regions.valueOf(_region.toUpperCase())));
         }
@@ -178,7 +179,7 @@ public class Ec2Configuration {
     }
 
     public AmazonS3 createS3Service() {
-        return new AmazonS3Client(new BasicAWSCredentials(_accessKeyId, _accessKeySecret));
+        return AwsRateLimiters.rateLimited(new AmazonS3Client(new BasicAWSCredentials(_accessKeyId, _accessKeySecret)));
     }
 
     public EmrSettings createEmrSettings(String name, String s3Bucket, int instanceCount) {
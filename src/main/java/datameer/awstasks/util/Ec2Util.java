@@ -18,17 +18,30 @@ package datameer.awstasks.util;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 import awstasks.com.amazonaws.AmazonServiceException;
 import awstasks.com.amazonaws.services.ec2.AmazonEC2;
+import awstasks.com.amazonaws.services.ec2.model.CreateTagsRequest;
 import awstasks.com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import awstasks.com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import awstasks.com.amazonaws.services.ec2.model.DescribeSecurityGroupsRequest;
 import awstasks.com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
 import awstasks.com.amazonaws.services.ec2.model.Filter;
@@ -38,18 +51,26 @@ import awstasks.com.amazonaws.services.ec2.model.InstanceStateName;
 import awstasks.com.amazonaws.services.ec2.model.IpPermission;
 import awstasks.com.amazonaws.services.ec2.model.Reservation;
 import awstasks.com.amazonaws.services.ec2.model.SecurityGroup;
+import awstasks.com.amazonaws.services.ec2.model.Tag;
 import datameer.com.google.common.base.Preconditions;
+import datameer.com.google.common.base.Strings;
+import datameer.com.google.common.collect.AbstractIterator;
 import datameer.com.google.common.collect.Lists;
 
 public class Ec2Util {
 
     private static final Logger LOG = Logger.getLogger(Ec2Util.class);
+    private static final long INITIAL_POLL_INTERVAL = 1000;
+    private static final int MAX_RESOURCES_PER_TAG_REQUEST = 1000;
+    private static final int MAX_INSTANCE_IDS_PER_DESCRIBE_REQUEST = 200;
+    private static final int MAX_PARALLEL_DESCRIBE_REQUESTS = 4;
+    private static final long MAX_POLL_INTERVAL = 10000;
 
     public static List<Instance> findByGroup(AmazonEC2 ec2, String securityGroup, boolean includeMultipleReservations, InstanceStateName... instanceStates) {
-        List<Reservation> reservations = ec2.describeInstances(new DescribeInstancesRequest().withFilters(Filters.groupNameEc2Classic(securityGroup), Filters.instanceStates(instanceStates))).getReservations();
+        List<Reservation> reservations = describeAllReservations(ec2, new DescribeInstancesRequest().withFilters(Filters.groupNameEc2Classic(securityGroup), Filters.instanceStates(instanceStates)));
         if (reservations.isEmpty()) {
             // couldn't find any groups in the classic way, attempting the new way
-            reservations.addAll(ec2.describeInstances(new DescribeInstancesRequest().withFilters(Filters.groupName(securityGroup), Filters.instanceStates(instanceStates))).getReservations());
+            reservations.addAll(describeAllReservations(ec2, new DescribeInstancesRequest().withFilters(Filters.groupName(securityGroup), Filters.instanceStates(instanceStates))));
         }
         if (reservations.size() > 1 && !includeMultipleReservations) {
             throw new IllegalArgumentException("found more then one (" + reservations.size() + ") running instance groups (/reservations) for the given security group '" + securityGroup
@@ -64,6 +85,65 @@ public class Ec2Util {
         return instances;
     }
 
+    /**
+     * Lazily iterates over the reservations matching the request, fetching the next page (following
+     * the next token) only when the previous one is consumed. A reservation might be returned in
+     * parts on multiple pages. The given request isn't modified.
+     */
+    public static Iterable<Reservation> describeReservations(final AmazonEC2 ec2, final DescribeInstancesRequest request) {
+        return new Iterable<Reservation>() {
+            @Override
+            public Iterator<Reservation> iterator() {
+                return new ReservationIterator(ec2, request);
+            }
+        };
+    }
+
+    /**
+     * Lazily iterates over the instances matching the request, see
+     * {@link #describeReservations(AmazonEC2, DescribeInstancesRequest)}.
+     */
+    public static Iterable<Instance> describeInstances(AmazonEC2 ec2, DescribeInstancesRequest request) {
+        final Iterable<Reservation> reservations = describeReservations(ec2, request);
+        return new Iterable<Instance>() {
+            @Override
+            public Iterator<Instance> iterator() {
+                final Iterator<Reservation> reservationIterator = reservations.iterator();
+                return new AbstractIterator<Instance>() {
+                    private Iterator<Instance> _instanceIterator = Collections.<Instance> emptyList().iterator();
+
+                    @Override
+                    protected Instance computeNext() {
+                        while (!_instanceIterator.hasNext()) {
+                            if (!reservationIterator.hasNext()) {
+                                return endOfData();
+                            }
+                            _instanceIterator = reservationIterator.next().getInstances().iterator();
+                        }
+                        return _instanceIterator.next();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Fetches all pages of reservations matching the request and merges the parts of reservations
+     * spread over multiple pages.
+     */
+    public static List<Reservation> describeAllReservations(AmazonEC2 ec2, DescribeInstancesRequest request) {
+        Map<String, Reservation> reservationsById = new LinkedHashMap<String, Reservation>();
+        for (Reservation reservation : describeReservations(ec2, request)) {
+            Reservation existingReservation = reservationsById.get(reservation.getReservationId());
+            if (existingReservation == null) {
+                reservationsById.put(reservation.getReservationId(), reservation);
+            } else {
+                existingReservation.getInstances().addAll(reservation.getInstances());
+            }
+        }
+        return new ArrayList<Reservation>(reservationsById.values());
+    }
+
     public static Collection<String> getSecurityGroups(List<Instance> instances) {
         Set<String> groups = new HashSet<String>();
         for (Instance instance : instances) {
@@ -132,17 +212,59 @@ public class Ec2Util {
         return dns;
     }
 
-    public static List<Instance> reloadInstanceDescriptions(AmazonEC2 ec2, List<Instance> instances) {
-        List<Reservation> reservations = ec2.describeInstances(new DescribeInstancesRequest().withInstanceIds(toIds(instances))).getReservations();
-        List<Instance> updatedInstanceDescriptioins = new ArrayList<Instance>();
-        for (Reservation reservation : reservations) {
-            updatedInstanceDescriptioins.addAll(reservation.getInstances());
+    /**
+     * Describes the given instances again. The instance ids are split into chunks which are
+     * described concurrently. The returned descriptions keep the order of the given instances,
+     * instances which are gone are left out.
+     */
+    public static List<Instance> reloadInstanceDescriptions(final AmazonEC2 ec2, List<Instance> instances) {
+        List<List<String>> instanceIdChunks = Lists.partition(toIds(instances), MAX_INSTANCE_IDS_PER_DESCRIBE_REQUEST);
+        Map<String, Instance> instancesById = new HashMap<String, Instance>();
+        if (instanceIdChunks.size() <= 1) {
+            for (List<String> instanceIds : instanceIdChunks) {
+                putInstancesById(instancesById, describeInstances(ec2, new DescribeInstancesRequest().withInstanceIds(instanceIds)));
+            }
+        } else {
+            ExecutorService executorService = Executors.newFixedThreadPool(Math.min(instanceIdChunks.size(), MAX_PARALLEL_DESCRIBE_REQUESTS));
+            try {
+                List<Future<List<Instance>>> futures = new ArrayList<Future<List<Instance>>>(instanceIdChunks.size());
+                for (final List<String> instanceIds : instanceIdChunks) {
+                    futures.add(executorService.submit(new Callable<List<Instance>>() {
+                        @Override
+                        public List<Instance> call() {
+                            return Lists.newArrayList(describeInstances(ec2, new DescribeInstancesRequest().withInstanceIds(instanceIds)));
+                        }
+                    }));
+                }
+                for (Future<List<Instance>> future : futures) {
+                    putInstancesById(instancesById, future.get());
+                }
+            } catch (ExecutionException e) {
+                throw ExceptionUtil.convertToRuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                throw ExceptionUtil.convertToRuntimeException(e);
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+        List<Instance> updatedInstanceDescriptions = new ArrayList<Instance>(instances.size());
+        for (Instance instance : instances) {
+            Instance updatedInstance = instancesById.get(instance.getInstanceId());
+            if (updatedInstance != null) {
+                updatedInstanceDescriptions.add(updatedInstance);
+            }
+        }
+        return updatedInstanceDescriptions;
+    }
+
+    private static void putInstancesById(Map<String, Instance> instancesById, Iterable<Instance> instances) {
+        for (Instance instance : instances) {
+            instancesById.put(instance.getInstanceId(), instance);
         }
-        return updatedInstanceDescriptioins;
     }
 
     public static Reservation reloadReservation(AmazonEC2 ec2, Reservation reservation) {
-        List<Reservation> reservations = ec2.describeInstances(new DescribeInstancesRequest().withFilters(Filters.reservationId(reservation.getReservationId()))).getReservations();
+        List<Reservation> reservations = describeAllReservations(ec2, new DescribeInstancesRequest().withFilters(Filters.reservationId(reservation.getReservationId())));
         if (reservations.size() != 1) {
             throw new IllegalStateException("do not found resevervation with id '" + reservation.getReservationId() + "': " + reservations);
         }
@@ -166,6 +288,35 @@ public class Ec2Util {
         return instanceIds;
     }
 
+    /**
+     * Tags all given resources with the given tags, using as few requests as the api allows.
+     */
+    public static void tagResources(AmazonEC2 ec2, List<String> resourceIds, Tag... tags) {
+        for (List<String> resourceIdsChunk : Lists.partition(resourceIds, MAX_RESOURCES_PER_TAG_REQUEST)) {
+            ec2.createTags(new CreateTagsRequest(resourceIdsChunk, Arrays.asList(tags)));
+        }
+    }
+
+    /**
+     * Tags each resource with its own tags. Resources sharing a tag are tagged with one request.
+     */
+    public static void tagResources(AmazonEC2 ec2, Map<String, List<Tag>> tagsByResourceId) {
+        Map<Tag, List<String>> resourceIdsByTag = new LinkedHashMap<Tag, List<String>>();
+        for (Map.Entry<String, List<Tag>> entry : tagsByResourceId.entrySet()) {
+            for (Tag tag : entry.getValue()) {
+                List<String> resourceIds = resourceIdsByTag.get(tag);
+                if (resourceIds == null) {
+                    resourceIds = new ArrayList<String>();
+                    resourceIdsByTag.put(tag, resourceIds);
+                }
+                resourceIds.add(entry.getKey());
+            }
+        }
+        for (Map.Entry<Tag, List<String>> entry : resourceIdsByTag.entrySet()) {
+            tagResources(ec2, entry.getValue(), entry.getKey());
+        }
+    }
+
     public static boolean groupExists(AmazonEC2 ec2, String groupName) {
         try {
             DescribeSecurityGroupsResult groups = ec2.describeSecurityGroups(new DescribeSecurityGroupsRequest().withGroupNames(groupName));
@@ -199,35 +350,66 @@ public class Ec2Util {
 
     public static List<Instance> waitUntil(AmazonEC2 ec2, List<Instance> instances, EnumSet<InstanceStateName> allowedPreTargetStates, InstanceStateName targetState, TimeUnit timeUnit,
             long waitTime) {
+        return waitUntil(ec2, instances, allowedPreTargetStates, targetState, timeUnit, waitTime, null);
+    }
+
+    /**
+     * Polls the instances until all are in the target state (and have a public dns in case of
+     * {@link InstanceStateName#Running}). The first check happens immediately, the poll interval
+     * starts short and grows up to 10 seconds. Only instances which aren't ready yet
+     * are described again.
+     * 
+     * @param readyCallback
+     *            notified once for each instance as soon as it is ready, can be null
+     */
+    public static List<Instance> waitUntil(AmazonEC2 ec2, List<Instance> instances, EnumSet<InstanceStateName> allowedPreTargetStates, InstanceStateName targetState, TimeUnit timeUnit,
+            long waitTime, InstanceReadyCallback readyCallback) {
         long end = System.currentTimeMillis() + timeUnit.toMillis(waitTime);
+        Map<String, Instance> instancesById = new LinkedHashMap<String, Instance>();
+        for (Instance instance : instances) {
+            instancesById.put(instance.getInstanceId(), instance);
+        }
+        List<Instance> pendingInstances = new ArrayList<Instance>(instances);
         List<InstanceStateName> undesiredStates = new ArrayList<InstanceStateName>();
         List<String> instanceIdsWithNoPublicDns = new ArrayList<String>();
-        do {
-            try {
-                long sleepTime = 10000;
-                LOG.info(String.format("wait on instances %s to enter '" + targetState + "' mode. Sleeping %d ms. zzz...", Ec2Util.getSecurityGroups(instances), sleepTime));
-                Thread.sleep(sleepTime);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-            instances = Ec2Util.reloadInstanceDescriptions(ec2, instances);
+        long pollInterval = INITIAL_POLL_INTERVAL;
+        while (!pendingInstances.isEmpty()) {
+            List<Instance> reloadedInstances = reloadPendingInstanceDescriptions(ec2, pendingInstances);
+            pendingInstances.clear();
             undesiredStates.clear();
             instanceIdsWithNoPublicDns.clear();
-            for (Instance instance : instances) {
+            for (Instance instance : reloadedInstances) {
+                instancesById.put(instance.getInstanceId(), instance);
                 InstanceStateName state = InstanceStateName.fromValue(instance.getState().getName());
                 boolean instanceInTargetState = state.equals(targetState);
                 Preconditions.checkState(instanceInTargetState || allowedPreTargetStates.contains(state), "Unexpected instance state '%s' for instance %s", state, instance.getInstanceId());
                 if (!instanceInTargetState) {
                     undesiredStates.add(state);
-                } else {
+                    pendingInstances.add(instance);
+                } else if (targetState.equals(InstanceStateName.Running) && Strings.isNullOrEmpty(instance.getPublicDnsName())) {
                     // if 'running' desired, then we also need the public DNS
-                    if (targetState.equals(InstanceStateName.Running) && instance.getPublicDnsName().isEmpty()) {
-                        instanceIdsWithNoPublicDns.add(instance.getInstanceId());
-                    }
+                    instanceIdsWithNoPublicDns.add(instance.getInstanceId());
+                    pendingInstances.add(instance);
+                } else if (readyCallback != null) {
+                    readyCallback.instanceReady(instance);
                 }
             }
-        } while (!(undesiredStates.isEmpty() && instanceIdsWithNoPublicDns.isEmpty()) && System.currentTimeMillis() < end);
+            long remainingTime = end - System.currentTimeMillis();
+            if (pendingInstances.isEmpty() || remainingTime <= 0) {
+                break;
+            }
+            long sleepTime = Math.min(withJitter(pollInterval), remainingTime);
+            LOG.info(String.format("wait on %d instances %s to enter '" + targetState + "' mode. Sleeping %d ms. zzz...", pendingInstances.size(), Ec2Util.getSecurityGroups(pendingInstances), sleepTime));
+            try {
+                Thread.sleep(sleepTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            pollInterval = Math.min(pollInterval * 2, MAX_POLL_INTERVAL);
+        }
 
+        instances = new ArrayList<Instance>(instancesById.values());
         Preconditions.checkState(undesiredStates.isEmpty(),
                 "not all instance of group '" + Ec2Util.getSecurityGroups(instances) + "' are in state '" + targetState + "', some are in: " + undesiredStates);
         Preconditions.checkState(instanceIdsWithNoPublicDns.isEmpty(),
@@ -235,4 +417,54 @@ public class Ec2Util {
         return instances;
     }
 
+    /**
+     * Freshly launched instances might not be describable yet, in that case the given descriptions
+     * are returned.
+     */
+    private static List<Instance> reloadPendingInstanceDescriptions(AmazonEC2 ec2, List<Instance> instances) {
+        try {
+            return reloadInstanceDescriptions(ec2, instances);
+        } catch (AmazonServiceException e) {
+            if (!"InvalidInstanceID.NotFound".equals(e.getErrorCode())) {
+                throw e;
+            }
+            LOG.debug("instances not yet describable: " + e.getMessage());
+            return new ArrayList<Instance>(instances);
+        }
+    }
+
+    private static long withJitter(long interval) {
+        // +/- 20%
+        return (long) (interval * (0.8 + ThreadLocalRandom.current().nextDouble() * 0.4));
+    }
+
+    /**
+     * Iterates over the reservations of all result pages of a describe request.
+     */
+    private static class ReservationIterator extends AbstractIterator<Reservation> {
+
+        private final AmazonEC2 _ec2;
+        private final DescribeInstancesRequest _request;
+        private Iterator<Reservation> _pageIterator;
+        private String _nextToken;
+
+        public ReservationIterator(AmazonEC2 ec2, DescribeInstancesRequest request) {
+            _ec2 = ec2;
+            _request = request;
+        }
+
+        @Override
+        protected Reservation computeNext() {
+            while (_pageIterator == null || !_pageIterator.hasNext()) {
+                if (_pageIterator != null && _nextToken == null) {
+                    return endOfData();
+                }
+                DescribeInstancesResult result = _ec2.describeInstances(_request.clone().withNextToken(_nextToken));
+                _pageIterator = result.getReservations().iterator();
+                _nextToken = Strings.emptyToNull(result.getNextToken());
+            }
+            return _pageIterator.next();
+        }
+    }
+
 }
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+public class ExecutorUtil {
+
+    private static final Logger LOG = Logger.getLogger(ExecutorUtil.class);
+    public static final long DEFAULT_TERMINATION_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Cancels the futures, shuts the executor down and waits until its running tasks finished, so
+     * no task of a failed operation is still at work when the caller cleans up.
+     * 
+     * @return true if the executor terminated within the timeout
+     */
+    public static boolean cancelAndAwaitTermination(ExecutorService executorService, Collection<? extends Future<?>> futures, long timeout, TimeUnit timeUnit) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+        executorService.shutdownNow();
+        try {
+            if (executorService.awaitTermination(timeout, timeUnit)) {
+                return true;
+            }
+            LOG.warn("tasks still running after " + timeUnit.toMillis(timeout) + " ms");
+        } catch (InterruptedException e) {
+            ExceptionUtil.retainInterruptFlag(e);
+        }
+        return false;
+    }
+}
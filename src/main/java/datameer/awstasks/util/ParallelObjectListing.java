@@ -0,0 +1,149 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.ListObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.ObjectListing;
+import awstasks.com.amazonaws.services.s3.model.S3ObjectSummary;
+import datameer.com.google.common.base.Preconditions;
+import datameer.com.google.common.collect.AbstractIterator;
+import datameer.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Lists all objects with a prefix by first listing the level below it with a '/' delimiter and
+ * then listing each of the found common prefixes concurrently. A level consisting of a single
+ * common prefix only (like 'logs/' for the prefix 'logs') is descended before fanning out. The objects are handed over through
+ * a bounded queue, so the listing threads never get far ahead of the consumer. The objects come in
+ * no particular order.<br>
+ * If the iteration is abandoned before its end, {@link #close()} has to be called to stop the
+ * listing threads.
+ */
+public class ParallelObjectListing extends AbstractIterator<S3ObjectSummary> implements Closeable {
+
+    public static final String DELIMITER = "/";
+    protected static final int QUEUE_CAPACITY = 10000;
+    private static final Object END_OF_LISTING = new Object();
+
+    private final AmazonS3 _s3Service;
+    private final String _bucket;
+    private final BlockingQueue<Object> _queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+    private final AtomicInteger _pendingListings = new AtomicInteger();
+    private final ExecutorService _executorService;
+
+    public ParallelObjectListing(AmazonS3 s3Service, String bucket, String prefix, int concurrency) {
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive but is %s", concurrency);
+        if (prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+        _s3Service = s3Service;
+        _bucket = bucket;
+        _executorService = Executors.newFixedThreadPool(concurrency, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("s3-list-%d").build());
+        submitListing(prefix, DELIMITER);
+    }
+
+    @Override
+    protected S3ObjectSummary computeNext() {
+        Object element;
+        try {
+            element = _queue.take();
+        } catch (InterruptedException e) {
+            close();
+            throw ExceptionUtil.convertToRuntimeException(e);
+        }
+        if (element == END_OF_LISTING) {
+            close();
+            return endOfData();
+        }
+        if (element instanceof Throwable) {
+            close();
+            throw ExceptionUtil.convertToRuntimeException((Throwable) element);
+        }
+        return (S3ObjectSummary) element;
+    }
+
+    /**
+     * Stops all running listings.
+     */
+    @Override
+    public void close() {
+        _executorService.shutdownNow();
+    }
+
+    private void submitListing(final String prefix, final String delimiter) {
+        _pendingListings.incrementAndGet();
+        try {
+            _executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    list(prefix, delimiter);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    private void list(String prefix, String delimiter) {
+        try {
+            ListObjectsRequest request = new ListObjectsRequest().withBucketName(_bucket).withPrefix(prefix).withDelimiter(delimiter);
+            // the first common prefix is held back so a level with a single one can be descended
+            String singleCommonPrefix = null;
+            boolean fannedOut = false;
+            boolean foundObjects = false;
+            for (ObjectListing objectListing : S3Util.listObjectPages(_s3Service, request)) {
+                for (String commonPrefix : objectListing.getCommonPrefixes()) {
+                    if (!fannedOut && singleCommonPrefix == null) {
+                        singleCommonPrefix = commonPrefix;
+                        continue;
+                    }
+                    if (!fannedOut) {
+                        submitListing(singleCommonPrefix, null);
+                        singleCommonPrefix = null;
+                        fannedOut = true;
+                    }
+                    submitListing(commonPrefix, null);
+                }
+                for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
+                    foundObjects = true;
+                    _queue.put(objectSummary);
+                }
+            }
+            if (singleCommonPrefix != null) {
+                submitListing(singleCommonPrefix, foundObjects ? null : DELIMITER);
+            }
+            if (_pendingListings.decrementAndGet() == 0) {
+                _queue.put(END_OF_LISTING);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (Throwable t) {
+            try {
+                _queue.put(t);
+            } catch (InterruptedException e) {
+                // closed
+            }
+        }
+    }
+}
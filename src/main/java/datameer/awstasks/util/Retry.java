@@ -15,26 +15,63 @@
  */
 package datameer.awstasks.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
 import org.apache.log4j.Logger;
 
 import datameer.com.google.common.annotations.VisibleForTesting;
 import datameer.com.google.common.base.Predicate;
 import datameer.com.google.common.base.Predicates;
+import datameer.com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * Retries an operation on the given exceptions. Retries aren't limited by a {@link RetryBudget}
+ * unless one is set with {@link #withRetryBudget(RetryBudget)}.
+ */
 public class Retry {
 
     private static final Logger LOG = Logger.getLogger(Retry.class);
-    private long _waitTime = 0;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("retry-scheduler-%d").build());
+    private BackoffPolicy _backoffPolicy = BackoffPolicies.constant(0);
+    private RetryBudget _retryBudget;
     private int _maxRetries = 3;
     private final Predicate<Throwable> _retryPredicate;
+    private long _timeout;
     private int _failedTries;
 
     private Retry(Predicate<Throwable> retryPredicate) {
         _retryPredicate = retryPredicate;
     }
 
+    /**
+     * Waits the given time between all tries.
+     */
     public Retry withWaitTime(long waitTime) {
-        _waitTime = waitTime;
+        return withBackoff(BackoffPolicies.constant(waitTime));
+    }
+
+    public Retry withBackoff(BackoffPolicy backoffPolicy) {
+        _backoffPolicy = backoffPolicy;
+        return this;
+    }
+
+    /**
+     * Sets the budget the retries are withdrawn from, e.g. the {@link RetryBudget#getSharedInstance()
+     * shared} one. Default is null, which allows retries up to the max retries.
+     */
+    public Retry withRetryBudget(RetryBudget retryBudget) {
+        _retryBudget = retryBudget;
         return this;
     }
 
@@ -43,6 +80,16 @@ public class Retry {
         return this;
     }
 
+    /**
+     * Gives up retrying if the next try would start after the given time (counted from the start of
+     * the execution). An async execution additionally fails with a {@link TimeoutException} when the
+     * time is over.
+     */
+    public Retry withTimeout(long timeout, TimeUnit timeUnit) {
+        _timeout = timeUnit.toMillis(timeout);
+        return this;
+    }
+
     @VisibleForTesting
     int getFailedTries() {
         return _failedTries;
@@ -50,20 +97,30 @@ public class Retry {
 
     public void execute(Runnable runnable) {
         _failedTries = 0;
+        long waitTime = 0;
+        long deadline = getDeadline();
         while (true) {
             try {
                 runnable.run();
+                if (_failedTries == 0 && _retryBudget != null) {
+                    _retryBudget.depositSuccess();
+                }
                 return;
             } catch (Throwable e) {
-                if (_failedTries >= _maxRetries || !_retryPredicate.apply(e)) {
+                if (!shouldRetry(e, _failedTries)) {
                     throw ExceptionUtil.convertToRuntimeException(e);
                 }
-                LOG.warn("Failed retry " + (_failedTries + 1) + "/" + _maxRetries + " with '" + e.getMessage() + "' - retrying after " + _maxRetries + " ms");
-                if (_waitTime > 0) {
+                waitTime = _backoffPolicy.getWaitTime(_failedTries + 1, waitTime);
+                if (System.currentTimeMillis() + waitTime > deadline) {
+                    LOG.warn("Timeout reached, not retrying after '" + e.getMessage() + "'");
+                    throw ExceptionUtil.convertToRuntimeException(e);
+                }
+                LOG.warn("Failed retry " + (_failedTries + 1) + "/" + _maxRetries + " with '" + e.getMessage() + "' - retrying after " + waitTime + " ms");
+                if (waitTime > 0) {
                     try {
-                        Thread.sleep(_waitTime);
+                        Thread.sleep(waitTime);
                     } catch (InterruptedException e1) {
-                        ExceptionUtil.retainInterruptFlag(e);
+                        ExceptionUtil.retainInterruptFlag(e1);
                         throw ExceptionUtil.convertToRuntimeException(e);
                     }
                 }
@@ -72,6 +129,128 @@ public class Retry {
         }
     }
 
+    /**
+     * Executes the operation and retries it on failures without blocking the calling thread. The
+     * waits between the tries happen on a shared scheduler, so the operation should do its work
+     * asynchronously as well. Cancelling the returned future stops further tries.
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<? extends CompletionStage<T>> operation) {
+        AsyncExecution<T> execution = new AsyncExecution<T>(operation, getDeadline());
+        execution.attempt();
+        return execution._result;
+    }
+
+    private long getDeadline() {
+        return _timeout > 0 ? System.currentTimeMillis() + _timeout : Long.MAX_VALUE;
+    }
+
+    private boolean shouldRetry(Throwable e, int failedTries) {
+        if (failedTries >= _maxRetries || !_retryPredicate.apply(e)) {
+            return false;
+        }
+        if (_retryBudget != null && !_retryBudget.tryWithdraw()) {
+            LOG.warn("Retry budget exhausted, not retrying after '" + e.getMessage() + "'");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The state of one async execution.
+     */
+    private class AsyncExecution<T> implements Runnable {
+
+        private final Supplier<? extends CompletionStage<T>> _operation;
+        private final long _deadline;
+        private final CompletableFuture<T> _result = new CompletableFuture<T>();
+        private volatile int _asyncFailedTries;
+        private volatile long _waitTime;
+        private volatile ScheduledFuture<?> _scheduledTry;
+
+        public AsyncExecution(Supplier<? extends CompletionStage<T>> operation, long deadline) {
+            _operation = operation;
+            _deadline = deadline;
+            _result.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T result, Throwable throwable) {
+                    ScheduledFuture<?> scheduledTry = _scheduledTry;
+                    if (scheduledTry != null) {
+                        scheduledTry.cancel(false);
+                    }
+                }
+            });
+            if (deadline != Long.MAX_VALUE) {
+                final ScheduledFuture<?> timeout = SCHEDULER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        _result.completeExceptionally(new TimeoutException("no success within " + _timeout + " ms after " + _asyncFailedTries + " failed tries"));
+                    }
+                }, deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                _result.whenComplete(new BiConsumer<T, Throwable>() {
+                    @Override
+                    public void accept(T result, Throwable throwable) {
+                        timeout.cancel(false);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void run() {
+            attempt();
+        }
+
+        public void attempt() {
+            if (_result.isDone()) {
+                return;
+            }
+            CompletionStage<T> stage;
+            try {
+                stage = _operation.get();
+            } catch (Throwable e) {
+                onFailure(e);
+                return;
+            }
+            stage.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T result, Throwable throwable) {
+                    if (throwable == null) {
+                        if (_asyncFailedTries == 0 && _retryBudget != null) {
+                            _retryBudget.depositSuccess();
+                        }
+                        _result.complete(result);
+                    } else {
+                        onFailure(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+                    }
+                }
+            });
+        }
+
+        private void onFailure(Throwable e) {
+            if (_result.isDone()) {
+                return;
+            }
+            if (!shouldRetry(e, _asyncFailedTries)) {
+                _result.completeExceptionally(e);
+                return;
+            }
+            _waitTime = _backoffPolicy.getWaitTime(_asyncFailedTries + 1, _waitTime);
+            if (System.currentTimeMillis() + _waitTime > _deadline) {
+                _result.completeExceptionally(e);
+                return;
+            }
+            _asyncFailedTries++;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed async retry " + _asyncFailedTries + "/" + _maxRetries + " with '" + e.getMessage() + "' - retrying after " + _waitTime + " ms");
+            }
+            _scheduledTry = SCHEDULER.schedule(this, _waitTime, TimeUnit.MILLISECONDS);
+            if (_result.isDone()) {
+                _scheduledTry.cancel(false);
+            }
+        }
+    }
+
+    @SafeVarargs
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public static Retry onExceptions(Class<? extends Throwable>... retryTriggeringThrowables) {
         Predicate[] predicates = new Predicate[retryTriggeringThrowables.length];
@@ -82,4 +261,19 @@ public class Retry {
         return new Retry(Predicates.and(predicates));
     }
 
+    /**
+     * Retries if the exception or one of its causes is an instance of any of the given classes
+     * (while {@link #onExceptions(Class...)} requires all of them).
+     */
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    public static Retry onAnyOf(Class<? extends Throwable>... retryTriggeringThrowables) {
+        List<Predicate<Throwable>> predicates = new ArrayList<Predicate<Throwable>>();
+        for (Class<? extends Throwable> retryTriggeringThrowable : retryTriggeringThrowables) {
+            Predicate<?> instanceOf = Predicates.instanceOf(retryTriggeringThrowable);
+            predicates.add(ExceptionUtil.orOnExceptionAndCauses((Predicate<Throwable>) instanceOf));
+        }
+        return new Retry(Predicates.or(predicates));
+    }
+
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import java.util.concurrent.TimeUnit;
+
+import datameer.com.google.common.base.Objects;
+import datameer.com.google.common.base.Preconditions;
+
+/**
+ * Limits the number of retries across all operations sharing the budget, so a failing or throttling
+ * service doesn't get flooded by retries. Each retry withdraws one token. Tokens come back over time
+ * and with every operation which succeeded at the first try.
+ */
+public class RetryBudget {
+
+    private static final RetryBudget SHARED_INSTANCE = new RetryBudget(100, 5, 0.1);
+
+    private final double _maxTokens;
+    private final double _tokensPerSecond;
+    private final double _tokensPerSuccess;
+    private double _tokens;
+    private long _lastRefillTime = System.nanoTime();
+    private long _rejectedRetries;
+
+    /**
+     * @param maxTokens
+     *            the maximum number of retries which can be done in a row
+     * @param tokensPerSecond
+     *            the number of retries which are allowed per second at least
+     * @param tokensPerSuccess
+     *            the share of a retry each first-try success earns
+     */
+    public RetryBudget(double maxTokens, double tokensPerSecond, double tokensPerSuccess) {
+        Preconditions.checkArgument(maxTokens >= 1, "maxTokens must be at least 1");
+        _maxTokens = maxTokens;
+        _tokensPerSecond = tokensPerSecond;
+        _tokensPerSuccess = tokensPerSuccess;
+        _tokens = maxTokens;
+    }
+
+    /**
+     * A budget to share across unrelated operations which opt in to it.
+     */
+    public static RetryBudget getSharedInstance() {
+        return SHARED_INSTANCE;
+    }
+
+    /**
+     * @return true if a retry is allowed
+     */
+    public synchronized boolean tryWithdraw() {
+        refill();
+        if (_tokens < 1) {
+            _rejectedRetries++;
+            return false;
+        }
+        _tokens--;
+        return true;
+    }
+
+    public synchronized void depositSuccess() {
+        _tokens = Math.min(_maxTokens, _tokens + _tokensPerSuccess);
+    }
+
+    public synchronized double getAvailableTokens() {
+        refill();
+        return _tokens;
+    }
+
+    public synchronized long getRejectedRetries() {
+        return _rejectedRetries;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        _tokens = Math.min(_maxTokens, _tokens + (now - _lastRefillTime) * _tokensPerSecond / TimeUnit.SECONDS.toNanos(1));
+        _lastRefillTime = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(this).add("tokens", _tokens).add("maxTokens", _maxTokens).add("rejected", _rejectedRetries).toString();
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.ListObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import awstasks.com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import awstasks.com.amazonaws.services.s3.model.ObjectListing;
+import awstasks.com.amazonaws.services.s3.model.S3ObjectSummary;
+import datameer.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Deletes all keys with a prefix. Each listed page of up to 1000 keys is deleted with one batch
+ * request while the next pages are listed, several batches are in flight at once. Keys which
+ * couldn't be deleted are collected and reported at the end.
+ */
+public class S3BatchDelete {
+
+    private static final Logger LOG = Logger.getLogger(S3BatchDelete.class);
+    public static final int MAX_KEYS_PER_REQUEST = 1000;
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final AmazonS3 _s3Service;
+    private final String _bucket;
+    private final String _prefix;
+    private int _concurrency = DEFAULT_CONCURRENCY;
+    private final AtomicLong _deletedCount = new AtomicLong();
+    private final AtomicLong _deletedBytes = new AtomicLong();
+    private final List<DeleteError> _errors = Collections.synchronizedList(new ArrayList<DeleteError>());
+
+    public S3BatchDelete(AmazonS3 s3Service, String bucket, String prefix) {
+        _s3Service = s3Service;
+        _bucket = bucket;
+        _prefix = prefix != null && prefix.startsWith("/") ? prefix.substring(1) : prefix;
+    }
+
+    public S3BatchDelete withConcurrency(int concurrency) {
+        _concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    public long getDeletedCount() {
+        return _deletedCount.get();
+    }
+
+    public long getDeletedBytes() {
+        return _deletedBytes.get();
+    }
+
+    public List<DeleteError> getErrors() {
+        return _errors;
+    }
+
+    /**
+     * @throws IllegalStateException if some keys couldn't be deleted, see {@link #getErrors()}
+     */
+    public void execute() {
+        ExecutorService executorService = Executors.newFixedThreadPool(_concurrency, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("s3-delete-%d").build());
+        Semaphore inFlightBatches = new Semaphore(_concurrency);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            ListObjectsRequest request = new ListObjectsRequest().withBucketName(_bucket).withPrefix(_prefix).withMaxKeys(MAX_KEYS_PER_REQUEST);
+            for (ObjectListing objectListing : S3Util.listObjectPages(_s3Service, request)) {
+                if (!objectListing.getObjectSummaries().isEmpty()) {
+                    inFlightBatches.acquire();
+                    futures.add(executorService.submit(new DeleteBatch(objectListing.getObjectSummaries(), inFlightBatches)));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw ExceptionUtil.convertToRuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            throw ExceptionUtil.convertToRuntimeException(e);
+        } finally {
+            executorService.shutdownNow();
+        }
+        if (!_errors.isEmpty()) {
+            DeleteError error = _errors.get(0);
+            throw new IllegalStateException("failed to delete " + _errors.size() + " keys in bucket '" + _bucket + "', e.g. '" + error.getKey() + "': " + error.getCode() + " - "
+                    + error.getMessage());
+        }
+    }
+
+    private class DeleteBatch implements Callable<Void> {
+
+        private final List<S3ObjectSummary> _objectSummaries;
+        private final Semaphore _inFlightBatches;
+
+        public DeleteBatch(List<S3ObjectSummary> objectSummaries, Semaphore inFlightBatches) {
+            _objectSummaries = objectSummaries;
+            _inFlightBatches = inFlightBatches;
+        }
+
+        @Override
+        public Void call() {
+            try {
+                Map<String, Long> sizesByKey = new HashMap<String, Long>();
+                for (S3ObjectSummary objectSummary : _objectSummaries) {
+                    sizesByKey.put(objectSummary.getKey(), objectSummary.getSize());
+                }
+                try {
+                    _s3Service.deleteObjects(new DeleteObjectsRequest(_bucket).withKeys(sizesByKey.keySet().toArray(new String[sizesByKey.size()])).withQuiet(true));
+                } catch (MultiObjectDeleteException e) {
+                    for (DeleteError error : e.getErrors()) {
+                        sizesByKey.remove(error.getKey());
+                    }
+                    _errors.addAll(e.getErrors());
+                    LOG.warn("failed to delete " + e.getErrors().size() + " keys in bucket '" + _bucket + "'");
+                }
+                long deletedBytes = 0;
+                for (Long size : sizesByKey.values()) {
+                    deletedBytes += size;
+                }
+                long deletedCount = _deletedCount.addAndGet(sizesByKey.size());
+                _deletedBytes.addAndGet(deletedBytes);
+                LOG.info("deleted " + deletedCount + " keys with prefix '" + _prefix + "' in bucket '" + _bucket + "' so far");
+                return null;
+            } finally {
+                _inFlightBatches.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.S3ObjectSummary;
+import datameer.com.google.common.collect.Lists;
+import datameer.com.google.common.hash.Hasher;
+import datameer.com.google.common.hash.Hashing;
+import datameer.com.google.common.io.ByteSource;
+import datameer.com.google.common.io.Files;
+import datameer.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Mirrors a local directory to an s3 prefix. Only files whose size or ETag differ from the remote
+ * listing are uploaded. The local ETags are calculated the way s3 does (including multipart
+ * uploads with the part size of {@link S3MultipartUpload}) and can be cached in a manifest file, so
+ * unchanged files don't need to be hashed again on the next run.
+ */
+public class S3DirectorySync {
+
+    private static final Logger LOG = Logger.getLogger(S3DirectorySync.class);
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final AmazonS3 _s3Service;
+    private final File _localDir;
+    private final String _bucket;
+    private final String _prefix;
+    private int _concurrency = DEFAULT_CONCURRENCY;
+    private boolean _delete;
+    private File _manifestFile;
+    private final AtomicInteger _uploadedCount = new AtomicInteger();
+    private int _unchangedCount;
+    private int _deletedCount;
+
+    public S3DirectorySync(AmazonS3 s3Service, File localDir, String bucket, String prefix) {
+        _s3Service = s3Service;
+        _localDir = localDir;
+        _bucket = bucket;
+        _prefix = normalizePrefix(prefix);
+    }
+
+    public S3DirectorySync withConcurrency(int concurrency) {
+        _concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    /**
+     * Deletes remote files which don't exist locally.
+     */
+    public S3DirectorySync withDelete(boolean delete) {
+        _delete = delete;
+        return this;
+    }
+
+    /**
+     * Caches the ETags of the local files between runs in the given file.
+     */
+    public S3DirectorySync withManifest(File manifestFile) {
+        _manifestFile = manifestFile;
+        return this;
+    }
+
+    public int getUploadedCount() {
+        return _uploadedCount.get();
+    }
+
+    public int getUnchangedCount() {
+        return _unchangedCount;
+    }
+
+    public int getDeletedCount() {
+        return _deletedCount;
+    }
+
+    public void execute() {
+        try {
+            Map<String, S3ObjectSummary> remoteFiles = listRemoteFiles();
+            Properties manifest = loadManifest();
+            List<String> changedFiles = new ArrayList<String>();
+            for (File file : Files.fileTreeTraverser().preOrderTraversal(_localDir)) {
+                if (!file.isFile() || file.equals(_manifestFile)) {
+                    continue;
+                }
+                String relativePath = getRelativePath(file);
+                S3ObjectSummary remoteFile = remoteFiles.remove(relativePath);
+                if (remoteFile != null && remoteFile.getSize() == file.length() && stripQuotes(remoteFile.getETag()).equals(getETag(file, relativePath, manifest))) {
+                    _unchangedCount++;
+                } else {
+                    changedFiles.add(relativePath);
+                }
+            }
+            LOG.info("syncing " + _localDir + " to " + _bucket + "/" + _prefix + ": " + changedFiles.size() + " changed, " + _unchangedCount + " unchanged, " + remoteFiles.size()
+                    + " removed files");
+            uploadFiles(changedFiles);
+            if (_delete && !remoteFiles.isEmpty()) {
+                deleteFiles(remoteFiles.keySet());
+            }
+            storeManifest(manifest);
+        } catch (IOException e) {
+            throw ExceptionUtil.convertToRuntimeException(e);
+        }
+    }
+
+    private Map<String, S3ObjectSummary> listRemoteFiles() {
+        Map<String, S3ObjectSummary> remoteFiles = new HashMap<String, S3ObjectSummary>();
+        for (S3ObjectSummary objectSummary : S3Util.listObjects(_s3Service, _bucket, _prefix)) {
+            if (!objectSummary.getKey().endsWith("/")) {
+                remoteFiles.put(objectSummary.getKey().substring(_prefix.length()), objectSummary);
+            }
+        }
+        return remoteFiles;
+    }
+
+    private void uploadFiles(List<String> relativePaths) {
+        if (relativePaths.isEmpty()) {
+            return;
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(_concurrency, relativePaths.size()), new ThreadFactoryBuilder().setDaemon(true).setNameFormat(
+                "s3-sync-%d").build());
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final String relativePath : relativePaths) {
+                futures.add(executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        LOG.debug("uploading " + relativePath);
+                        new S3MultipartUpload(_s3Service, _bucket, new File(_localDir, relativePath), _prefix + relativePath).withConcurrency(1).execute();
+                        _uploadedCount.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw ExceptionUtil.convertToRuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            throw ExceptionUtil.convertToRuntimeException(e);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void deleteFiles(Iterable<String> relativePaths) {
+        List<String> keys = new ArrayList<String>();
+        for (String relativePath : relativePaths) {
+            keys.add(_prefix + relativePath);
+        }
+        for (List<String> batch : Lists.partition(keys, S3BatchDelete.MAX_KEYS_PER_REQUEST)) {
+            _s3Service.deleteObjects(new DeleteObjectsRequest(_bucket).withKeys(batch.toArray(new String[batch.size()])).withQuiet(true));
+            _deletedCount += batch.size();
+        }
+    }
+
+    private String getETag(File file, String relativePath, Properties manifest) throws IOException {
+        String fileState = file.lastModified() + ":" + file.length() + ":";
+        String manifestEntry = manifest.getProperty(relativePath);
+        if (manifestEntry != null && manifestEntry.startsWith(fileState)) {
+            return manifestEntry.substring(fileState.length());
+        }
+        String eTag = calculateETag(file, new S3MultipartUpload(_s3Service, _bucket, file, _prefix + relativePath));
+        manifest.setProperty(relativePath, fileState + eTag);
+        return eTag;
+    }
+
+    /**
+     * Calculates the ETag s3 assigns to the file when uploaded with the given upload.
+     */
+    static String calculateETag(File file, S3MultipartUpload upload) throws IOException {
+        ByteSource source = Files.asByteSource(file);
+        int partCount = upload.getPartCount();
+        if (partCount == 1) {
+            return source.hash(Hashing.md5()).toString();
+        }
+        long partSize = upload.getPartSize();
+        Hasher hasher = Hashing.md5().newHasher();
+        for (int i = 0; i < partCount; i++) {
+            hasher.putBytes(source.slice(i * partSize, partSize).hash(Hashing.md5()).asBytes());
+        }
+        return hasher.hash().toString() + "-" + partCount;
+    }
+
+    private Properties loadManifest() throws IOException {
+        Properties manifest = new Properties();
+        if (_manifestFile != null && _manifestFile.exists()) {
+            InputStream in = new FileInputStream(_manifestFile);
+            try {
+                manifest.load(in);
+            } finally {
+                IoUtil.closeQuietly(in);
+            }
+        }
+        return manifest;
+    }
+
+    private void storeManifest(Properties manifest) throws IOException {
+        if (_manifestFile == null) {
+            return;
+        }
+        for (Entry<Object, Object> entry : new ArrayList<Entry<Object, Object>>(manifest.entrySet())) {
+            if (!new File(_localDir, (String) entry.getKey()).isFile()) {
+                manifest.remove(entry.getKey());
+            }
+        }
+        OutputStream out = new FileOutputStream(_manifestFile);
+        try {
+            manifest.store(out, "s3 sync of " + _localDir);
+        } finally {
+            IoUtil.closeQuietly(out);
+        }
+    }
+
+    private String getRelativePath(File file) {
+        return _localDir.toURI().relativize(file.toURI()).getPath();
+    }
+
+    private static String stripQuotes(String eTag) {
+        return eTag == null ? "" : eTag.replace("\"", "");
+    }
+
+    private static String normalizePrefix(String prefix) {
+        if (prefix == null) {
+            return "";
+        }
+        if (prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+        if (!prefix.isEmpty() && !prefix.endsWith("/")) {
+            prefix += "/";
+        }
+        return prefix;
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import awstasks.com.amazonaws.AmazonClientException;
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.AmazonS3Exception;
+import awstasks.com.amazonaws.services.s3.model.GetObjectRequest;
+import awstasks.com.amazonaws.services.s3.model.ObjectMetadata;
+import awstasks.com.amazonaws.services.s3.model.S3Object;
+import datameer.com.google.common.base.Charsets;
+import datameer.com.google.common.io.Files;
+import datameer.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Downloads a file from s3 with parallel ranged requests. The parts are written directly to their
+ * position in a preallocated file. With resume enabled, the parts of an interrupted download are
+ * remembered in a <code>.parts</code> file next to the partial <code>.download</code> file and
+ * aren't downloaded again, as long as the remote file didn't change.
+ */
+public class S3MultipartDownload {
+
+    private static final Logger LOG = Logger.getLogger(S3MultipartDownload.class);
+    public static final long DEFAULT_PART_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_CONCURRENCY = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RESTARTS = 3;
+
+    private final AmazonS3 _s3Service;
+    private final String _bucket;
+    private final String _key;
+    private final File _file;
+    private long _partSize = DEFAULT_PART_SIZE;
+    private int _concurrency = DEFAULT_CONCURRENCY;
+    private int _maxRetriesPerPart = 3;
+    private boolean _resume;
+
+    public S3MultipartDownload(AmazonS3 s3Service, String bucket, String key, File file) {
+        _s3Service = s3Service;
+        _bucket = bucket;
+        _key = key.startsWith("/") ? key.substring(1) : key;
+        _file = file;
+    }
+
+    public S3MultipartDownload withPartSize(long partSize) {
+        _partSize = Math.max(1, partSize);
+        return this;
+    }
+
+    public S3MultipartDownload withConcurrency(int concurrency) {
+        _concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    public S3MultipartDownload withMaxRetriesPerPart(int maxRetriesPerPart) {
+        _maxRetriesPerPart = maxRetriesPerPart;
+        return this;
+    }
+
+    public S3MultipartDownload withResume(boolean resume) {
+        _resume = resume;
+        return this;
+    }
+
+    /**
+     * Downloads the file. If the remote file gets replaced during the download, it is started over
+     * (up to {@value #MAX_RESTARTS} times).
+     */
+    public void execute() {
+        for (int restarts = 0;; restarts++) {
+            try {
+                download(restarts > 0);
+                return;
+            } catch (RemoteFileChangedException e) {
+                if (restarts >= MAX_RESTARTS) {
+                    throw e;
+                }
+                LOG.info(e.getMessage() + ", starting over");
+            }
+        }
+    }
+
+    private void download(boolean startOver) {
+        ObjectMetadata metadata = _s3Service.getObjectMetadata(_bucket, _key);
+        long length = metadata.getContentLength();
+        int partCount = (int) Math.max(1, (length + _partSize - 1) / _partSize);
+        File partialFile = new File(_file.getPath() + ".download");
+        File partsFile = new File(_file.getPath() + ".parts");
+        String partsHeader = metadata.getETag() + ":" + length + ":" + _partSize;
+        try {
+            if (_file.getParentFile() != null) {
+                _file.getParentFile().mkdirs();
+            }
+            Set<Integer> finishedParts = _resume && !startOver ? readFinishedParts(partialFile, partsFile, partsHeader) : new HashSet<Integer>();
+            if (finishedParts.isEmpty()) {
+                Files.write(partsHeader + "\n", partsFile, Charsets.UTF_8);
+            }
+            LOG.info("downloading " + _bucket + "/" + _key + " in " + partCount + " parts to " + _file + (finishedParts.isEmpty() ? "" : " (" + finishedParts.size() + " parts already downloaded)"));
+            RandomAccessFile randomAccessFile = new RandomAccessFile(partialFile, "rw");
+            try {
+                randomAccessFile.setLength(length);
+                downloadParts(randomAccessFile.getChannel(), metadata.getETag(), length, partCount, finishedParts, partsFile);
+            } finally {
+                IoUtil.closeQuietly(randomAccessFile);
+            }
+            if (_file.exists() && !_file.delete() || !partialFile.renameTo(_file)) {
+                throw new IOException("could not move " + partialFile + " to " + _file);
+            }
+            partsFile.delete();
+        } catch (IOException e) {
+            throw ExceptionUtil.convertToRuntimeException(e);
+        } finally {
+            if (!_resume) {
+                partialFile.delete();
+                partsFile.delete();
+            }
+        }
+    }
+
+    private void downloadParts(final FileChannel channel, final String eTag, long length, int partCount, Set<Integer> finishedParts, final File partsFile) throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(_concurrency, partCount), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("s3-download-%d")
+                .build());
+        // set on the first failure or the end of the attempt, parts still running then are ignored
+        final AtomicBoolean attemptEnded = new AtomicBoolean();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (int i = 0; i < partCount; i++) {
+                if (finishedParts.contains(i)) {
+                    continue;
+                }
+                final int part = i;
+                final long start = i * _partSize;
+                final long end = Math.min(start + _partSize, length) - 1;
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        if (attemptEnded.get()) {
+                            return null;
+                        }
+                        try {
+                            downloadPart(channel, eTag, start, end);
+                        } catch (RuntimeException e) {
+                            attemptEnded.set(true);
+                            throw e;
+                        }
+                        if (_resume) {
+                            channel.force(false);
+                            synchronized (partsFile) {
+                                if (!attemptEnded.get()) {
+                                    Files.append(part + "\n", partsFile, Charsets.UTF_8);
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw ExceptionUtil.convertToRuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            throw ExceptionUtil.convertToRuntimeException(e);
+        } finally {
+            synchronized (partsFile) {
+                attemptEnded.set(true);
+            }
+            ExecutorUtil.cancelAndAwaitTermination(executorService, futures, ExecutorUtil.DEFAULT_TERMINATION_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void downloadPart(final FileChannel channel, final String eTag, final long start, final long end) {
+        if (end < start) {
+            return;// empty file
+        }
+        Retry.onAnyOf(AmazonClientException.class, IOException.class).withMaxRetries(_maxRetriesPerPart).withBackoff(BackoffPolicies.exponentialWithJitter(1000, 10000)).execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        GetObjectRequest request = new GetObjectRequest(_bucket, _key).withRange(start, end).withMatchingETagConstraint(eTag);
+                        S3Object s3Object;
+                        try {
+                            s3Object = _s3Service.getObject(request);
+                        } catch (AmazonS3Exception e) {
+                            if (e.getStatusCode() == 412) {
+                                throw new RemoteFileChangedException(_bucket + "/" + _key + " changed during the download");
+                            }
+                            throw e;
+                        }
+                        if (s3Object == null) {
+                            // the client returns null if the etag constraint isn't met
+                            throw new RemoteFileChangedException(_bucket + "/" + _key + " changed during the download");
+                        }
+                        InputStream in = s3Object.getObjectContent();
+                        try {
+                            byte[] buffer = new byte[BUFFER_SIZE];
+                            long position = start;
+                            int read;
+                            while ((read = in.read(buffer)) != -1) {
+                                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                                while (byteBuffer.hasRemaining()) {
+                                    position += channel.write(byteBuffer, position);
+                                }
+                            }
+                            if (position != end + 1) {
+                                throw new IOException("incomplete part " + start + "-" + end + " of " + _bucket + "/" + _key + ", got " + (position - start) + " bytes");
+                            }
+                        } catch (IOException e) {
+                            throw ExceptionUtil.convertToRuntimeException(e);
+                        } finally {
+                            IoUtil.closeQuietly(in);
+                        }
+                    }
+                });
+    }
+
+    private static Set<Integer> readFinishedParts(File partialFile, File partsFile, String partsHeader) throws IOException {
+        Set<Integer> finishedParts = new HashSet<Integer>();
+        if (!partialFile.exists() || !partsFile.exists()) {
+            return finishedParts;
+        }
+        List<String> lines = Files.readLines(partsFile, Charsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(partsHeader)) {
+            LOG.info("remote file changed since partial download to " + partialFile + ", starting over");
+            return finishedParts;
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            try {
+                finishedParts.add(Integer.parseInt(line.trim()));
+            } catch (NumberFormatException e) {
+                // incompletely written line, the part gets downloaded again
+            }
+        }
+        return finishedParts;
+    }
+
+    private static class RemoteFileChangedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public RemoteFileChangedException(String message) {
+            super(message);
+        }
+    }
+}
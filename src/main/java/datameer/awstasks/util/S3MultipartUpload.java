@@ -0,0 +1,191 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import awstasks.com.amazonaws.AmazonClientException;
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import awstasks.com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import awstasks.com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import awstasks.com.amazonaws.services.s3.model.ObjectMetadata;
+import awstasks.com.amazonaws.services.s3.model.PartETag;
+import awstasks.com.amazonaws.services.s3.model.PutObjectRequest;
+import awstasks.com.amazonaws.services.s3.model.UploadPartRequest;
+import datameer.com.google.common.hash.Hashing;
+import datameer.com.google.common.io.BaseEncoding;
+import datameer.com.google.common.io.Files;
+import datameer.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Uploads a file to s3. Files bigger than the part size are uploaded in parts, several of them in
+ * parallel. Failed parts are retried, if the upload still fails it is aborted so no orphaned parts
+ * are left.
+ */
+public class S3MultipartUpload {
+
+    private static final Logger LOG = Logger.getLogger(S3MultipartUpload.class);
+    public static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+    public static final long DEFAULT_PART_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_CONCURRENCY = 4;
+    private static final int MAX_PARTS = 10000;
+
+    private final AmazonS3 _s3Service;
+    private final String _bucket;
+    private final String _key;
+    private final File _file;
+    private ObjectMetadata _metadata = new ObjectMetadata();
+    private long _partSize = DEFAULT_PART_SIZE;
+    private int _concurrency = DEFAULT_CONCURRENCY;
+    private int _maxRetriesPerPart = 3;
+    private boolean _md5Check = true;
+
+    public S3MultipartUpload(AmazonS3 s3Service, String bucket, File file, String key) {
+        _s3Service = s3Service;
+        _bucket = bucket;
+        _file = file;
+        _key = key.startsWith("/") ? key.substring(1) : key;
+    }
+
+    public S3MultipartUpload withMetadata(ObjectMetadata metadata) {
+        _metadata = metadata;
+        return this;
+    }
+
+    /**
+     * Sets the size of the parts, at least {@link #MIN_PART_SIZE}. It is increased if the file would
+     * need more than 10000 parts.
+     */
+    public S3MultipartUpload withPartSize(long partSize) {
+        _partSize = Math.max(MIN_PART_SIZE, partSize);
+        return this;
+    }
+
+    public S3MultipartUpload withConcurrency(int concurrency) {
+        _concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    public S3MultipartUpload withMaxRetriesPerPart(int maxRetriesPerPart) {
+        _maxRetriesPerPart = maxRetriesPerPart;
+        return this;
+    }
+
+    /**
+     * Sends the md5 digest of every part along, so s3 rejects corrupted parts.
+     */
+    public S3MultipartUpload withMd5Check(boolean md5Check) {
+        _md5Check = md5Check;
+        return this;
+    }
+
+    public long getPartSize() {
+        long minPartSizeForFile = (_file.length() + MAX_PARTS - 1) / MAX_PARTS;
+        return Math.max(_partSize, minPartSizeForFile);
+    }
+
+    public int getPartCount() {
+        long partSize = getPartSize();
+        return (int) Math.max(1, (_file.length() + partSize - 1) / partSize);
+    }
+
+    public void execute() {
+        if (getPartCount() == 1) {
+            _s3Service.putObject(new PutObjectRequest(_bucket, _key, _file).withMetadata(_metadata));
+            return;
+        }
+        String uploadId = _s3Service.initiateMultipartUpload(new InitiateMultipartUploadRequest(_bucket, _key, _metadata)).getUploadId();
+        LOG.info("uploading " + _file + " in " + getPartCount() + " parts to " + _bucket + "/" + _key);
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(_concurrency, getPartCount()), new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("s3-upload-%d").build());
+        boolean successful = false;
+        List<Future<PartETag>> futures = new ArrayList<Future<PartETag>>();
+        try {
+            long partSize = getPartSize();
+            for (int i = 0; i < getPartCount(); i++) {
+                final long offset = i * partSize;
+                final UploadPartRequest request = new UploadPartRequest().withBucketName(_bucket).withKey(_key).withUploadId(uploadId).withPartNumber(i + 1).withFile(_file)
+                        .withFileOffset(offset).withPartSize(Math.min(partSize, _file.length() - offset)).withLastPart(i == getPartCount() - 1);
+                futures.add(executorService.submit(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() throws IOException {
+                        return uploadPart(request);
+                    }
+                }));
+            }
+            List<PartETag> partETags = new ArrayList<PartETag>();
+            for (Future<PartETag> future : futures) {
+                partETags.add(future.get());
+            }
+            Collections.sort(partETags, new Comparator<PartETag>() {
+                @Override
+                public int compare(PartETag o1, PartETag o2) {
+                    return o1.getPartNumber() - o2.getPartNumber();
+                }
+            });
+            _s3Service.completeMultipartUpload(new CompleteMultipartUploadRequest(_bucket, _key, uploadId, partETags));
+            successful = true;
+        } catch (ExecutionException e) {
+            throw ExceptionUtil.convertToRuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            throw ExceptionUtil.convertToRuntimeException(e);
+        } finally {
+            // parts finishing after the abort would be kept (and billed) by s3
+            ExecutorUtil.cancelAndAwaitTermination(executorService, futures, ExecutorUtil.DEFAULT_TERMINATION_TIMEOUT, TimeUnit.MILLISECONDS);
+            if (!successful) {
+                abort(uploadId);
+            }
+        }
+    }
+
+    private PartETag uploadPart(final UploadPartRequest request) throws IOException {
+        if (_md5Check) {
+            byte[] md5 = Files.asByteSource(_file).slice(request.getFileOffset(), request.getPartSize()).hash(Hashing.md5()).asBytes();
+            request.setMd5Digest(BaseEncoding.base64().encode(md5));
+        }
+        final PartETag[] partETag = new PartETag[1];
+        Retry.onExceptions(AmazonClientException.class).withMaxRetries(_maxRetriesPerPart).withBackoff(BackoffPolicies.exponentialWithJitter(1000, 10000)).execute(new Runnable() {
+            @Override
+            public void run() {
+                partETag[0] = _s3Service.uploadPart(request).getPartETag();
+            }
+        });
+        return partETag[0];
+    }
+
+    private void abort(String uploadId) {
+        LOG.warn("aborting upload of " + _file + " to " + _bucket + "/" + _key);
+        try {
+            _s3Service.abortMultipartUpload(new AbortMultipartUploadRequest(_bucket, _key, uploadId));
+        } catch (AmazonClientException e) {
+            LOG.warn("failed to abort upload " + uploadId + " of " + _bucket + "/" + _key, e);
+        }
+    }
+}
@@ -16,29 +16,161 @@
 package datameer.awstasks.util;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import awstasks.com.amazonaws.services.s3.AmazonS3;
 import awstasks.com.amazonaws.services.s3.model.AmazonS3Exception;
+import awstasks.com.amazonaws.services.s3.model.ListObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.ObjectListing;
+import awstasks.com.amazonaws.services.s3.model.ObjectMetadata;
+import awstasks.com.amazonaws.services.s3.model.S3ObjectSummary;
+import datameer.com.google.common.base.Function;
+import datameer.com.google.common.collect.AbstractIterator;
+import datameer.com.google.common.collect.Iterables;
 
 public class S3Util {
 
+    /**
+     * Uploads the file, in parallel parts if it is big. See {@link S3MultipartUpload} for more
+     * options.
+     */
     public static void uploadFile(AmazonS3 s3Service, String bucket, File file, String remotePath) {
-        if (remotePath.startsWith("/")) {
-            remotePath = remotePath.substring(1);
+        new S3MultipartUpload(s3Service, bucket, file, remotePath).execute();
+    }
+
+    /**
+     * Uploads the file and attaches the given user metadata to it.
+     */
+    public static void uploadFile(AmazonS3 s3Service, String bucket, File file, String remotePath, Map<String, String> userMetadata) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setUserMetadata(userMetadata);
+        new S3MultipartUpload(s3Service, bucket, file, remotePath).withMetadata(metadata).execute();
+    }
+
+    /**
+     * Downloads the file with parallel ranged requests. See {@link S3MultipartDownload} for more
+     * options.
+     */
+    public static void downloadFile(AmazonS3 s3Service, String bucket, String remotePath, File file) {
+        new S3MultipartDownload(s3Service, bucket, remotePath, file).execute();
+    }
+
+    /**
+     * Downloads all files with the given prefix into the directory, keeping their path relative to
+     * the prefix. Up to the given number of files are downloaded at once.
+     */
+    public static void downloadFiles(final AmazonS3 s3Service, final String bucket, String prefix, final File targetDir, int concurrency, final boolean resume) {
+        if (prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
         }
-        s3Service.putObject(bucket, remotePath, file);
+        List<S3ObjectSummary> objectSummaries = new ArrayList<S3ObjectSummary>();
+        Iterables.addAll(objectSummaries, listObjects(s3Service, bucket, prefix));
+        final String keyPrefix = prefix;
+        final int partConcurrency = objectSummaries.size() == 1 ? concurrency : 1;
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, objectSummaries.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final S3ObjectSummary objectSummary : objectSummaries) {
+                if (objectSummary.getKey().endsWith("/")) {
+                    continue;// folder placeholder
+                }
+                futures.add(executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        File file = new File(targetDir, objectSummary.getKey().substring(keyPrefix.length()));
+                        new S3MultipartDownload(s3Service, bucket, objectSummary.getKey(), file).withConcurrency(partConcurrency).withResume(resume).execute();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw ExceptionUtil.convertToRuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            throw ExceptionUtil.convertToRuntimeException(e);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Lazily iterates over the pages of the listing. A page is requested only when the previous one
+     * is consumed, the max-keys of the request controls the page size. The given request isn't
+     * modified.
+     */
+    public static Iterable<ObjectListing> listObjectPages(final AmazonS3 s3Service, final ListObjectsRequest request) {
+        return new Iterable<ObjectListing>() {
+            @Override
+            public Iterator<ObjectListing> iterator() {
+                return new ObjectListingIterator(s3Service, request);
+            }
+        };
+    }
+
+    /**
+     * Lazily iterates over the objects of the listing, see
+     * {@link #listObjectPages(AmazonS3, ListObjectsRequest)}. With a delimiter set, the common
+     * prefixes are only available through the pages.
+     */
+    public static Iterable<S3ObjectSummary> listObjects(AmazonS3 s3Service, ListObjectsRequest request) {
+        return Iterables.concat(Iterables.transform(listObjectPages(s3Service, request), new Function<ObjectListing, List<S3ObjectSummary>>() {
+            @Override
+            public List<S3ObjectSummary> apply(ObjectListing objectListing) {
+                return objectListing.getObjectSummaries();
+            }
+        }));
+    }
+
+    /**
+     * Lazily iterates over all objects with the given prefix.
+     */
+    public static Iterable<S3ObjectSummary> listObjects(AmazonS3 s3Service, String bucket, String prefix) {
+        return listObjects(s3Service, new ListObjectsRequest().withBucketName(bucket).withPrefix(prefix));
+    }
+
+    /**
+     * Lists all objects with the given prefix, fanning out over the common prefixes below it with up
+     * to the given number of concurrent listings. The objects come in no particular order. See
+     * {@link ParallelObjectListing}, which has to be closed if not consumed entirely.
+     */
+    public static ParallelObjectListing listObjectsParallel(AmazonS3 s3Service, String bucket, String prefix, int concurrency) {
+        return new ParallelObjectListing(s3Service, bucket, prefix, concurrency);
+    }
+
+    /**
+     * Uploads all files of the directory which are missing or changed under the prefix. See
+     * {@link S3DirectorySync} for more options.
+     */
+    public static void sync(AmazonS3 s3Service, File localDir, String bucket, String prefix, boolean deleteRemoved) {
+        new S3DirectorySync(s3Service, localDir, bucket, prefix).withDelete(deleteRemoved).execute();
     }
 
     public static boolean existsFile(AmazonS3 s3Service, String bucketName, String remotePath) {
+        return getObjectMetadata(s3Service, bucketName, remotePath) != null;
+    }
+
+    /**
+     * Retrieves the metadata of a file with a HEAD request.
+     * 
+     * @return the metadata or null if the file does not exist
+     */
+    public static ObjectMetadata getObjectMetadata(AmazonS3 s3Service, String bucketName, String remotePath) {
         if (remotePath.startsWith("/")) {
             remotePath = remotePath.substring(1);
         }
         try {
-            s3Service.getObjectAcl(bucketName, remotePath);
-            return true;
+            return s3Service.getObjectMetadata(bucketName, remotePath);
         } catch (AmazonS3Exception e) {
-            if ("NoSuchKey".equals(e.getErrorCode())) {
-                return false;
+            if (e.getStatusCode() == 404 || "NoSuchKey".equals(e.getErrorCode())) {
+                return null;
             }
             throw e;
         }
@@ -51,4 +183,28 @@ public class S3Util {
         return name;
     }
 
+    private static class ObjectListingIterator extends AbstractIterator<ObjectListing> {
+
+        private final AmazonS3 _s3Service;
+        private final ListObjectsRequest _request;
+        private ObjectListing _objectListing;
+
+        public ObjectListingIterator(AmazonS3 s3Service, ListObjectsRequest request) {
+            _s3Service = s3Service;
+            _request = request;
+        }
+
+        @Override
+        protected ObjectListing computeNext() {
+            if (_objectListing == null) {
+                _objectListing = _s3Service.listObjects(_request);
+            } else if (_objectListing.isTruncated()) {
+                _objectListing = _s3Service.listNextBatchOfObjects(_objectListing);
+            } else {
+                return endOfData();
+            }
+            return _objectListing;
+        }
+    }
+
 }
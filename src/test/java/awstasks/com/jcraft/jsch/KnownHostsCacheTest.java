@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package awstasks.com.jcraft.jsch;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import datameer.awstasks.AbstractTest;
+import datameer.awstasks.util.IoUtil;
+
+public class KnownHostsCacheTest extends AbstractTest {
+
+    @Test
+    public void testReloadOnlyOnChange() throws Exception {
+        File knownHostsFile = _tempFolder.newFile("known_hosts");
+        IoUtil.writeFile(knownHostsFile, "# first version");
+        JSch jsch = new JSch();
+
+        HostKeyRepository knownHosts = KnownHostsCache.getKnownHosts(knownHostsFile.getAbsolutePath(), jsch);
+        assertThat(KnownHostsCache.getKnownHosts(knownHostsFile.getAbsolutePath(), jsch)).isSameAs(knownHosts);
+
+        IoUtil.writeFile(knownHostsFile, "# second version", "# with more lines");
+        assertThat(KnownHostsCache.getKnownHosts(knownHostsFile.getAbsolutePath(), jsch)).isNotSameAs(knownHosts);
+    }
+}
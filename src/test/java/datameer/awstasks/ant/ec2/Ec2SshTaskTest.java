@@ -24,10 +24,14 @@ import static org.mockito.Mockito.*;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -38,6 +42,7 @@ import datameer.awstasks.ant.ec2.model.ScpDownload;
 import datameer.awstasks.ant.ec2.model.ScpUpload;
 import datameer.awstasks.ant.ec2.model.SshExec;
 import datameer.awstasks.aws.ec2.InstanceGroup;
+import datameer.awstasks.aws.ec2.ssh.RollingExecution;
 import datameer.awstasks.aws.ec2.ssh.SshClient;
 
 public class Ec2SshTaskTest extends AbstractTest {
@@ -89,6 +94,110 @@ public class Ec2SshTaskTest extends AbstractTest {
         assertEquals(hostName1, _sshTask.getProject().getProperty(outpuProperty));
     }
 
+    @Test
+    public void testRollingExecution() throws Exception {
+        String command1 = "hostname";
+        String outpuProperty = "prop.hostnames";
+        SshExec sshExec1 = createSshExec(_sshTask, command1, outpuProperty);
+        sshExec1.setBatchSize(2);
+        sshExec1.setMaxFailures(1);
+        SshExec sshExec2 = createSshExec(_sshTask, "echo $prop.hostnames", null);
+        sshExec2.setBatchSize(1);
+
+        String hostName1 = "host1";
+        writeToOutputStream(hostName1).when(_sshClient).executeCommand(eq(command1), (OutputStream) notNull(), (RollingExecution) notNull());
+
+        _sshTask.execute();
+        ArgumentCaptor<RollingExecution> rollingExecution = ArgumentCaptor.forClass(RollingExecution.class);
+        verify(_sshClient).executeCommand(eq(command1), (OutputStream) notNull(), rollingExecution.capture());
+        assertEquals(2, rollingExecution.getValue().getBatchSize());
+        assertEquals(1, rollingExecution.getValue().getMaxFailures());
+        verify(_sshClient).executeCommand(eq("echo " + hostName1), (OutputStream) notNull(), rollingExecution.capture());
+        assertEquals(1, rollingExecution.getValue().getBatchSize());
+        verify(_sshClient, never()).executeCommand(anyString(), (OutputStream) any());
+        assertEquals(hostName1, _sshTask.getProject().getProperty(outpuProperty));
+    }
+
+    @Test
+    public void testParallelExecution_IndependentCommandsRunConcurrently() throws Exception {
+        _sshTask.setParallel(true);
+        ScpUpload scpUpload1 = createScpUpload(_sshTask, "a", "b");
+        ScpUpload scpUpload2 = createScpUpload(_sshTask, "c", "d");
+
+        // each upload blocks until the other one has been started
+        final CountDownLatch latch = new CountDownLatch(2);
+        Answer<Void> awaitOther = new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                latch.countDown();
+                assertTrue(latch.await(10, TimeUnit.SECONDS));
+                return null;
+            }
+        };
+        doAnswer(awaitOther).when(_sshClient).uploadFile(scpUpload1.getLocalFile(), scpUpload1.getRemotePath());
+        doAnswer(awaitOther).when(_sshClient).uploadFile(scpUpload2.getLocalFile(), scpUpload2.getRemotePath());
+
+        _sshTask.execute();
+        verify(_sshClient).uploadFile(scpUpload1.getLocalFile(), scpUpload1.getRemotePath());
+        verify(_sshClient).uploadFile(scpUpload2.getLocalFile(), scpUpload2.getRemotePath());
+    }
+
+    @Test
+    public void testParallelExecution_DependsOn() throws Exception {
+        _sshTask.setParallel(true);
+        SshExec sshExec1 = createSshExec(_sshTask, "echo 1", null);
+        sshExec1.setDependsOn("upload1, upload2");
+        ScpUpload scpUpload1 = createScpUpload(_sshTask, "a", "b");
+        scpUpload1.setId("upload1");
+        ScpUpload scpUpload2 = createScpUpload(_sshTask, "c", "d");
+        scpUpload2.setId("upload2");
+        scpUpload2.setDependsOn("upload1");
+
+        _sshTask.execute();
+        InOrder inOrder = inOrder(_sshClient);
+        inOrder.verify(_sshClient).uploadFile(scpUpload1.getLocalFile(), scpUpload1.getRemotePath());
+        inOrder.verify(_sshClient).uploadFile(scpUpload2.getLocalFile(), scpUpload2.getRemotePath());
+        inOrder.verify(_sshClient).executeCommand(eq(sshExec1.getCommand()), (OutputStream) notNull());
+    }
+
+    @Test
+    public void testParallelExecution_FailureStopsDependentCommands() throws Exception {
+        _sshTask.setParallel(true);
+        ScpUpload scpUpload1 = createScpUpload(_sshTask, "a", "b");
+        scpUpload1.setId("upload1");
+        SshExec sshExec1 = createSshExec(_sshTask, "echo 1", null);
+        sshExec1.setDependsOn("upload1");
+        doThrow(new IllegalStateException("upload failed")).when(_sshClient).uploadFile(scpUpload1.getLocalFile(), scpUpload1.getRemotePath());
+
+        try {
+            _sshTask.execute();
+            fail("should throw exception");
+        } catch (BuildException e) {
+            assertEquals("upload failed", e.getCause().getMessage());
+        }
+        verify(_sshClient, never()).executeCommand(eq(sshExec1.getCommand()), (OutputStream) notNull());
+    }
+
+    @Test(expected = BuildException.class)
+    public void testParallelExecution_CyclicDependencies() throws Exception {
+        _sshTask.setParallel(true);
+        SshExec sshExec1 = createSshExec(_sshTask, "echo 1", null);
+        sshExec1.setId("exec1");
+        sshExec1.setDependsOn("exec2");
+        SshExec sshExec2 = createSshExec(_sshTask, "echo 2", null);
+        sshExec2.setId("exec2");
+        sshExec2.setDependsOn("exec1");
+        _sshTask.execute();
+    }
+
+    @Test(expected = BuildException.class)
+    public void testParallelExecution_UnknownDependency() throws Exception {
+        _sshTask.setParallel(true);
+        SshExec sshExec1 = createSshExec(_sshTask, "echo 1", null);
+        sshExec1.setDependsOn("unknown");
+        _sshTask.execute();
+    }
+
     private ScpUpload createScpUpload(Ec2SshTask sshTask, String from, String to) {
         ScpUpload scpUpload = new ScpUpload();
         sshTask.addUpload(scpUpload);
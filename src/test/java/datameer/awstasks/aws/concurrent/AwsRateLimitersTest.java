@@ -0,0 +1,30 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.concurrent;
+
+import static org.fest.assertions.Assertions.*;
+
+import org.junit.Test;
+
+public class AwsRateLimitersTest {
+
+    @Test
+    public void testS3BucketsShareLimiter() throws Exception {
+        assertThat(AwsRateLimiters.toServiceEndpointHost("mybucket.s3.amazonaws.com")).isEqualTo("s3.amazonaws.com");
+        assertThat(AwsRateLimiters.toServiceEndpointHost("my.s3.bucket.s3-us-west-2.amazonaws.com")).isEqualTo("s3-us-west-2.amazonaws.com");
+        assertThat(AwsRateLimiters.toServiceEndpointHost("ec2.us-east-1.amazonaws.com")).isEqualTo("ec2.us-east-1.amazonaws.com");
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.concurrent;
+
+import static org.fest.assertions.Assertions.*;
+
+import org.junit.Test;
+
+public class TokenBucketRateLimiterTest {
+
+    @Test
+    public void testBurstWithoutWait() throws Exception {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertThat(rateLimiter.acquire()).isEqualTo(0);
+        }
+        assertThat(rateLimiter.getAcquireCount()).isEqualTo(5);
+        assertThat(rateLimiter.getWaitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testWaitWhenExhausted() throws Exception {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(10, 1);
+        rateLimiter.acquire();
+        long start = System.currentTimeMillis();
+        long waitTime = rateLimiter.acquire();
+        assertThat(waitTime).isGreaterThan(50).isLessThanOrEqualTo(100);
+        assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(waitTime - 10);
+        assertThat(rateLimiter.getWaitCount()).isEqualTo(1);
+        assertThat(rateLimiter.getTotalWaitTime()).isEqualTo(waitTime);
+    }
+}
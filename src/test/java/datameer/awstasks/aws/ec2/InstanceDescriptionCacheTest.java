@@ -0,0 +1,137 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.ec2;
+
+import static org.fest.assertions.Assertions.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import awstasks.com.amazonaws.services.ec2.AmazonEC2;
+import awstasks.com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import awstasks.com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import awstasks.com.amazonaws.services.ec2.model.Instance;
+import awstasks.com.amazonaws.services.ec2.model.InstanceState;
+import awstasks.com.amazonaws.services.ec2.model.Reservation;
+
+public class InstanceDescriptionCacheTest {
+
+    private final List<Instance> _instances = Arrays.asList(new Instance().withInstanceId("i-1"), new Instance().withInstanceId("i-2"));
+
+    @Test
+    public void testCachedWithinTtl() throws Exception {
+        AmazonEC2 ec2 = mockEc2(null);
+        InstanceDescriptionCache cache = new InstanceDescriptionCache(10000);
+        List<Instance> instances = cache.getInstances(ec2, _instances);
+        assertThat(instances).hasSize(2);
+        assertThat(instances.get(0).getState().getName()).isEqualTo("running");
+        assertThat(cache.getInstances(ec2, _instances)).isEqualTo(instances);
+        verify(ec2, times(1)).describeInstances(any(DescribeInstancesRequest.class));
+
+        cache.invalidate(Arrays.asList("i-1"));
+        cache.getInstances(ec2, _instances);
+        verify(ec2, times(2)).describeInstances(any(DescribeInstancesRequest.class));
+    }
+
+    @Test
+    public void testConcurrentCallersShareDescribe() throws Exception {
+        final CountDownLatch describeLatch = new CountDownLatch(1);
+        final AmazonEC2 ec2 = mockEc2(describeLatch);
+        final InstanceDescriptionCache cache = new InstanceDescriptionCache(10000);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        Callable<List<Instance>> callable = new Callable<List<Instance>>() {
+            @Override
+            public List<Instance> call() throws Exception {
+                return cache.getInstances(ec2, _instances);
+            }
+        };
+        Future<List<Instance>> future1 = executorService.submit(callable);
+        Future<List<Instance>> future2 = executorService.submit(callable);
+        Thread.sleep(200);
+        describeLatch.countDown();
+        assertThat(future1.get()).isEqualTo(future2.get());
+        verify(ec2, times(1)).describeInstances(any(DescribeInstancesRequest.class));
+        executorService.shutdown();
+    }
+
+    @Test
+    public void testErrorReleasesWaitingCallers() throws Exception {
+        final CountDownLatch describeLatch = new CountDownLatch(1);
+        final AmazonEC2 ec2 = mock(AmazonEC2.class);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenAnswer(new Answer<DescribeInstancesResult>() {
+            @Override
+            public DescribeInstancesResult answer(InvocationOnMock invocation) throws Throwable {
+                describeLatch.await();
+                throw new NoClassDefFoundError("missing");
+            }
+        });
+        final InstanceDescriptionCache cache = new InstanceDescriptionCache(10000);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        Callable<List<Instance>> callable = new Callable<List<Instance>>() {
+            @Override
+            public List<Instance> call() throws Exception {
+                return cache.getInstances(ec2, _instances);
+            }
+        };
+        Future<List<Instance>> future1 = executorService.submit(callable);
+        Future<List<Instance>> future2 = executorService.submit(callable);
+        Thread.sleep(200);
+        describeLatch.countDown();
+        for (Future<List<Instance>> future : Arrays.asList(future1, future2)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("should throw exception");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(NoClassDefFoundError.class);
+            }
+        }
+        verify(ec2, times(1)).describeInstances(any(DescribeInstancesRequest.class));
+        executorService.shutdown();
+    }
+
+    private AmazonEC2 mockEc2(final CountDownLatch describeLatch) {
+        AmazonEC2 ec2 = mock(AmazonEC2.class);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenAnswer(new Answer<DescribeInstancesResult>() {
+            @Override
+            public DescribeInstancesResult answer(InvocationOnMock invocation) throws Throwable {
+                if (describeLatch != null) {
+                    describeLatch.await();
+                }
+                DescribeInstancesRequest request = (DescribeInstancesRequest) invocation.getArguments()[0];
+                Reservation reservation = new Reservation();
+                for (String instanceId : request.getInstanceIds()) {
+                    reservation.withInstances(new Instance().withInstanceId(instanceId).withState(new InstanceState().withName("running")));
+                }
+                return new DescribeInstancesResult().withReservations(reservation);
+            }
+        });
+        return ec2;
+    }
+}
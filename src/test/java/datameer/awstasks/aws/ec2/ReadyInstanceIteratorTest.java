@@ -0,0 +1,60 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.ec2;
+
+import static org.fest.assertions.Assertions.*;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import awstasks.com.amazonaws.services.ec2.model.Instance;
+
+public class ReadyInstanceIteratorTest {
+
+    @Test
+    public void testIterateWhileProducing() throws Exception {
+        final ReadyInstanceIterator iterator = new ReadyInstanceIterator();
+        iterator.instanceReady(new Instance().withInstanceId("i-1"));
+        assertThat(iterator.next().getInstanceId()).isEqualTo("i-1");
+
+        new Thread() {
+            @Override
+            public void run() {
+                iterator.instanceReady(new Instance().withInstanceId("i-2"));
+                iterator.finish(null);
+            }
+        }.start();
+        assertThat(iterator.hasNext()).isTrue();
+        assertThat(iterator.next().getInstanceId()).isEqualTo("i-2");
+        assertThat(iterator.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testFailureAfterReadyInstances() throws Exception {
+        ReadyInstanceIterator iterator = new ReadyInstanceIterator();
+        iterator.instanceReady(new Instance().withInstanceId("i-1"));
+        iterator.finish(new IllegalStateException("timeout"));
+
+        assertThat(iterator.next().getInstanceId()).isEqualTo("i-1");
+        try {
+            iterator.hasNext();
+            fail("should throw exception");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("timeout");
+        }
+    }
+}
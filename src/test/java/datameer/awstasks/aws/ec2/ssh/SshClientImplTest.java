@@ -0,0 +1,161 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.ec2.ssh;
+
+import static org.fest.assertions.Assertions.*;
+
+import static org.junit.Assert.*;
+
+import static org.mockito.Matchers.*;
+
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import awstasks.com.jcraft.jsch.Session;
+import datameer.awstasks.AbstractTest;
+import datameer.awstasks.ssh.JschCommand;
+import datameer.awstasks.ssh.JschRunner;
+import datameer.com.google.common.collect.Lists;
+
+public class SshClientImplTest extends AbstractTest {
+
+    private final List<String> _hosts = Arrays.asList("host0", "host1", "host2", "host3", "host4");
+    private final List<String> _executedHosts = Collections.synchronizedList(Lists.<String> newArrayList());
+    private final AtomicInteger _runningCount = new AtomicInteger();
+    private final AtomicInteger _maxRunningCount = new AtomicInteger();
+
+    @Test
+    public void testRollingExecution_BatchSizeLimitsConcurrency() throws Exception {
+        SshClient sshClient = createSshClient();
+        sshClient.executeCommand("hostname", new ByteArrayOutputStream(), new RollingExecution(2));
+        assertThat(_executedHosts).hasSize(5);
+        assertThat(_executedHosts.subList(0, 2)).containsOnly("host0", "host1");
+        assertThat(_executedHosts.subList(2, 4)).containsOnly("host2", "host3");
+        assertThat(_maxRunningCount.get()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    public void testRollingExecution_FailuresWithinBudget() throws Exception {
+        SshClient sshClient = createSshClient("host1");
+        sshClient.executeCommand("hostname", new ByteArrayOutputStream(), new RollingExecution(1).withMaxFailures(1));
+        assertThat(_executedHosts).isEqualTo(_hosts);
+    }
+
+    @Test
+    public void testRollingExecution_FailureBudgetExceeded() throws Exception {
+        SshClient sshClient = createSshClient("host1", "host2");
+        try {
+            sshClient.executeCommand("hostname", new ByteArrayOutputStream(), new RollingExecution(1).withMaxFailures(1));
+            fail("should throw exception");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("host1").contains("host2");
+        }
+        assertThat(_executedHosts).isEqualTo(Arrays.asList("host0", "host1", "host2"));
+    }
+
+    @Test
+    public void testRollingExecution_TargetedInstances() throws Exception {
+        SshClient sshClient = createSshClient();
+        sshClient.executeCommand("hostname", new ByteArrayOutputStream(), new int[] { 1, 3 }, new RollingExecution(1));
+        assertThat(_executedHosts).isEqualTo(Arrays.asList("host1", "host3"));
+    }
+
+    @Test
+    public void testConnectedSessionIsUsedOnce() throws Exception {
+        SshClientImpl sshClient = new SshClientImpl("user", "password", _hosts);
+        Session session = mockSession(true);
+        sshClient.setConnectedSessions(Collections.singletonMap("host0", session), 10000);
+        assertSame(session, sshClient.takeConnectedSession("host0"));
+        assertNull(sshClient.takeConnectedSession("host0"));
+        sshClient.close();
+        verify(session, never()).disconnect();
+    }
+
+    @Test
+    public void testStaleConnectedSessionIsDisconnected() throws Exception {
+        SshClientImpl sshClient = new SshClientImpl("user", "password", _hosts);
+        Session session = mockSession(false);
+        sshClient.setConnectedSessions(Collections.singletonMap("host0", session), 10000);
+        assertNull(sshClient.takeConnectedSession("host0"));
+        verify(session).disconnect();
+    }
+
+    @Test
+    public void testUnusedConnectedSessionExpires() throws Exception {
+        SshClientImpl sshClient = new SshClientImpl("user", "password", _hosts);
+        Session session = mockSession(true);
+        sshClient.setConnectedSessions(Collections.singletonMap("host0", session), 50);
+        Thread.sleep(300);
+        verify(session).disconnect();
+        assertNull(sshClient.takeConnectedSession("host0"));
+    }
+
+    @Test
+    public void testCloseDisconnectsUnusedSessions() throws Exception {
+        SshClientImpl sshClient = new SshClientImpl("user", "password", _hosts);
+        Session session = mockSession(true);
+        sshClient.setConnectedSessions(Collections.singletonMap("host0", session), 10000);
+        sshClient.close();
+        verify(session).disconnect();
+        assertNull(sshClient.takeConnectedSession("host0"));
+    }
+
+    private static Session mockSession(boolean connected) {
+        Session session = mock(Session.class);
+        when(session.isConnected()).thenReturn(connected);
+        return session;
+    }
+
+    private SshClient createSshClient(final String... failingHosts) {
+        return new SshClientImpl("user", "password", _hosts) {
+            @Override
+            protected JschRunner createJschRunner(final String host) {
+                JschRunner jschRunner = mock(JschRunner.class);
+                try {
+                    doAnswer(new Answer<Void>() {
+                        @Override
+                        public Void answer(InvocationOnMock invocation) throws Throwable {
+                            _maxRunningCount.set(Math.max(_maxRunningCount.get(), _runningCount.incrementAndGet()));
+                            try {
+                                Thread.sleep(50);
+                                _executedHosts.add(host);
+                                if (Arrays.asList(failingHosts).contains(host)) {
+                                    throw new IOException("failed on " + host);
+                                }
+                                return null;
+                            } finally {
+                                _runningCount.decrementAndGet();
+                            }
+                        }
+                    }).when(jschRunner).run(any(JschCommand.class));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return jschRunner;
+            }
+        };
+    }
+}
@@ -21,7 +21,14 @@ import static org.junit.Assert.*;
 
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -56,6 +63,75 @@ public class AmazonElasticMapReduceCustomClientTest {
         assertNull(cache.getResponse(request2));
     }
 
+    @Test
+    public void testFlowDescriptionCache_ChangeMaxCacheTime() throws Exception {
+        JobFlowDescriptionCache cache = new JobFlowDescriptionCache(10000);
+        DescribeJobFlowsRequest request = new DescribeJobFlowsRequest().withJobFlowIds("jf1");
+        cache.addResponse(request, new DescribeJobFlowsResult());
+        assertNotNull(cache.getResponse(request));
+        assertEquals(1, cache.getStats().hitCount());
+
+        // entries and statistics survive a change of the max cache time
+        cache.setMaxCacheTime(5000);
+        assertNotNull(cache.getResponse(request));
+        assertEquals(2, cache.getStats().hitCount());
+
+        // a shorter max cache time applies to the already cached entries
+        cache.setMaxCacheTime(0);
+        assertNull(cache.getResponse(request));
+        assertEquals(2, cache.getStats().hitCount());
+        assertEquals(1, cache.getStats().missCount());
+    }
+
+    @Test
+    public void testFlowDescriptionCache_CoalesceConcurrentLoads() throws Exception {
+        final JobFlowDescriptionCache cache = new JobFlowDescriptionCache(10000);
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch finishLoad = new CountDownLatch(1);
+        final Callable<DescribeJobFlowsResult> loader = new Callable<DescribeJobFlowsResult>() {
+            @Override
+            public DescribeJobFlowsResult call() throws Exception {
+                loadCount.incrementAndGet();
+                loadStarted.countDown();
+                finishLoad.await();
+                return new DescribeJobFlowsResult();
+            }
+        };
+        ExecutorService executorService = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<DescribeJobFlowsResult>> futures = new ArrayList<Future<DescribeJobFlowsResult>>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(executorService.submit(new Callable<DescribeJobFlowsResult>() {
+                    @Override
+                    public DescribeJobFlowsResult call() throws Exception {
+                        return cache.getResponse(new DescribeJobFlowsRequest().withJobFlowIds("jf1"), loader);
+                    }
+                }));
+            }
+            loadStarted.await();
+            // a different request isn't blocked by the running load
+            assertNotNull(cache.getResponse(new DescribeJobFlowsRequest().withJobFlowIds("jf2"), new Callable<DescribeJobFlowsResult>() {
+                @Override
+                public DescribeJobFlowsResult call() throws Exception {
+                    return new DescribeJobFlowsResult();
+                }
+            }));
+            finishLoad.countDown();
+            DescribeJobFlowsResult result = futures.get(0).get();
+            for (Future<DescribeJobFlowsResult> future : futures) {
+                assertSame(result, future.get());
+            }
+            assertEquals(1, loadCount.get());
+
+            long hitCount = cache.getStats().hitCount();
+            assertSame(result, cache.getResponse(new DescribeJobFlowsRequest().withJobFlowIds("jf1"), loader));
+            assertEquals(hitCount + 1, cache.getStats().hitCount());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void testDoWithRetry_ThrottleException() throws Exception {
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.emr;
+
+import static org.fest.assertions.Assertions.*;
+
+import static org.junit.Assert.*;
+
+import static org.mockito.Matchers.*;
+
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import awstasks.com.amazonaws.services.elasticmapreduce.AmazonElasticMapReduce;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeJobFlowsRequest;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeJobFlowsResult;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.JobFlowDetail;
+import datameer.awstasks.aws.emr.JobFlowPoller.JobFlowListener;
+
+public class JobFlowPollerTest {
+
+    @Test
+    public void testBatchesWatchedJobFlows() throws Exception {
+        AmazonElasticMapReduce emr = mock(AmazonElasticMapReduce.class);
+        when(emr.describeJobFlows((DescribeJobFlowsRequest) any())).thenAnswer(new Answer<DescribeJobFlowsResult>() {
+            @Override
+            public DescribeJobFlowsResult answer(InvocationOnMock invocation) throws Throwable {
+                DescribeJobFlowsRequest request = (DescribeJobFlowsRequest) invocation.getArguments()[0];
+                DescribeJobFlowsResult result = new DescribeJobFlowsResult();
+                for (String jobFlowId : request.getJobFlowIds()) {
+                    result.withJobFlows(new JobFlowDetail().withJobFlowId(jobFlowId));
+                }
+                return result;
+            }
+        });
+        JobFlowPoller poller = new JobFlowPoller(emr, 20);
+        AtomicInteger updates1 = new AtomicInteger();
+        AtomicInteger updates2 = new AtomicInteger();
+        CompletableFuture<Void> future1 = poller.watch("jf1", newListener(updates1, 2));
+        CompletableFuture<Void> future2 = poller.watch("jf2", newListener(updates2, 3));
+        assertThat(poller.getWatchedJobFlowIds()).containsOnly("jf1", "jf2");
+
+        future1.get(5, TimeUnit.SECONDS);
+        future2.get(5, TimeUnit.SECONDS);
+        assertEquals(2, updates1.get());
+        assertEquals(3, updates2.get());
+        assertThat(poller.getWatchedJobFlowIds()).isEmpty();
+
+        ArgumentCaptor<DescribeJobFlowsRequest> requestCaptor = ArgumentCaptor.forClass(DescribeJobFlowsRequest.class);
+        verify(emr, times(3)).describeJobFlows(requestCaptor.capture());
+        assertThat(requestCaptor.getAllValues().get(0).getJobFlowIds()).containsOnly("jf1", "jf2");
+        assertThat(requestCaptor.getAllValues().get(2).getJobFlowIds()).containsOnly("jf2");
+    }
+
+    @Test
+    public void testUnknownJobFlow() throws Exception {
+        AmazonElasticMapReduce emr = mock(AmazonElasticMapReduce.class);
+        when(emr.describeJobFlows((DescribeJobFlowsRequest) any())).thenReturn(new DescribeJobFlowsResult());
+        JobFlowPoller poller = new JobFlowPoller(emr, 20);
+        CompletableFuture<Void> future = poller.watch("jf1", newListener(new AtomicInteger(), 1));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("should throw exception");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    public void testRetryFailedPoll() throws Exception {
+        AmazonElasticMapReduce emr = mock(AmazonElasticMapReduce.class);
+        when(emr.describeJobFlows((DescribeJobFlowsRequest) any())).thenThrow(new IllegalStateException("unavailable")).thenReturn(
+                new DescribeJobFlowsResult().withJobFlows(new JobFlowDetail().withJobFlowId("jf1")));
+        JobFlowPoller poller = new JobFlowPoller(emr, 20);
+        AtomicInteger updates = new AtomicInteger();
+        poller.watch("jf1", newListener(updates, 1)).get(5, TimeUnit.SECONDS);
+        assertEquals(1, updates.get());
+        verify(emr, times(2)).describeJobFlows((DescribeJobFlowsRequest) any());
+    }
+
+    @Test
+    public void testFailAfterMaxFailedPolls() throws Exception {
+        AmazonElasticMapReduce emr = mock(AmazonElasticMapReduce.class);
+        when(emr.describeJobFlows((DescribeJobFlowsRequest) any())).thenThrow(new IllegalStateException("unavailable"));
+        JobFlowPoller poller = new JobFlowPoller(emr, 20);
+        poller.setMaxFailedPolls(3);
+        CompletableFuture<Void> future = poller.watch("jf1", newListener(new AtomicInteger(), 1));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("should throw exception");
+        } catch (ExecutionException e) {
+            assertEquals("unavailable", e.getCause().getMessage());
+        }
+        verify(emr, times(3)).describeJobFlows((DescribeJobFlowsRequest) any());
+    }
+
+    @Test
+    public void testSmallestRequestedPollInterval() throws Exception {
+        JobFlowPoller poller = new JobFlowPoller(mock(AmazonElasticMapReduce.class), 10000);
+        Object requester1 = new Object();
+        Object requester2 = new Object();
+        poller.requestPollInterval(requester1, 3000);
+        poller.requestPollInterval(requester2, 2000);
+        assertEquals(2000, poller.getPollInterval());
+        poller.requestPollInterval(requester2, 5000);
+        assertEquals(3000, poller.getPollInterval());
+        poller.removePollIntervalRequest(requester1);
+        poller.removePollIntervalRequest(requester2);
+        assertEquals(10000, poller.getPollInterval());
+    }
+
+    @Test
+    public void testCancelWatch() throws Exception {
+        AmazonElasticMapReduce emr = mock(AmazonElasticMapReduce.class);
+        JobFlowPoller poller = new JobFlowPoller(emr, 10000);
+        CompletableFuture<Void> future = poller.watch("jf1", newListener(new AtomicInteger(), 1));
+        future.cancel(true);
+        assertThat(poller.getWatchedJobFlowIds()).isEmpty();
+    }
+
+    private JobFlowListener newListener(final AtomicInteger updates, final int finishAfterUpdates) {
+        return new JobFlowListener() {
+            @Override
+            public boolean jobFlowUpdated(JobFlowDetail jobFlowDetail) {
+                return updates.incrementAndGet() >= finishAfterUpdates;
+            }
+        };
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.emr;
+
+import static org.fest.assertions.Assertions.*;
+
+import static org.junit.Assert.*;
+
+import static org.mockito.Matchers.*;
+
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import awstasks.com.amazonaws.services.elasticmapreduce.model.AddJobFlowStepsRequest;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.AddJobFlowStepsResult;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.CancelStepsRequest;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeJobFlowsRequest;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeJobFlowsResult;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeStepRequest;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.DescribeStepResult;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.JobFlowDetail;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.Step;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.StepConfig;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.StepDetail;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.StepExecutionStatusDetail;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.StepStatus;
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.ObjectMetadata;
+import awstasks.com.amazonaws.services.s3.model.PutObjectRequest;
+import datameer.awstasks.AbstractTest;
+import datameer.awstasks.aws.emr.EmrCluster.ClusterState;
+import datameer.awstasks.aws.emr.EmrCluster.StepFuture;
+import datameer.awstasks.aws.emr.EmrCluster.StepStateListener;
+import datameer.com.google.common.base.Charsets;
+import datameer.com.google.common.io.Files;
+
+public class StepFutureTest extends AbstractTest {
+
+    private EmrCluster _emrCluster;
+    private AmazonElasticMapReduceCustomClient _emrService;
+
+    @Before
+    public void setUp() {
+        _emrService = mock(AmazonElasticMapReduceCustomClient.class);
+        _emrCluster = new EmrCluster(new EmrSettings("cluster", "accessKey", "bucket"), "secret");
+        _emrCluster._emrWebService = _emrService;
+        _emrCluster._jobFlowId = "jf1";
+        _emrCluster._clusterState = ClusterState.CONNECTED;
+        _emrCluster.setJobFlowPoller(new JobFlowPoller(_emrService, 20));
+        _emrCluster.setRequestInterval(20);
+    }
+
+    @Test
+    public void testCompletesWithoutJoin() throws Exception {
+        when(_emrService.describeJobFlows((DescribeJobFlowsRequest) any())).thenReturn(describeResult("step1", StepState.PENDING), describeResult("step1", StepState.RUNNING),
+                describeResult("step1", StepState.COMPLETED));
+        final List<StepState> states = new CopyOnWriteArrayList<StepState>();
+        StepFuture stepFuture = _emrCluster.new StepFuture("step1", 1, "s-1").onStateChange(new StepStateListener() {
+            @Override
+            public void stepStateChanged(StepFuture future, StepState stepState) {
+                states.add(stepState);
+            }
+        });
+
+        assertEquals(StepState.COMPLETED, stepFuture.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertTrue(stepFuture.isDone());
+        assertThat(states).containsExactly(StepState.PENDING, StepState.RUNNING, StepState.COMPLETED);
+    }
+
+    @Test
+    public void testJoinWithTimeout() throws Exception {
+        when(_emrService.describeJobFlows((DescribeJobFlowsRequest) any())).thenReturn(describeResult("step1", StepState.RUNNING));
+        StepFuture stepFuture = _emrCluster.new StepFuture("step1", 1, "s-1");
+        assertFalse(stepFuture.join(100, TimeUnit.MILLISECONDS));
+        stepFuture.cancel(true);
+    }
+
+    @Test
+    public void testFailedStep() throws Exception {
+        when(_emrService.describeJobFlows((DescribeJobFlowsRequest) any())).thenReturn(describeResult("step1", StepState.FAILED));
+        StepFuture stepFuture = _emrCluster.new StepFuture("step1", 1, "s-1");
+        try {
+            stepFuture.join();
+            fail("should throw exception");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage()).contains("FAILED");
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        when(_emrService.describeJobFlows((DescribeJobFlowsRequest) any())).thenReturn(describeResult("step1", StepState.PENDING));
+        StepFuture stepFuture = _emrCluster.new StepFuture("step1", 1, "s-1");
+        assertTrue(stepFuture.cancel(true));
+        assertTrue(stepFuture.isCancelled());
+        verify(_emrService).cancelSteps(new CancelStepsRequest().withClusterId("jf1").withStepIds("s-1"));
+        assertThat(_emrCluster.getJobFlowPoller().getWatchedJobFlowIds()).isEmpty();
+    }
+
+    @Test
+    public void testJobFlowPollerSharedPerCredentials() throws Exception {
+        EmrCluster cluster1 = new EmrCluster(new EmrSettings("cluster1", "sharedKey", "bucket"), "sharedSecret");
+        EmrCluster cluster2 = new EmrCluster(new EmrSettings("cluster2", "sharedKey", "bucket"), "sharedSecret");
+        EmrCluster otherCluster = new EmrCluster(new EmrSettings("cluster3", "sharedKey", "bucket"), "otherSecret");
+        JobFlowPoller poller = cluster1.getJobFlowPoller();
+        assertSame(poller, cluster2.getJobFlowPoller());
+        assertNotSame(poller, otherCluster.getJobFlowPoller());
+        assertNotSame(cluster1.getEmrService(), poller.getEmrService());
+
+        cluster1.setRequestInterval(5000);
+        cluster2.setRequestInterval(3000);
+        assertEquals(3000, poller.getPollInterval());
+        cluster2.setRequestInterval(8000);
+        assertEquals(5000, poller.getPollInterval());
+        assertEquals(8000, cluster2.getRequestInterval());
+    }
+
+    @Test
+    public void testGetStepStateById() throws Exception {
+        when(_emrService.describeStep((DescribeStepRequest) any())).thenReturn(new DescribeStepResult().withStep(new Step().withStatus(new StepStatus().withState("RUNNING"))));
+        StepFuture stepFuture = _emrCluster.new StepFuture("step1", 1, "s-1");
+        assertEquals(StepState.RUNNING, stepFuture.getStepState());
+        assertEquals(1, _emrCluster.getStepIndexById("s-1"));
+        verify(_emrService).describeStep(new DescribeStepRequest().withClusterId("jf1").withStepId("s-1"));
+        stepFuture.cancel(false);
+    }
+
+    @Test
+    public void testAllOf() throws Exception {
+        when(_emrService.describeJobFlows((DescribeJobFlowsRequest) any())).thenReturn(describeResult("step1", StepState.RUNNING, "step2", StepState.PENDING),
+                describeResult("step1", StepState.COMPLETED, "step2", StepState.COMPLETED));
+        StepFuture stepFuture1 = _emrCluster.new StepFuture("step1", 1, "s-1");
+        StepFuture stepFuture2 = _emrCluster.new StepFuture("step2", 2, "s-2");
+        CompletableFuture<Void> allFuture = EmrCluster.allOf(stepFuture1, stepFuture2);
+        allFuture.get(5, TimeUnit.SECONDS);
+        assertTrue(stepFuture1.isDone());
+        assertTrue(stepFuture2.isDone());
+    }
+
+    @Test
+    public void testSubmitJobSteps() throws Exception {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        when(s3Service.doesBucketExist("bucket")).thenReturn(true);
+        _emrCluster._s3Service = s3Service;
+        when(_emrService.addJobFlowSteps((AddJobFlowStepsRequest) any())).thenReturn(new AddJobFlowStepsResult().withStepIds("s-2", "s-3", "s-4"));
+        when(_emrService.describeJobFlows((DescribeJobFlowsRequest) any())).thenReturn(
+                describeResult("step", StepState.COMPLETED, "step", StepState.PENDING, "other", StepState.PENDING, "step", StepState.PENDING));
+
+        File jarA = createJar("a.jar", "a");
+        File jarB = createJar("b.jar", "b");
+        List<StepFuture> stepFutures = _emrCluster.submitJobSteps(_emrCluster.createJobStep("step", jarA), _emrCluster.createJobStep("other", jarB), _emrCluster.createJobStep("step", jarA));
+        assertEquals(3, stepFutures.size());
+        assertEquals(2, stepFutures.get(0).getStepIndex());
+        assertEquals(3, stepFutures.get(1).getStepIndex());
+        assertEquals(4, stepFutures.get(2).getStepIndex());
+        assertEquals("s-4", stepFutures.get(2).getStepId());
+        for (StepFuture stepFuture : stepFutures) {
+            stepFuture.cancel(false);
+        }
+
+        ArgumentCaptor<AddJobFlowStepsRequest> requestCaptor = ArgumentCaptor.forClass(AddJobFlowStepsRequest.class);
+        verify(_emrService, times(1)).addJobFlowSteps(requestCaptor.capture());
+        assertEquals(3, requestCaptor.getValue().getSteps().size());
+        verify(s3Service, times(2)).getObjectMetadata(eq("bucket"), anyString());
+        verify(_emrService, never()).clearDescribeJobFlowCache();
+    }
+
+    @Test
+    public void testJobJarUploadCache() throws Exception {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        when(s3Service.doesBucketExist("bucket")).thenReturn(true);
+        _emrCluster._s3Service = s3Service;
+        when(_emrService.addJobFlowSteps((AddJobFlowStepsRequest) any())).thenReturn(new AddJobFlowStepsResult());
+        when(_emrService.describeJobFlows((DescribeJobFlowsRequest) any())).thenReturn(describeResult("step", StepState.PENDING));
+        File jar = createJar("job.jar", "v1");
+
+        // stale jar with same name gets replaced
+        ObjectMetadata staleMetadata = new ObjectMetadata();
+        staleMetadata.addUserMetadata("content-sha1", "stale");
+        when(s3Service.getObjectMetadata(eq("bucket"), anyString())).thenReturn(staleMetadata);
+        _emrCluster.createJobStep("step", jar).submit().cancel(false);
+        ArgumentCaptor<PutObjectRequest> putCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3Service).putObject(putCaptor.capture());
+        String contentHash = putCaptor.getValue().getMetadata().getUserMetaDataOf("content-sha1");
+        assertThat(contentHash).isNotEqualTo("stale");
+
+        // unchanged jar causes no further s3 calls
+        _emrCluster.createJobStep("step", jar).submit().cancel(false);
+        verify(s3Service, times(1)).doesBucketExist("bucket");
+        verify(s3Service, times(1)).getObjectMetadata(eq("bucket"), anyString());
+        verify(s3Service, times(1)).putObject((PutObjectRequest) any());
+    }
+
+    private File createJar(String name, String content) throws IOException {
+        File jar = _tempFolder.newFile(name);
+        Files.write(content, jar, Charsets.UTF_8);
+        return jar;
+    }
+
+    private static DescribeJobFlowsResult describeResult(Object... stepNamesAndStates) {
+        JobFlowDetail jobFlowDetail = new JobFlowDetail().withJobFlowId("jf1");
+        for (int i = 0; i < stepNamesAndStates.length; i += 2) {
+            StepDetail stepDetail = new StepDetail().withStepConfig(new StepConfig().withName((String) stepNamesAndStates[i]));
+            stepDetail.setExecutionStatusDetail(new StepExecutionStatusDetail().withState(stepNamesAndStates[i + 1].toString()));
+            jobFlowDetail.withSteps(stepDetail);
+        }
+        return new DescribeJobFlowsResult().withJobFlows(jobFlowDetail);
+    }
+}
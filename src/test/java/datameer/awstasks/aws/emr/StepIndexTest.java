@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.aws.emr;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import awstasks.com.amazonaws.services.elasticmapreduce.model.JobFlowDetail;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.StepConfig;
+import awstasks.com.amazonaws.services.elasticmapreduce.model.StepDetail;
+
+public class StepIndexTest {
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        StepIndex stepIndex = new StepIndex();
+        JobFlowDetail jobFlowDetail = new JobFlowDetail().withJobFlowId("jf1").withSteps(step("a"), step("b"));
+        stepIndex.update(jobFlowDetail);
+        assertEquals(1, stepIndex.getStepIndex("jf1", "a"));
+        assertEquals(2, stepIndex.getStepIndex("jf1", "b"));
+        assertEquals(0, stepIndex.getStepIndex("jf1", "c"));
+
+        jobFlowDetail.withSteps(step("a"), step("c"));
+        stepIndex.update(jobFlowDetail);
+        assertEquals(1, stepIndex.getStepIndex("jf1", "a"));
+        assertEquals(4, stepIndex.getStepIndex("jf1", "c"));
+        assertEquals(0, stepIndex.getStepIndex("jf2", "c"));
+    }
+
+    @Test
+    public void testStepIds() throws Exception {
+        StepIndex stepIndex = new StepIndex();
+        stepIndex.putStepId("jf1", "s-1", 3);
+        stepIndex.update(new JobFlowDetail().withJobFlowId("jf1").withSteps(step("a")));
+        assertEquals(3, stepIndex.getStepIndexById("jf1", "s-1"));
+
+        stepIndex.update(new JobFlowDetail().withJobFlowId("jf2").withSteps(step("a")));
+        assertEquals(0, stepIndex.getStepIndexById("jf1", "s-1"));
+        assertEquals(1, stepIndex.getStepIndex("jf2", "a"));
+    }
+
+    private static StepDetail step(String name) {
+        return new StepDetail().withStepConfig(new StepConfig().withName(name));
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.ssh;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HostAddressCacheTest {
+
+    private final AtomicInteger _lookupCount = new AtomicInteger();
+
+    @Test
+    public void testResolveWithinTtl() throws Exception {
+        HostAddressCache cache = createCache(10000);
+        InetAddress[] addresses = cache.resolve("localhost");
+        assertThat(cache.resolve("localhost")).isSameAs(addresses);
+        assertThat(_lookupCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testResolveAfterTtl() throws Exception {
+        HostAddressCache cache = createCache(50);
+        cache.resolve("localhost");
+        Thread.sleep(100);
+        cache.resolve("localhost");
+        assertThat(_lookupCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        HostAddressCache cache = createCache(10000);
+        cache.resolve("localhost");
+        cache.invalidate("localhost");
+        cache.resolve("localhost");
+        assertThat(_lookupCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testMaxHosts() throws Exception {
+        HostAddressCache cache = createCache(10000, 1);
+        cache.resolve("localhost");
+        cache.resolve("127.0.0.1");
+        cache.resolve("localhost");
+        assertThat(_lookupCount.get()).isEqualTo(3);
+    }
+
+    private HostAddressCache createCache(long ttl) {
+        return createCache(ttl, HostAddressCache.DEFAULT_MAX_HOSTS);
+    }
+
+    private HostAddressCache createCache(long ttl, int maxHosts) {
+        return new HostAddressCache(ttl, maxHosts) {
+            @Override
+            protected InetAddress[] lookup(String host) throws UnknownHostException {
+                _lookupCount.incrementAndGet();
+                return super.lookup(host);
+            }
+        };
+    }
+}
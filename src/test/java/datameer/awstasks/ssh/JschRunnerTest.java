@@ -30,6 +30,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -103,6 +105,29 @@ public class JschRunnerTest extends AbstractTest {
         }
     }
 
+    @Test
+    public void testSshBannerAvailable() throws Exception {
+        assertTrue(createJschRunner().isSshBannerAvailable());
+
+        final ServerSocket serverSocket = new ServerSocket(0);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.getOutputStream().write("HTTP/1.1 400 Bad Request\r\n".getBytes());
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }.start();
+        JschRunner jschRunner = createJschRunner();
+        jschRunner.setPort(serverSocket.getLocalPort());
+        assertFalse(jschRunner.isSshBannerAvailable());
+        serverSocket.close();
+    }
+
     private String readKeyFile(File keyFile) throws IOException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(keyFile)));
         StringBuilder builder = new StringBuilder();
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.ssh;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RacingSocketConnectorTest {
+
+    @Test
+    public void testConnectToFirstReachable() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        InetSocketAddress unreachableAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), getFreePort());
+        InetSocketAddress reachableAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+
+        Socket socket = new RacingSocketConnector(5000, 1000).connect(Arrays.asList(unreachableAddress, reachableAddress));
+        assertThat(socket.isConnected()).isTrue();
+        assertThat(socket.getPort()).isEqualTo(serverSocket.getLocalPort());
+        socket.close();
+        serverSocket.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testConnectToNoneReachable() throws Exception {
+        InetSocketAddress unreachableAddress1 = new InetSocketAddress(InetAddress.getLoopbackAddress(), getFreePort());
+        InetSocketAddress unreachableAddress2 = new InetSocketAddress(InetAddress.getLoopbackAddress(), getFreePort());
+        new RacingSocketConnector(5000, 10).connect(Arrays.asList(unreachableAddress1, unreachableAddress2));
+    }
+
+    @Test
+    public void testInterleaveAddressFamilies() throws Exception {
+        InetAddress ipv4Address1 = InetAddress.getByName("10.0.0.1");
+        InetAddress ipv4Address2 = InetAddress.getByName("10.0.0.2");
+        InetAddress ipv6Address1 = InetAddress.getByName("::1");
+        InetAddress ipv6Address2 = InetAddress.getByName("fe80::1");
+        List<InetAddress> interleaved = RacingSocketConnector.interleaveAddressFamilies(Arrays.asList(ipv6Address1, ipv6Address2, ipv4Address1, ipv4Address2));
+        assertThat(interleaved).containsExactly(ipv6Address1, ipv4Address1, ipv6Address2, ipv4Address2);
+    }
+
+    private static int getFreePort() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        return port;
+    }
+}
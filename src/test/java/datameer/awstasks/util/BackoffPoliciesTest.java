@@ -0,0 +1,58 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import static org.fest.assertions.Assertions.*;
+
+import org.junit.Test;
+
+public class BackoffPoliciesTest {
+
+    @Test
+    public void testExponential() throws Exception {
+        BackoffPolicy backoffPolicy = BackoffPolicies.exponential(100, 1000);
+        assertThat(backoffPolicy.getWaitTime(1, 0)).isEqualTo(100);
+        assertThat(backoffPolicy.getWaitTime(2, 100)).isEqualTo(200);
+        assertThat(backoffPolicy.getWaitTime(4, 400)).isEqualTo(800);
+        assertThat(backoffPolicy.getWaitTime(5, 800)).isEqualTo(1000);
+        assertThat(backoffPolicy.getWaitTime(100, 1000)).isEqualTo(1000);
+    }
+
+    @Test
+    public void testExponentialWithJitter() throws Exception {
+        BackoffPolicy backoffPolicy = BackoffPolicies.exponentialWithJitter(100, 1000);
+        for (int i = 1; i < 10; i++) {
+            assertThat(backoffPolicy.getWaitTime(i, 0)).isGreaterThanOrEqualTo(0).isLessThanOrEqualTo(Math.min(1000, 100 << (i - 1)));
+        }
+    }
+
+    @Test
+    public void testDecorrelatedJitter() throws Exception {
+        BackoffPolicy backoffPolicy = BackoffPolicies.decorrelatedJitter(100, 1000);
+        long waitTime = 0;
+        for (int i = 1; i < 20; i++) {
+            long previousWaitTime = waitTime;
+            waitTime = backoffPolicy.getWaitTime(i, previousWaitTime);
+            assertThat(waitTime).isGreaterThanOrEqualTo(100).isLessThanOrEqualTo(Math.max(100, Math.min(1000, previousWaitTime * 3)));
+        }
+    }
+
+    @Test
+    public void testCapped() throws Exception {
+        BackoffPolicy backoffPolicy = BackoffPolicies.capped(BackoffPolicies.constant(5000), 300);
+        assertThat(backoffPolicy.getWaitTime(1, 0)).isEqualTo(300);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import awstasks.com.amazonaws.services.ec2.AmazonEC2;
+import awstasks.com.amazonaws.services.ec2.model.CreateTagsRequest;
+import awstasks.com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import awstasks.com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import awstasks.com.amazonaws.services.ec2.model.Instance;
+import awstasks.com.amazonaws.services.ec2.model.InstanceState;
+import awstasks.com.amazonaws.services.ec2.model.InstanceStateName;
+import awstasks.com.amazonaws.services.ec2.model.Reservation;
+import awstasks.com.amazonaws.services.ec2.model.Tag;
+
+public class Ec2UtilTest {
+
+    @Test
+    public void testWaitUntil_OnlyPendingInstancesAreReloaded() throws Exception {
+        AmazonEC2 ec2 = mock(AmazonEC2.class);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(describeResult(instance("i-1", InstanceStateName.Running), instance("i-2", InstanceStateName.Pending)),
+                describeResult(instance("i-2", InstanceStateName.Running)));
+        final List<String> readyInstanceIds = new ArrayList<String>();
+
+        List<Instance> instances = Ec2Util.waitUntil(ec2, Arrays.asList(instance("i-1", InstanceStateName.Pending), instance("i-2", InstanceStateName.Pending)),
+                EnumSet.of(InstanceStateName.Pending), InstanceStateName.Running, TimeUnit.MINUTES, 1, new InstanceReadyCallback() {
+                    @Override
+                    public void instanceReady(Instance instance) {
+                        readyInstanceIds.add(instance.getInstanceId());
+                    }
+                });
+
+        assertThat(Ec2Util.toIds(instances)).containsExactly("i-1", "i-2");
+        assertThat(Ec2Util.toStates(instances)).containsOnly(InstanceStateName.Running.toString());
+        assertThat(readyInstanceIds).containsExactly("i-1", "i-2");
+        ArgumentCaptor<DescribeInstancesRequest> requestCaptor = ArgumentCaptor.forClass(DescribeInstancesRequest.class);
+        verify(ec2, times(2)).describeInstances(requestCaptor.capture());
+        assertThat(requestCaptor.getAllValues().get(1).getInstanceIds()).containsExactly("i-2");
+    }
+
+    @Test
+    public void testWaitUntil_ChecksImmediately() throws Exception {
+        AmazonEC2 ec2 = mock(AmazonEC2.class);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(describeResult(instance("i-1", InstanceStateName.Running)));
+
+        long start = System.currentTimeMillis();
+        Ec2Util.waitUntil(ec2, Arrays.asList(instance("i-1", InstanceStateName.Pending)), EnumSet.of(InstanceStateName.Pending), InstanceStateName.Running, TimeUnit.MINUTES, 1);
+        assertThat(System.currentTimeMillis() - start).isLessThan(1000);
+    }
+
+    @Test
+    public void testTagResources_Chunked() throws Exception {
+        AmazonEC2 ec2 = mock(AmazonEC2.class);
+        List<String> instanceIds = new ArrayList<String>();
+        for (int i = 0; i < 1500; i++) {
+            instanceIds.add("i-" + i);
+        }
+        Ec2Util.tagResources(ec2, instanceIds, new Tag("CreatedBy", "me"));
+
+        ArgumentCaptor<CreateTagsRequest> requestCaptor = ArgumentCaptor.forClass(CreateTagsRequest.class);
+        verify(ec2, times(2)).createTags(requestCaptor.capture());
+        assertThat(requestCaptor.getAllValues().get(0).getResources()).hasSize(1000);
+        assertThat(requestCaptor.getAllValues().get(1).getResources()).hasSize(500);
+    }
+
+    @Test
+    public void testTagResources_GroupedByTag() throws Exception {
+        AmazonEC2 ec2 = mock(AmazonEC2.class);
+        Map<String, List<Tag>> tagsByResourceId = new LinkedHashMap<String, List<Tag>>();
+        tagsByResourceId.put("i-1", Arrays.asList(new Tag("Name", "a"), new Tag("Role", "worker")));
+        tagsByResourceId.put("i-2", Arrays.asList(new Tag("Name", "b"), new Tag("Role", "worker")));
+        Ec2Util.tagResources(ec2, tagsByResourceId);
+
+        ArgumentCaptor<CreateTagsRequest> requestCaptor = ArgumentCaptor.forClass(CreateTagsRequest.class);
+        verify(ec2, times(3)).createTags(requestCaptor.capture());
+        assertThat(requestCaptor.getAllValues().get(1).getResources()).containsExactly("i-1", "i-2");
+    }
+
+    @Test
+    public void testDescribeInstances_FollowsNextToken() throws Exception {
+        AmazonEC2 ec2 = mock(AmazonEC2.class);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(describeResult(instance("i-1", InstanceStateName.Running)).withNextToken("page2"),
+                describeResult(instance("i-2", InstanceStateName.Running)));
+        DescribeInstancesRequest request = new DescribeInstancesRequest().withMaxResults(1);
+
+        Iterator<Instance> instances = Ec2Util.describeInstances(ec2, request).iterator();
+        assertThat(instances.next().getInstanceId()).isEqualTo("i-1");
+        verify(ec2, times(1)).describeInstances(any(DescribeInstancesRequest.class));
+        assertThat(instances.next().getInstanceId()).isEqualTo("i-2");
+        assertThat(instances.hasNext()).isFalse();
+
+        ArgumentCaptor<DescribeInstancesRequest> requestCaptor = ArgumentCaptor.forClass(DescribeInstancesRequest.class);
+        verify(ec2, times(2)).describeInstances(requestCaptor.capture());
+        assertThat(requestCaptor.getAllValues().get(1).getNextToken()).isEqualTo("page2");
+        assertThat(request.getNextToken()).isNull();
+    }
+
+    @Test
+    public void testReloadInstanceDescriptions_Chunked() throws Exception {
+        AmazonEC2 ec2 = mock(AmazonEC2.class);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class))).thenAnswer(new Answer<DescribeInstancesResult>() {
+            @Override
+            public DescribeInstancesResult answer(InvocationOnMock invocation) throws Throwable {
+                DescribeInstancesRequest request = (DescribeInstancesRequest) invocation.getArguments()[0];
+                List<Instance> instances = new ArrayList<Instance>();
+                for (String instanceId : request.getInstanceIds()) {
+                    instances.add(instance(instanceId, InstanceStateName.Running));
+                }
+                return describeResult(instances.toArray(new Instance[instances.size()]));
+            }
+        });
+        List<Instance> instances = new ArrayList<Instance>();
+        for (int i = 0; i < 450; i++) {
+            instances.add(instance("i-" + i, InstanceStateName.Pending));
+        }
+
+        List<Instance> reloadedInstances = Ec2Util.reloadInstanceDescriptions(ec2, instances);
+        assertThat(Ec2Util.toIds(reloadedInstances)).isEqualTo(Ec2Util.toIds(instances));
+        assertThat(Ec2Util.toStates(reloadedInstances)).containsOnly(InstanceStateName.Running.toString());
+        verify(ec2, times(3)).describeInstances(any(DescribeInstancesRequest.class));
+    }
+
+    private static DescribeInstancesResult describeResult(Instance... instances) {
+        return new DescribeInstancesResult().withReservations(new Reservation().withInstances(instances));
+    }
+
+    private static Instance instance(String id, InstanceStateName state) {
+        return new Instance().withInstanceId(id).withState(new InstanceState().withName(state)).withPublicDnsName(state == InstanceStateName.Running ? id + ".amazonaws.com" : "");
+    }
+}
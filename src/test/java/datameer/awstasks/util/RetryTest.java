@@ -20,6 +20,13 @@ import static org.fest.assertions.Assertions.*;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import org.junit.Test;
 
@@ -61,6 +68,103 @@ public class RetryTest {
         }
     }
 
+    @Test
+    public void testRetryOnAnyOf() throws Exception {
+        Retry retry = Retry.onAnyOf(IOException.class, IllegalStateException.class).withMaxRetries(3);
+        retry.execute(newFailingRunnable(new IllegalStateException(), 1));
+        assertThat(retry.getFailedTries()).isEqualTo(1);
+        retry.execute(newFailingRunnable(new RuntimeException(new IOException()), 2));
+        assertThat(retry.getFailedTries()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRetryBudgetExhausted() throws Exception {
+        RetryBudget retryBudget = new RetryBudget(2, 0, 0);
+        Retry retry = Retry.onExceptions(IOException.class).withMaxRetries(5).withRetryBudget(retryBudget);
+        IOException exception = new IOException();
+        try {
+            retry.execute(newFailingRunnable(exception, 5));
+            fail("should throw exception");
+        } catch (Exception e) {
+            assertThat(e.getCause()).isEqualTo(exception);
+        }
+        assertThat(retry.getFailedTries()).isEqualTo(2);
+        assertThat(retryBudget.getRejectedRetries()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRetryWithBackoff() throws Exception {
+        Retry retry = Retry.onExceptions(IOException.class).withMaxRetries(2).withBackoff(BackoffPolicies.exponential(50, 1000));
+        long startTime = System.currentTimeMillis();
+        retry.execute(newFailingRunnable(new IOException(), 2));
+        assertThat(System.currentTimeMillis() - startTime).isGreaterThanOrEqualTo(150);
+    }
+
+    @Test
+    public void testExecuteAsync_Successful() throws Exception {
+        Retry retry = Retry.onExceptions(IOException.class).withMaxRetries(3).withWaitTime(50);
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> future = retry.executeAsync(newFailingSupplier(new IOException(), 2, calls));
+        assertThat(future.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+        assertThat(calls.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testExecuteAsync_Failure() throws Exception {
+        Retry retry = Retry.onExceptions(IOException.class).withMaxRetries(2).withWaitTime(50);
+        IOException exception = new IOException();
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> future = retry.executeAsync(newFailingSupplier(exception, 5, calls));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("should throw exception");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isEqualTo(exception);
+        }
+        assertThat(calls.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testExecuteAsync_Timeout() throws Exception {
+        Retry retry = Retry.onExceptions(IOException.class).withMaxRetries(Integer.MAX_VALUE).withWaitTime(50).withTimeout(300, TimeUnit.MILLISECONDS);
+        CompletableFuture<String> future = retry.executeAsync(newFailingSupplier(new IOException(), Integer.MAX_VALUE, new AtomicInteger()));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("should throw exception");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IOException.class);
+        } catch (TimeoutException e) {
+            fail("retry should have given up");
+        }
+    }
+
+    @Test
+    public void testExecuteAsync_Cancel() throws Exception {
+        Retry retry = Retry.onExceptions(IOException.class).withMaxRetries(Integer.MAX_VALUE).withWaitTime(100);
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> future = retry.executeAsync(newFailingSupplier(new IOException(), Integer.MAX_VALUE, calls));
+        future.cancel(true);
+        int callsAfterCancel = calls.get();
+        Thread.sleep(300);
+        assertThat(calls.get()).isEqualTo(callsAfterCancel);
+    }
+
+    private Supplier<CompletionStage<String>> newFailingSupplier(final Exception exception, final int failTimes, final AtomicInteger calls) {
+        return new Supplier<CompletionStage<String>>() {
+
+            @Override
+            public CompletionStage<String> get() {
+                CompletableFuture<String> future = new CompletableFuture<String>();
+                if (calls.getAndIncrement() < failTimes) {
+                    future.completeExceptionally(exception);
+                } else {
+                    future.complete("done");
+                }
+                return future;
+            }
+        };
+    }
+
     private Runnable newFailingRunnable(final Exception exception, final int failTimes) {
         return new Runnable() {
             int failedTimes = 0;
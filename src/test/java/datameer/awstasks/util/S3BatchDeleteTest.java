@@ -0,0 +1,84 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import static org.fest.assertions.Assertions.*;
+
+import static org.junit.Assert.*;
+
+import static org.mockito.Matchers.*;
+
+import static org.mockito.Mockito.*;
+
+import static datameer.awstasks.util.S3TestUtil.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.DeleteObjectsResult;
+import awstasks.com.amazonaws.services.s3.model.DeleteObjectsResult.DeletedObject;
+import awstasks.com.amazonaws.services.s3.model.ListObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import awstasks.com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import awstasks.com.amazonaws.services.s3.model.ObjectListing;
+
+public class S3BatchDeleteTest {
+
+    @Test
+    public void testDeleteAllPages() throws Exception {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        ObjectListing page1 = createListing(true, "logs/a", "logs/b");
+        ObjectListing page2 = createListing(false, "logs/c");
+        when(s3Service.listObjects((ListObjectsRequest) any())).thenReturn(page1);
+        when(s3Service.listNextBatchOfObjects(page1)).thenReturn(page2);
+        when(s3Service.deleteObjects((DeleteObjectsRequest) any())).thenReturn(new DeleteObjectsResult(Arrays.<DeletedObject> asList()));
+
+        S3BatchDelete batchDelete = new S3BatchDelete(s3Service, "bucket", "/logs").withConcurrency(2);
+        batchDelete.execute();
+        assertEquals(3, batchDelete.getDeletedCount());
+        assertEquals(30, batchDelete.getDeletedBytes());
+
+        ArgumentCaptor<ListObjectsRequest> listCaptor = ArgumentCaptor.forClass(ListObjectsRequest.class);
+        verify(s3Service).listObjects(listCaptor.capture());
+        assertEquals("logs", listCaptor.getValue().getPrefix());
+        verify(s3Service, times(2)).deleteObjects((DeleteObjectsRequest) any());
+        verify(s3Service, never()).deleteObject(anyString(), anyString());
+    }
+
+    @Test
+    public void testPartialFailure() throws Exception {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        when(s3Service.listObjects((ListObjectsRequest) any())).thenReturn(createListing(false, "a", "b"));
+        DeleteError error = new DeleteError();
+        error.setKey("b");
+        error.setCode("AccessDenied");
+        when(s3Service.deleteObjects((DeleteObjectsRequest) any())).thenThrow(new MultiObjectDeleteException(Arrays.asList(error), Arrays.<DeletedObject> asList()));
+
+        S3BatchDelete batchDelete = new S3BatchDelete(s3Service, "bucket", "");
+        try {
+            batchDelete.execute();
+            fail("should throw exception");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("AccessDenied");
+        }
+        assertEquals(1, batchDelete.getDeletedCount());
+        assertEquals(1, batchDelete.getErrors().size());
+    }
+}
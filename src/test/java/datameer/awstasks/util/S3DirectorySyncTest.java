@@ -0,0 +1,110 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import static org.fest.assertions.Assertions.*;
+
+import static org.junit.Assert.*;
+
+import static org.mockito.Matchers.*;
+
+import static org.mockito.Mockito.*;
+
+import static datameer.awstasks.util.S3TestUtil.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.ListObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.ObjectListing;
+import awstasks.com.amazonaws.services.s3.model.PutObjectRequest;
+import datameer.awstasks.AbstractTest;
+import datameer.com.google.common.base.Charsets;
+import datameer.com.google.common.hash.Hashing;
+import datameer.com.google.common.io.Files;
+
+public class S3DirectorySyncTest extends AbstractTest {
+
+    @Test
+    public void testSync() throws Exception {
+        File dir = _tempFolder.newFolder("dir");
+        createFile(dir, "a", "a");
+        createFile(dir, "sub/b", "b");
+        createFile(dir, "c", "c");
+        File manifestFile = new File(_tempFolder.getRoot(), "manifest");
+
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        ObjectListing objectListing = new ObjectListing();
+        objectListing.getObjectSummaries().add(createSummary("prefix/a", 1, Hashing.md5().hashString("a", Charsets.UTF_8).toString()));
+        objectListing.getObjectSummaries().add(createSummary("prefix/sub/b", 1, "outdated"));
+        objectListing.getObjectSummaries().add(createSummary("prefix/removed", 1, "removed"));
+        when(s3Service.listObjects((ListObjectsRequest) any())).thenReturn(objectListing);
+
+        S3DirectorySync sync = new S3DirectorySync(s3Service, dir, "bucket", "/prefix").withDelete(true).withManifest(manifestFile);
+        sync.execute();
+        assertEquals(2, sync.getUploadedCount());
+        assertEquals(1, sync.getUnchangedCount());
+        assertEquals(1, sync.getDeletedCount());
+
+        ArgumentCaptor<PutObjectRequest> putCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3Service, times(2)).putObject(putCaptor.capture());
+        List<String> uploadedKeys = new ArrayList<String>();
+        for (PutObjectRequest request : putCaptor.getAllValues()) {
+            uploadedKeys.add(request.getKey());
+        }
+        assertThat(uploadedKeys).containsOnly("prefix/sub/b", "prefix/c");
+        ArgumentCaptor<DeleteObjectsRequest> deleteCaptor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Service).deleteObjects(deleteCaptor.capture());
+        assertEquals("prefix/removed", deleteCaptor.getValue().getKeys().get(0).getKey());
+
+        Properties manifest = new Properties();
+        FileInputStream in = new FileInputStream(manifestFile);
+        try {
+            manifest.load(in);
+        } finally {
+            in.close();
+        }
+        // files missing remotely are uploaded without hashing
+        assertThat(manifest.stringPropertyNames()).containsOnly("a", "sub/b");
+    }
+
+    @Test
+    public void testCalculateMultipartETag() throws Exception {
+        File file = createFile(_tempFolder.getRoot(), "file", "content");
+        S3MultipartUpload upload = new S3MultipartUpload(mock(AmazonS3.class), "bucket", file, "file");
+        assertEquals(Hashing.md5().hashString("content", Charsets.UTF_8).toString(), S3DirectorySync.calculateETag(file, upload));
+
+        File bigFile = _tempFolder.newFile("bigFile");
+        Files.write(new byte[(int) (S3MultipartUpload.MIN_PART_SIZE * 2 + 1)], bigFile);
+        upload = new S3MultipartUpload(mock(AmazonS3.class), "bucket", bigFile, "bigFile").withPartSize(S3MultipartUpload.MIN_PART_SIZE);
+        assertThat(S3DirectorySync.calculateETag(bigFile, upload)).endsWith("-3");
+    }
+
+    private static File createFile(File dir, String path, String content) throws Exception {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(content, file, Charsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import static org.fest.assertions.Assertions.*;
+
+import static org.junit.Assert.*;
+
+import static org.mockito.Matchers.*;
+
+import static org.mockito.Mockito.*;
+
+import static datameer.awstasks.util.S3TestUtil.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.AmazonS3Exception;
+import awstasks.com.amazonaws.services.s3.model.GetObjectRequest;
+import awstasks.com.amazonaws.services.s3.model.ListObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.ObjectMetadata;
+import awstasks.com.amazonaws.services.s3.model.S3Object;
+import datameer.awstasks.AbstractTest;
+import datameer.com.google.common.base.Charsets;
+import datameer.com.google.common.io.Files;
+
+public class S3MultipartDownloadTest extends AbstractTest {
+
+    @Test
+    public void testDownload() throws Exception {
+        byte[] content = randomContent(1000);
+        AmazonS3 s3Service = mockS3Service(content);
+        File file = new File(_tempFolder.getRoot(), "dir/file");
+        new S3MultipartDownload(s3Service, "bucket", "/file", file).withPartSize(100).withConcurrency(3).execute();
+        assertTrue(Arrays.equals(content, Files.toByteArray(file)));
+        verify(s3Service, times(10)).getObject((GetObjectRequest) any());
+        assertThat(_tempFolder.getRoot().listFiles()[0].list()).containsOnly("file");
+    }
+
+    @Test
+    public void testDownloadRetriesFailedPart() throws Exception {
+        final byte[] content = randomContent(200);
+        AmazonS3 s3Service = mockS3Service(content);
+        final AtomicInteger getCount = new AtomicInteger();
+        doAnswer(new Answer<S3Object>() {
+            @Override
+            public S3Object answer(InvocationOnMock invocation) throws Throwable {
+                if (getCount.incrementAndGet() == 1) {
+                    AmazonS3Exception exception = new AmazonS3Exception("SlowDown");
+                    exception.setStatusCode(503);
+                    throw exception;
+                }
+                return createS3Object(content, (GetObjectRequest) invocation.getArguments()[0]);
+            }
+        }).when(s3Service).getObject((GetObjectRequest) any());
+
+        File file = new File(_tempFolder.getRoot(), "file");
+        new S3MultipartDownload(s3Service, "bucket", "file", file).withPartSize(100).withConcurrency(1).execute();
+        assertTrue(Arrays.equals(content, Files.toByteArray(file)));
+        assertEquals(3, getCount.get());
+    }
+
+    @Test
+    public void testDownloadRetriesIncompletePart() throws Exception {
+        final byte[] content = randomContent(100);
+        AmazonS3 s3Service = mockS3Service(content);
+        final AtomicInteger getCount = new AtomicInteger();
+        doAnswer(new Answer<S3Object>() {
+            @Override
+            public S3Object answer(InvocationOnMock invocation) throws Throwable {
+                S3Object s3Object = createS3Object(content, (GetObjectRequest) invocation.getArguments()[0]);
+                if (getCount.incrementAndGet() == 1) {
+                    s3Object.setObjectContent(new ByteArrayInputStream(content, 0, 50));
+                }
+                return s3Object;
+            }
+        }).when(s3Service).getObject((GetObjectRequest) any());
+
+        File file = new File(_tempFolder.getRoot(), "file");
+        new S3MultipartDownload(s3Service, "bucket", "file", file).execute();
+        assertTrue(Arrays.equals(content, Files.toByteArray(file)));
+        assertEquals(2, getCount.get());
+    }
+
+    @Test
+    public void testRemoteFileChangedDuringDownload() throws Exception {
+        final byte[] content = randomContent(200);
+        AmazonS3 s3Service = mockS3Service(content);
+        ObjectMetadata oldMetadata = new ObjectMetadata();
+        oldMetadata.setContentLength(content.length);
+        oldMetadata.setHeader("ETag", "oldEtag");
+        ObjectMetadata newMetadata = new ObjectMetadata();
+        newMetadata.setContentLength(content.length);
+        newMetadata.setHeader("ETag", "etag");
+        when(s3Service.getObjectMetadata(eq("bucket"), anyString())).thenReturn(oldMetadata, newMetadata);
+        doAnswer(new Answer<S3Object>() {
+            @Override
+            public S3Object answer(InvocationOnMock invocation) throws Throwable {
+                GetObjectRequest request = (GetObjectRequest) invocation.getArguments()[0];
+                if (!request.getMatchingETagConstraints().contains("etag")) {
+                    return null;// precondition failed
+                }
+                return createS3Object(content, request);
+            }
+        }).when(s3Service).getObject((GetObjectRequest) any());
+
+        File file = new File(_tempFolder.getRoot(), "file");
+        new S3MultipartDownload(s3Service, "bucket", "file", file).withPartSize(100).withConcurrency(1).withResume(true).execute();
+        assertTrue(Arrays.equals(content, Files.toByteArray(file)));
+        verify(s3Service, times(2)).getObjectMetadata(eq("bucket"), anyString());
+        verify(s3Service, times(3)).getObject((GetObjectRequest) any());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        byte[] content = randomContent(1000);
+        AmazonS3 s3Service = mockS3Service(content);
+        File file = _tempFolder.newFile("file");
+        File partialFile = new File(file.getPath() + ".download");
+        byte[] partialContent = new byte[content.length];
+        System.arraycopy(content, 0, partialContent, 0, 300);
+        Files.write(partialContent, partialFile);
+        Files.write("etag:1000:100\n0\n1\n2\n", new File(file.getPath() + ".parts"), Charsets.UTF_8);
+
+        new S3MultipartDownload(s3Service, "bucket", "file", file).withPartSize(100).withResume(true).execute();
+        assertTrue(Arrays.equals(content, Files.toByteArray(file)));
+        verify(s3Service, times(7)).getObject((GetObjectRequest) any());
+        assertFalse(partialFile.exists());
+    }
+
+    @Test
+    public void testResume_RemoteFileChanged() throws Exception {
+        byte[] content = randomContent(1000);
+        AmazonS3 s3Service = mockS3Service(content);
+        File file = _tempFolder.newFile("file");
+        Files.write(new byte[1000], new File(file.getPath() + ".download"));
+        Files.write("otherEtag:1000:100\n0\n1\n2\n", new File(file.getPath() + ".parts"), Charsets.UTF_8);
+
+        new S3MultipartDownload(s3Service, "bucket", "file", file).withPartSize(100).withResume(true).execute();
+        assertTrue(Arrays.equals(content, Files.toByteArray(file)));
+        verify(s3Service, times(10)).getObject((GetObjectRequest) any());
+    }
+
+    @Test
+    public void testDownloadFiles() throws Exception {
+        byte[] content = randomContent(100);
+        AmazonS3 s3Service = mockS3Service(content);
+        when(s3Service.listObjects((ListObjectsRequest) any())).thenReturn(createListing(false, "folder/", "folder/a", "folder/sub/b"));
+
+        S3Util.downloadFiles(s3Service, "bucket", "/folder/", _tempFolder.getRoot(), 2, false);
+        assertTrue(Arrays.equals(content, Files.toByteArray(new File(_tempFolder.getRoot(), "a"))));
+        assertTrue(Arrays.equals(content, Files.toByteArray(new File(_tempFolder.getRoot(), "sub/b"))));
+
+        ArgumentCaptor<ListObjectsRequest> listCaptor = ArgumentCaptor.forClass(ListObjectsRequest.class);
+        verify(s3Service).listObjects(listCaptor.capture());
+        assertEquals("folder/", listCaptor.getValue().getPrefix());
+    }
+
+    private static byte[] randomContent(int length) {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    private static AmazonS3 mockS3Service(final byte[] content) {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        metadata.setHeader("ETag", "etag");
+        when(s3Service.getObjectMetadata(eq("bucket"), anyString())).thenReturn(metadata);
+        when(s3Service.getObject((GetObjectRequest) any())).thenAnswer(new Answer<S3Object>() {
+            @Override
+            public S3Object answer(InvocationOnMock invocation) throws Throwable {
+                return createS3Object(content, (GetObjectRequest) invocation.getArguments()[0]);
+            }
+        });
+        return s3Service;
+    }
+
+    private static S3Object createS3Object(byte[] content, GetObjectRequest request) {
+        assertEquals(Arrays.asList("etag"), request.getMatchingETagConstraints());
+        long[] range = request.getRange();
+        S3Object s3Object = new S3Object();
+        s3Object.setObjectContent(new ByteArrayInputStream(content, (int) range[0], (int) (range[1] - range[0] + 1)));
+        return s3Object;
+    }
+}
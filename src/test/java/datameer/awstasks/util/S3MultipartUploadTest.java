@@ -0,0 +1,182 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import static org.fest.assertions.Assertions.*;
+
+import static org.junit.Assert.*;
+
+import static org.mockito.Matchers.*;
+
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import awstasks.com.amazonaws.AmazonClientException;
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import awstasks.com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import awstasks.com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import awstasks.com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import awstasks.com.amazonaws.services.s3.model.PutObjectRequest;
+import awstasks.com.amazonaws.services.s3.model.UploadPartRequest;
+import awstasks.com.amazonaws.services.s3.model.UploadPartResult;
+import datameer.awstasks.AbstractTest;
+import datameer.com.google.common.util.concurrent.Uninterruptibles;
+
+public class S3MultipartUploadTest extends AbstractTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testSmallFileUsesSinglePut() throws Exception {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        File file = createFile(MB);
+        new S3MultipartUpload(s3Service, "bucket", file, "/folder/file").execute();
+        ArgumentCaptor<PutObjectRequest> requestCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3Service).putObject(requestCaptor.capture());
+        assertEquals("folder/file", requestCaptor.getValue().getKey());
+        verify(s3Service, never()).initiateMultipartUpload((InitiateMultipartUploadRequest) any());
+    }
+
+    @Test
+    public void testPartSize() throws Exception {
+        File file = createFile(12 * MB);
+        S3MultipartUpload upload = new S3MultipartUpload(mock(AmazonS3.class), "bucket", file, "file").withPartSize(MB);
+        assertEquals(S3MultipartUpload.MIN_PART_SIZE, upload.getPartSize());
+        assertEquals(3, upload.getPartCount());
+    }
+
+    @Test
+    public void testMultipartUpload() throws Exception {
+        AmazonS3 s3Service = mockMultipartS3Service();
+        when(s3Service.uploadPart((UploadPartRequest) any())).thenThrow(new AmazonClientException("connection reset")).thenAnswer(new UploadPartAnswer());
+        File file = createFile(12 * MB);
+        new S3MultipartUpload(s3Service, "bucket", file, "file").withPartSize(5 * MB).withConcurrency(2).execute();
+
+        ArgumentCaptor<UploadPartRequest> partCaptor = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(s3Service, times(4)).uploadPart(partCaptor.capture());
+        long uploadedSize = 0;
+        for (UploadPartRequest request : partCaptor.getAllValues()) {
+            assertNotNull(request.getMd5Digest());
+            uploadedSize += request.getPartSize();
+        }
+        assertThat(uploadedSize).isGreaterThan(file.length());
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> completeCaptor = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3Service).completeMultipartUpload(completeCaptor.capture());
+        assertEquals(3, completeCaptor.getValue().getPartETags().size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, completeCaptor.getValue().getPartETags().get(i).getPartNumber());
+        }
+        verify(s3Service, never()).abortMultipartUpload((AbortMultipartUploadRequest) any());
+    }
+
+    @Test
+    public void testAbortOnFailure() throws Exception {
+        AmazonS3 s3Service = mockMultipartS3Service();
+        when(s3Service.uploadPart((UploadPartRequest) any())).thenThrow(new IllegalStateException("failure"));
+        File file = createFile(12 * MB);
+        try {
+            new S3MultipartUpload(s3Service, "bucket", file, "file").withPartSize(5 * MB).execute();
+            fail("should throw exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        verify(s3Service).abortMultipartUpload((AbortMultipartUploadRequest) any());
+        verify(s3Service, never()).completeMultipartUpload((CompleteMultipartUploadRequest) any());
+    }
+
+    @Test
+    public void testAbortAfterRunningPartsFinished() throws Exception {
+        AmazonS3 s3Service = mockMultipartS3Service();
+        final AtomicInteger runningParts = new AtomicInteger();
+        final AtomicInteger runningPartsOnAbort = new AtomicInteger(-1);
+        when(s3Service.uploadPart((UploadPartRequest) any())).thenAnswer(new Answer<UploadPartResult>() {
+            @Override
+            public UploadPartResult answer(InvocationOnMock invocation) throws Throwable {
+                UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+                if (request.getPartNumber() == 1) {
+                    Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+                    throw new IllegalStateException("failure");
+                }
+                runningParts.incrementAndGet();
+                try {
+                    // an in-flight request doesn't stop on interrupt
+                    Uninterruptibles.sleepUninterruptibly(300, TimeUnit.MILLISECONDS);
+                    return new UploadPartAnswer().answer(invocation);
+                } finally {
+                    runningParts.decrementAndGet();
+                }
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                runningPartsOnAbort.set(runningParts.get());
+                return null;
+            }
+        }).when(s3Service).abortMultipartUpload((AbortMultipartUploadRequest) any());
+        File file = createFile(12 * MB);
+        try {
+            new S3MultipartUpload(s3Service, "bucket", file, "file").withPartSize(5 * MB).withConcurrency(3).withMd5Check(false).execute();
+            fail("should throw exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0, runningPartsOnAbort.get());
+        verify(s3Service, never()).completeMultipartUpload((CompleteMultipartUploadRequest) any());
+    }
+
+    private AmazonS3 mockMultipartS3Service() {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        InitiateMultipartUploadResult initiateResult = new InitiateMultipartUploadResult();
+        initiateResult.setUploadId("upload1");
+        when(s3Service.initiateMultipartUpload((InitiateMultipartUploadRequest) any())).thenReturn(initiateResult);
+        return s3Service;
+    }
+
+    private File createFile(long length) throws Exception {
+        File file = _tempFolder.newFile("file" + length);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length);
+        } finally {
+            randomAccessFile.close();
+        }
+        return file;
+    }
+
+    private static class UploadPartAnswer implements Answer<UploadPartResult> {
+
+        @Override
+        public UploadPartResult answer(InvocationOnMock invocation) throws Throwable {
+            UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag" + request.getPartNumber());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import awstasks.com.amazonaws.services.s3.model.ObjectListing;
+import awstasks.com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Creates s3 listing fixtures for mocked s3 services.
+ */
+public class S3TestUtil {
+
+    /**
+     * Creates a listing page with an object of size 10 for each key.
+     */
+    public static ObjectListing createListing(boolean truncated, String... keys) {
+        ObjectListing objectListing = new ObjectListing();
+        objectListing.setTruncated(truncated);
+        for (String key : keys) {
+            objectListing.getObjectSummaries().add(createSummary(key, 10, null));
+        }
+        return objectListing;
+    }
+
+    public static S3ObjectSummary createSummary(String key, long size, String eTag) {
+        S3ObjectSummary objectSummary = new S3ObjectSummary();
+        objectSummary.setKey(key);
+        objectSummary.setSize(size);
+        objectSummary.setETag(eTag);
+        return objectSummary;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datameer.awstasks.util;
+
+import static org.fest.assertions.Assertions.*;
+
+import static org.junit.Assert.*;
+
+import static org.mockito.Matchers.*;
+
+import static org.mockito.Mockito.*;
+
+import static datameer.awstasks.util.S3TestUtil.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import awstasks.com.amazonaws.services.s3.AmazonS3;
+import awstasks.com.amazonaws.services.s3.model.ListObjectsRequest;
+import awstasks.com.amazonaws.services.s3.model.ObjectListing;
+import awstasks.com.amazonaws.services.s3.model.S3ObjectSummary;
+
+public class S3UtilTest {
+
+    @Test
+    public void testListObjectsLazily() throws Exception {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        ObjectListing page1 = createListing(true, "a", "b");
+        ObjectListing page2 = createListing(false, "c");
+        when(s3Service.listObjects((ListObjectsRequest) any())).thenReturn(page1);
+        when(s3Service.listNextBatchOfObjects(page1)).thenReturn(page2);
+
+        Iterator<S3ObjectSummary> iterator = S3Util.listObjects(s3Service, "bucket", "").iterator();
+        verifyZeroInteractions(s3Service);
+        assertEquals("a", iterator.next().getKey());
+        assertEquals("b", iterator.next().getKey());
+        verify(s3Service, never()).listNextBatchOfObjects((ObjectListing) any());
+        assertEquals("c", iterator.next().getKey());
+        assertFalse(iterator.hasNext());
+        verify(s3Service, times(1)).listNextBatchOfObjects((ObjectListing) any());
+    }
+
+    @Test
+    public void testListObjectsParallel() throws Exception {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        final ObjectListing dirPage1 = createListing(true, "logs/x");
+        dirPage1.getCommonPrefixes().add("logs/1/");
+        ObjectListing dirPage2 = createListing(false);
+        dirPage2.getCommonPrefixes().add("logs/2/");
+        when(s3Service.listNextBatchOfObjects(dirPage1)).thenReturn(dirPage2);
+        when(s3Service.listObjects((ListObjectsRequest) any())).thenAnswer(new Answer<ObjectListing>() {
+            @Override
+            public ObjectListing answer(InvocationOnMock invocation) throws Throwable {
+                ListObjectsRequest request = (ListObjectsRequest) invocation.getArguments()[0];
+                if (request.getPrefix().equals("logs/")) {
+                    assertEquals("/", request.getDelimiter());
+                    return dirPage1;
+                }
+                assertNull(request.getDelimiter());
+                return createListing(false, request.getPrefix() + "a", request.getPrefix() + "b");
+            }
+        });
+
+        List<String> keys = new ArrayList<String>();
+        ParallelObjectListing objectListing = S3Util.listObjectsParallel(s3Service, "bucket", "/logs/", 2);
+        while (objectListing.hasNext()) {
+            keys.add(objectListing.next().getKey());
+        }
+        assertThat(keys).containsOnly("logs/x", "logs/1/a", "logs/1/b", "logs/2/a", "logs/2/b");
+        verify(s3Service, times(3)).listObjects((ListObjectsRequest) any());
+    }
+
+    @Test
+    public void testListObjectsParallelDescendsSingleCommonPrefix() throws Exception {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        when(s3Service.listObjects((ListObjectsRequest) any())).thenAnswer(new Answer<ObjectListing>() {
+            @Override
+            public ObjectListing answer(InvocationOnMock invocation) throws Throwable {
+                ListObjectsRequest request = (ListObjectsRequest) invocation.getArguments()[0];
+                ObjectListing listing = createListing(false);
+                if (request.getPrefix().equals("logs")) {
+                    assertEquals("/", request.getDelimiter());
+                    listing.getCommonPrefixes().add("logs/");
+                    return listing;
+                }
+                if (request.getPrefix().equals("logs/")) {
+                    assertEquals("/", request.getDelimiter());
+                    listing.getCommonPrefixes().add("logs/1/");
+                    listing.getCommonPrefixes().add("logs/2/");
+                    return listing;
+                }
+                assertNull(request.getDelimiter());
+                return createListing(false, request.getPrefix() + "a");
+            }
+        });
+
+        List<String> keys = new ArrayList<String>();
+        ParallelObjectListing objectListing = S3Util.listObjectsParallel(s3Service, "bucket", "logs", 2);
+        while (objectListing.hasNext()) {
+            keys.add(objectListing.next().getKey());
+        }
+        assertThat(keys).containsOnly("logs/1/a", "logs/2/a");
+        verify(s3Service, times(4)).listObjects((ListObjectsRequest) any());
+    }
+
+    @Test
+    public void testListObjectsParallelFailure() throws Exception {
+        AmazonS3 s3Service = mock(AmazonS3.class);
+        when(s3Service.listObjects((ListObjectsRequest) any())).thenThrow(new IllegalStateException("access denied"));
+
+        ParallelObjectListing objectListing = S3Util.listObjectsParallel(s3Service, "bucket", "", 2);
+        try {
+            objectListing.hasNext();
+            fail("should throw exception");
+        } catch (IllegalStateException e) {
+            assertEquals("access denied", e.getMessage());
+        }
+    }
+}